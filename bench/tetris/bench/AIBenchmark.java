@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package tetris.bench;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tetris.ai.TetrisAI;
+import tetris.ai.TranspositionTable;
+import tetris.generic.BlockMover;
+import tetris.generic.Definitions;
+import tetris.generic.PieceSource;
+import tetris.generic.TetrisEngine;
+
+/**
+ * The latency of a decision of the AI on fixed boards: the board of a seeded
+ * game after the AI itself played some pieces.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AIBenchmark {
+    @Param({"0", "30", "90"})
+    public int pieces;
+
+    @Param({"2", "3"})
+    public int depth;
+
+    @Param({"true", "false"})
+    public boolean cache;
+
+    private TetrisAI ai;
+    private TetrisEngine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException, ExecutionException {
+        this.ai = new TetrisAI(MoreExecutors.sameThreadExecutor());
+        this.engine = new TetrisEngine(Definitions.create(6, 20), PieceSource.uniform(7));
+        this.engine.startengine();
+        for (int i = 0; i < this.pieces; i++) {
+            BlockMover mover = this.ai.process(this.engine).get();
+            mover.slam();
+        }
+        this.ai.setSearchDepth(this.depth);
+    }
+
+    /**
+     * Every call decides on the same board, so a table kept across calls
+     * would only measure lookups.
+     */
+    @Setup(Level.Invocation)
+    public void resetCache() {
+        this.ai.setTranspositionTable(this.cache ? new TranspositionTable(1 << 16) : null);
+    }
+
+    @Benchmark
+    public BlockMover computeBestFit() throws InterruptedException, ExecutionException {
+        return this.ai.process(this.engine).get();
+    }
+}
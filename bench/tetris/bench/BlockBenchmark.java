@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package tetris.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tetris.generic.Block;
+import tetris.generic.Definitions;
+import tetris.generic.PieceSource;
+import tetris.generic.TetrisEngine;
+
+/**
+ * The cost of copying a board of blocks, and of building it from the engine.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BlockBenchmark {
+    @Param({"6", "10"})
+    public int width;
+
+    private TetrisEngine engine;
+    private Block[][] blocks;
+
+    @Setup
+    public void setUp() {
+        this.engine = new TetrisEngine(Definitions.create(this.width, 20), PieceSource.uniform(42));
+        this.engine.startengine();
+        for (int i = 0; i < 6; i++) {
+            this.engine.keyslam();
+        }
+        this.blocks = this.engine.getBlocks();
+    }
+
+    @Benchmark
+    public Block[][] copy2D() {
+        return Block.copy2D(this.blocks);
+    }
+
+    @Benchmark
+    public Block[][] getBlocks() {
+        return this.engine.getBlocks();
+    }
+}
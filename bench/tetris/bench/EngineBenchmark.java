@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package tetris.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tetris.generic.Definitions;
+import tetris.generic.PieceSource;
+import tetris.generic.TetrisEngine;
+import tetris.generic.TetrisEngine.Move;
+import tetris.generic.TetrisEngine.Snapshot;
+
+/**
+ * The cost of a single move of the engine, from the same position every time.
+ *
+ * Moves change the board, so the position is restored before each batch of
+ * moves. A single move takes nanoseconds, too short to be timed alone with
+ * an invocation level fixture; the batch spreads the cost of restore(),
+ * measured by itself in {@link SnapshotBenchmark}, over its moves.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EngineBenchmark {
+    private static final int BATCH = 4;
+
+    @Param({"RIGHT", "LEFT", "ROTATE", "DOWN", "SLAM"})
+    public Move move;
+
+    private TetrisEngine engine;
+    private Snapshot start;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.engine = new TetrisEngine(Definitions.create(10, 20), PieceSource.uniform(42));
+        this.engine.startengine();
+        // Settle a few pieces so the moves collide with something.
+        for (int i = 0; i < 6; i++) {
+            this.engine.keyslam();
+        }
+        this.start = this.engine.fork();
+        // A side move or a rotation that is blocked does nothing, it would
+        // be timed with the others; falls always change the game.
+        if (this.move != Move.DOWN && this.move != Move.SLAM) {
+            for (int i = 0; i < BATCH; i++) {
+                if (!this.engine.tryMove(this.move)) {
+                    throw new IllegalStateException("a batch of " + this.move + " is blocked");
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int tryMove() {
+        this.engine.restore(this.start);
+        int moved = 0;
+        for (int i = 0; i < BATCH; i++) {
+            if (this.engine.tryMove(this.move)) {
+                moved++;
+            }
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package tetris.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tetris.generic.TetrisEngine.Move;
+import tetris.generic.TetrisEngine.MoveResult;
+import tetris.generic.Tetromino;
+import tetris.net.Protocol;
+
+/**
+ * The throughput of the move codec, for a plain move and for a move that
+ * ends a fall and carries the next block.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProtocolBenchmark {
+    private Protocol protocol;
+    private MoveResult move;
+    private MoveResult fall;
+    private String encodedMove;
+    private String encodedFall;
+
+    @Setup
+    public void setUp() {
+        this.protocol = Protocol.create();
+        this.move = new MoveResult(Move.LEFT, true, null);
+        Tetromino nextblock = new Tetromino(Tetromino.Type.T, 2);
+        nextblock.x = 3;
+        this.fall = new MoveResult(Move.SLAM, true, nextblock);
+        this.encodedMove = this.protocol.encodeMoveResult(this.move);
+        this.encodedFall = this.protocol.encodeMoveResult(this.fall);
+    }
+
+    @Benchmark
+    public String encodeMove() {
+        return this.protocol.encodeMoveResult(this.move);
+    }
+
+    @Benchmark
+    public String encodeFall() {
+        return this.protocol.encodeMoveResult(this.fall);
+    }
+
+    @Benchmark
+    public MoveResult decodeMove() {
+        return this.protocol.decodeMoveResult(this.encodedMove);
+    }
+
+    @Benchmark
+    public MoveResult decodeFall() {
+        return this.protocol.decodeMoveResult(this.encodedFall);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package tetris.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import tetris.generic.Definitions;
+import tetris.generic.PieceSource;
+import tetris.generic.TetrisEngine;
+import tetris.generic.TetrisEngine.CompleteState;
+import tetris.generic.TetrisEngine.Snapshot;
+
+/**
+ * The cost of saving and restoring a whole game, with fork() and restore()
+ * against dumpCompleteState() and loadCompleteState().
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SnapshotBenchmark {
+    private TetrisEngine engine;
+    private Snapshot snapshot;
+    private CompleteState completeState;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.engine = new TetrisEngine(Definitions.create(10, 20), PieceSource.uniform(42));
+        this.engine.startengine();
+        for (int i = 0; i < 6; i++) {
+            this.engine.keyslam();
+        }
+        this.snapshot = this.engine.fork();
+        this.completeState = this.engine.dumpCompleteState();
+    }
+
+    @Benchmark
+    public Snapshot fork() {
+        return this.engine.fork();
+    }
+
+    @Benchmark
+    public TetrisEngine restore() {
+        this.engine.restore(this.snapshot);
+        return this.engine;
+    }
+
+    @Benchmark
+    public CompleteState dumpCompleteState() {
+        return this.engine.dumpCompleteState();
+    }
+
+    @Benchmark
+    public TetrisEngine loadCompleteState() {
+        this.engine.loadCompleteState(this.completeState);
+        return this.engine;
+    }
+}
@@ -16,13 +16,40 @@ public abstract class AbstractAI {
         this.executor = executor;
     }
 
-    protected abstract ListenableFuture<BlockPosition> computeBestFit(TetrisEngine engine);
+    /**
+     * Searches the placement of the active block. Better placements found
+     * on the way should be offered to the decision, and the search should
+     * end early once the decision is stopped.
+     *
+     * @param engine the game, it must not be changed during the search
+     * @param decision where the placements found so far are published
+     * @return the best placement, or null if there is none
+     */
+    protected abstract ListenableFuture<BlockPosition> computeBestFit(TetrisEngine engine, Decision decision);
+
+    /**
+     * Starts deciding where the active block goes. The best placement so
+     * far can be taken from the decision at any time.
+     *
+     * @param engine the game
+     * @return the decision, already finished with null if the game is not
+     *         being played
+     */
+    public Decision decide(TetrisEngine engine) {
+        Decision decision = new Decision();
+        if (engine.getState() != GameState.PLAYING) {
+            decision.follow(Futures.<BlockPosition>immediateFuture(null));
+        } else {
+            decision.follow(this.computeBestFit(engine, decision));
+        }
+        return decision;
+    }
 
     public ListenableFuture<BlockMover> process(final TetrisEngine engine) {
         if (engine.getState() != GameState.PLAYING) {
             return Futures.immediateFuture(null);
         }
-        return Futures.transform(this.computeBestFit(engine), new Function<BlockPosition, BlockMover>() {
+        return Futures.transform(this.decide(engine).getResult(), new Function<BlockPosition, BlockMover>() {
             @Override
             public BlockMover apply(BlockPosition temp) {
                 return new BlockMover(engine, temp);
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.ai;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import tetris.generic.BlockMover;
+import tetris.generic.Definitions;
+import tetris.generic.PieceSource;
+import tetris.generic.Score;
+import tetris.generic.TetrisEngine;
+import tetris.generic.TetrisEngine.GameState;
+
+/**
+ * Plays seeded games with a TetrisAI, without a GUI.
+ * Every game is driven by a thread of the executor, which only waits for
+ * the decisions of the AI; the searches themselves run on the fork/join
+ * pool of the AI. So the executor should have more threads than the pool
+ * has workers, to always keep a search queued.
+ *
+ * Games are deterministic: the game n of a batch uses the seed
+ * firstSeed + n, so the same batch always gives the same results.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public final class BatchRunner {
+    private final TetrisAI ai;
+    private final ListeningExecutorService executor;
+    private final Definitions defs;
+    private final int maxPieces;
+
+    /**
+     * @param ai the AI that plays every game
+     * @param executor the executor that drives the games
+     * @param defs the definitions of the boards
+     * @param maxPieces how many pieces a game may last
+     */
+    public BatchRunner(TetrisAI ai, ListeningExecutorService executor, Definitions defs, int maxPieces) {
+        this.ai = ai;
+        this.executor = executor;
+        this.defs = defs;
+        this.maxPieces = maxPieces;
+    }
+
+    /**
+     * Plays a single game.
+     *
+     * @param game the number of the game, to identify its result
+     * @param seed the seed of the pieces
+     * @return the result of the game
+     */
+    public ListenableFuture<GameResult> play(final int game, final long seed) {
+        return this.executor.submit(new Callable<GameResult>() {
+            @Override
+            public GameResult call() throws Exception {
+                TetrisEngine engine = new TetrisEngine(defs, PieceSource.uniform(seed), true);
+                engine.startengine();
+                int pieces = 0;
+                while (pieces < maxPieces && engine.getState() == GameState.PLAYING) {
+                    BlockMover mover = ai.process(engine).get();
+                    if (mover == null) {
+                        break;
+                    }
+                    mover.slam();
+                    pieces++;
+                }
+                return new GameResult(game, seed, engine.getScore(), pieces);
+            }
+        });
+    }
+
+    /**
+     * Plays a batch of games at the same time.
+     *
+     * @param firstSeed the seed of the first game
+     * @param games how many games to play
+     * @return the results of the games, in order
+     */
+    public ListenableFuture<List<GameResult>> playAll(long firstSeed, int games) {
+        List<ListenableFuture<GameResult>> futures = new ArrayList<>(games);
+        for (int i = 0; i < games; i++) {
+            futures.add(this.play(i, firstSeed + i));
+        }
+        return Futures.allAsList(futures);
+    }
+
+    /**
+     * The outcome of a game.
+     */
+    public static final class GameResult {
+        public final int game;
+        public final long seed;
+        public final int score;
+        public final int lines;
+        public final int pieces;
+
+        GameResult(int game, long seed, Score score, int pieces) {
+            this.game = game;
+            this.seed = seed;
+            this.score = score.getScore();
+            this.lines = score.getLinesRemoved();
+            this.pieces = pieces;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof GameResult) {
+                GameResult other = (GameResult) obj;
+                return this.game == other.game && this.seed == other.seed && this.score == other.score
+                        && this.lines == other.lines && this.pieces == other.pieces;
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 59 * hash + this.game;
+            hash = 59 * hash + (int) (this.seed ^ (this.seed >>> 32));
+            hash = 59 * hash + this.score;
+            hash = 59 * hash + this.lines;
+            hash = 59 * hash + this.pieces;
+            return hash;
+        }
+
+        /**
+         * @return the result as a line of comma separated values
+         */
+        @Override
+        public String toString() {
+            return String.format("%d,%d,%d,%d,%d", this.game, this.seed, this.score, this.lines, this.pieces);
+        }
+    }
+
+    /**
+     * Plays a batch and prints one line per game to the standard output.
+     * Arguments: [games [firstSeed [maxPieces [width height]]]].
+     */
+    public static void main(String[] args) throws Exception {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        long firstSeed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        int maxPieces = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        Definitions defs = args.length > 4
+                ? Definitions.create(Integer.parseInt(args[3]), Integer.parseInt(args[4]))
+                : Definitions.create(6, 20);
+
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+        ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
+        try {
+            TetrisAI ai = new TetrisAI(MoreExecutors.sameThreadExecutor());
+            BatchRunner runner = new BatchRunner(ai, executor, defs, maxPieces);
+
+            long start = System.nanoTime();
+            List<GameResult> results = runner.playAll(firstSeed, games).get();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.println("game,seed,score,lines,pieces");
+            long lines = 0;
+            long pieces = 0;
+            for (GameResult result : results) {
+                System.out.println(result);
+                lines += result.lines;
+                pieces += result.pieces;
+            }
+            System.err.printf("%d games, %.1f lines per game, %.0f pieces per second%n",
+                              games, (double) lines / games, pieces / seconds);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.ai;
+
+/**
+ * The counts the TetrisAI heuristic is made of, for a mock grid where 1 marks
+ * a settled cell and 2 a cell of a simulated block.
+ * The base board of a decision keeps per column summaries so the features of
+ * a board derived from it only need the touched columns to be rescanned.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+final class BoardFeatures {
+    int touchingEdges;
+    int touchingWalls;
+    int touchingFloor;
+    int height;
+    int holes;
+    int blockades;
+
+    private int[] columnHeight;
+    private int[] columnHoles;
+    private int[] columnBlockades;
+
+    /**
+     * Scans a base grid, keeping the per column summaries.
+     *
+     * @param grid a byte[width][height] matrix
+     * @return the features of the grid
+     */
+    static BoardFeatures of(byte[][] grid) {
+        BoardFeatures features = new BoardFeatures();
+        features.columnHeight = new int[grid.length];
+        features.columnHoles = new int[grid.length];
+        features.columnBlockades = new int[grid.length];
+        features.scan(grid);
+        return features;
+    }
+
+    /**
+     * Recomputes every feature by scanning the whole grid.
+     */
+    void scan(byte[][] grid) {
+        int width = grid.length;
+        int h = grid[0].length;
+        this.touchingEdges = 0;
+        this.touchingWalls = 0;
+        this.touchingFloor = 0;
+        this.height = 0;
+        this.holes = 0;
+        this.blockades = 0;
+
+        //horizontal pairs
+        for (int i = 0; i < h; i++) {
+            for (int j = 0; j < width - 1; j++) {
+                if (j == 0 && grid[j][i] == 2) {
+                    this.touchingWalls++;
+                }
+                if (j + 1 == width - 1 && grid[j + 1][i] == 2) {
+                    this.touchingWalls++;
+                }
+                if (grid[j][i] + grid[j + 1][i] >= 3) {
+                    this.touchingEdges++;
+                }
+            }
+        }
+
+        //vertical pairs
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < h - 1; j++) {
+                if (j + 1 == h - 1 && grid[i][j + 1] == 2) {
+                    this.touchingFloor++;
+                }
+                if (grid[i][j] + grid[i][j + 1] >= 3) {
+                    this.touchingEdges++;
+                }
+            }
+        }
+
+        for (int i = 0; i < width; i++) {
+            int columnHeight = columnHeight(grid[i]);
+            int columnHoles = columnHoles(grid[i]);
+            int columnBlockades = columnBlockades(grid[i]);
+            this.height += columnHeight;
+            this.holes += columnHoles;
+            this.blockades += columnBlockades;
+            if (this.columnHeight != null) {
+                this.columnHeight[i] = columnHeight;
+                this.columnHoles[i] = columnHoles;
+                this.columnBlockades[i] = columnBlockades;
+            }
+        }
+    }
+
+    /**
+     * Computes the features of a scratch grid derived from the base board by
+     * writing cells only, looking at the written cells and their columns.
+     * Falls back to a full scan if rows were shifted by a line clear.
+     * The base board must only hold settled cells.
+     *
+     * @param base the features of the base board, with per column summaries
+     * @param scratch a grid loaded from the base board
+     */
+    void update(BoardFeatures base, ScratchGrid scratch) {
+        byte[][] grid = scratch.grid;
+        int width = scratch.width;
+        int h = scratch.height;
+        if (scratch.isShifted() || width > Long.SIZE || base.columnHeight == null) {
+            this.scan(grid);
+            return;
+        }
+        this.touchingEdges = base.touchingEdges;
+        this.touchingWalls = base.touchingWalls;
+        this.touchingFloor = base.touchingFloor;
+        this.height = base.height;
+        this.holes = base.holes;
+        this.blockades = base.blockades;
+
+        long touched = 0;
+        for (int n = 0; n < scratch.writtenCount(); n++) {
+            int x = scratch.writtenX(n);
+            int y = scratch.writtenY(n);
+            touched |= 1L << x;
+
+            if (width > 1 && (x == 0 || x == width - 1)) {
+                this.touchingWalls++;
+            }
+            if (y == h - 1 && h > 1) {
+                this.touchingFloor++;
+            }
+            // A pair of written cells is counted from its first cell only.
+            if (x + 1 < width && grid[x + 1][y] > 0) {
+                this.touchingEdges++;
+            }
+            if (x > 0 && grid[x - 1][y] == 1) {
+                this.touchingEdges++;
+            }
+            if (y + 1 < h && grid[x][y + 1] > 0) {
+                this.touchingEdges++;
+            }
+            if (y > 0 && grid[x][y - 1] == 1) {
+                this.touchingEdges++;
+            }
+        }
+
+        for (int x = 0; touched != 0; x++, touched >>>= 1) {
+            if ((touched & 1) != 0) {
+                this.height += columnHeight(grid[x]) - base.columnHeight[x];
+                this.holes += columnHoles(grid[x]) - base.columnHoles[x];
+                this.blockades += columnBlockades(grid[x]) - base.columnBlockades[x];
+            }
+        }
+    }
+
+    private static int columnHeight(byte[] column) {
+        int result = 0;
+        for (int j = 0; j < column.length; j++) {
+            if (column[j] > 0) {
+                result += column.length - j;
+            }
+        }
+        return result;
+    }
+
+    // Count how many holes (space beneath blocks)
+    private static int columnHoles(byte[] column) {
+        boolean f = false;
+        int result = 0;
+        for (int j = 0; j < column.length; j++) {
+            if (column[j] > 0) {
+                f = true;
+            }
+            if (f && column[j] == 0) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    // Count how many blockades (block above space)
+    private static int columnBlockades(byte[] column) {
+        boolean f = false;
+        int result = 0;
+        for (int j = column.length - 1; j >= 0; j--) {
+            if (column[j] == 0) {
+                f = true;
+            }
+            if (f && column[j] > 0) {
+                result++;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tetris.ai;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import tetris.generic.BlockPosition;
+
+/**
+ * A decision of an AI that is still being searched. The search publishes
+ * every placement better than the ones before it, so the caller may take
+ * the best placement so far at any time and stop the rest of the search,
+ * instead of waiting for its result.
+ *
+ * Placements are ranked by the level of the search that found them, the
+ * deeper the better, and then by their score. The final answer of the
+ * search beats them all.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public final class Decision {
+    private final SettableFuture<BlockPosition> result;
+    private volatile boolean stopped;
+
+    private BlockPosition best;
+    private int bestLevel;
+    private double bestScore;
+    private boolean finished;
+
+    public Decision() {
+        this.result = SettableFuture.create();
+        this.stopped = false;
+        this.best = null;
+        this.finished = false;
+    }
+
+    /**
+     * Publishes a placement, kept if it ranks above the best one so far.
+     *
+     * @param position the placement
+     * @param level how deep the search that found it looked
+     * @param score its score at that level
+     * @return true if it is the best placement now
+     */
+    public synchronized boolean offer(BlockPosition position, int level, double score) {
+        if (this.finished || position == null) {
+            return false;
+        }
+        if (this.best != null && (level < this.bestLevel || (level == this.bestLevel && score <= this.bestScore))) {
+            return false;
+        }
+        this.best = position;
+        this.bestLevel = level;
+        this.bestScore = score;
+        return true;
+    }
+
+    /**
+     * @return the answer of the search if it finished, else the best
+     *         placement published so far, or null if there is none yet
+     */
+    public synchronized BlockPosition getBest() {
+        return this.best;
+    }
+
+    /**
+     * Asks the search to end as soon as it can. The result still completes,
+     * with the best answer the search got to.
+     *
+     * @return the best placement so far, as by {@link #getBest()}
+     */
+    public BlockPosition stop() {
+        this.stopped = true;
+        return this.getBest();
+    }
+
+    /**
+     * @return true if the search should end, checked by the searches
+     */
+    public boolean isStopped() {
+        return this.stopped;
+    }
+
+    /**
+     * @return the answer of the whole search, or of the part that ran
+     *         before it was stopped
+     */
+    public ListenableFuture<BlockPosition> getResult() {
+        return this.result;
+    }
+
+    /**
+     * Ends the decision with the result of a search.
+     */
+    void follow(ListenableFuture<BlockPosition> search) {
+        Futures.addCallback(search, new FutureCallback<BlockPosition>() {
+            @Override
+            public void onSuccess(BlockPosition position) {
+                Decision.this.finish(position);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Decision.this.result.setException(t);
+            }
+        });
+    }
+
+    private void finish(BlockPosition position) {
+        synchronized (this) {
+            if (position != null) {
+                this.best = position;
+            }
+            this.finished = true;
+            position = this.best;
+        }
+        this.result.set(position);
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.ai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import tetris.ai.TetrisAI.GameOverException;
+import tetris.generic.BlockPosition;
+import tetris.generic.Definitions;
+import tetris.generic.Tetromino;
+
+/**
+ * A bounded search that drops more pieces than the ones that are known.
+ * The known pieces (the active block and the preview) are searched as max
+ * nodes; past them every piece type is equally likely, so the value of a
+ * board is the average of the best placement of each type (expectimax).
+ *
+ * Every max node scores its placements statically first. Only the best
+ * beamWidth of them are expanded, and placements that score worse than the
+ * best one by more than the prune margin are cut. The search deepens one
+ * piece at a time until the configured depth or the deadline, the answer
+ * being the one of the deepest search that completed.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+final class LookaheadSearch {
+    private final TetrisAI ai;
+    private final Definitions defs;
+    private final byte[][] mockgrid;
+    private final Tetromino.Type[] known;
+    private final int depth;
+    private final int beamWidth;
+    private final double pruneMargin;
+    private final boolean timed;
+    private final long deadline;
+    private final Decision decision;
+
+    /**
+     * @param ai the AI whose weights score the boards
+     * @param defs the definitions of the board
+     * @param mockgrid the snapshot of the board
+     * @param known the types of the pieces that are known, in order
+     * @param depth how many pieces to drop, at least 1
+     * @param beamWidth how many placements a node expands, 0 for all
+     * @param pruneMargin how much worse than the best placement of a node a
+     *        placement may score and still be expanded
+     * @param budget how many nanoseconds the search may take, 0 for no limit
+     * @param decision where the answer of each depth is published; the
+     *        search ends like at the deadline once it is stopped
+     */
+    LookaheadSearch(TetrisAI ai, Definitions defs, byte[][] mockgrid, Tetromino.Type[] known,
+                    int depth, int beamWidth, double pruneMargin, long budget, Decision decision) {
+        this.ai = ai;
+        this.defs = defs;
+        this.mockgrid = mockgrid;
+        this.known = known;
+        this.depth = depth;
+        this.beamWidth = beamWidth;
+        this.pruneMargin = pruneMargin;
+        this.timed = budget > 0;
+        this.deadline = System.nanoTime() + budget;
+        this.decision = decision;
+    }
+
+    /**
+     * Runs the search, splitting the placements of the first piece as tasks
+     * of the current fork/join pool.
+     *
+     * @return the best placement of the first piece
+     */
+    BlockPosition compute() {
+        int[] fits = this.defs.getPackedFits(this.known[0]);
+        ScratchGrid grid = this.ai.scratchStack(this.mockgrid, 1)[0];
+        grid.reload(this.mockgrid);
+        double[] statics = new double[fits.length];
+        int[] cleared = new int[fits.length];
+        this.scoreStatically(grid, fits, 0, statics, cleared);
+
+        int[] order = this.select(statics);
+        int result = order.length > 0 ? order[0] : 0;
+        BlockPosition[] positions = this.defs.getPossibleFits(this.known[0]);
+        if (order.length > 0) {
+            this.decision.offer(positions[result], 1, statics[result]);
+        }
+        // Iterative deepening: the first piece alone never times out.
+        for (int currentDepth = 2; currentDepth <= this.depth && order.length > 1; currentDepth++) {
+            List<Expand> tasks = new ArrayList<>(order.length);
+            for (int index : order) {
+                tasks.add(new Expand(fits[index], cleared[index], currentDepth));
+            }
+            ForkJoinTask.invokeAll(tasks);
+
+            int best = -1;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            boolean complete = true;
+            for (int i = 0; i < order.length; i++) {
+                Double value = tasks.get(i).join();
+                if (value == null) {
+                    complete = false;
+                    break;
+                }
+                if (best < 0 || value > bestValue) {
+                    best = order[i];
+                    bestValue = value;
+                }
+            }
+            if (!complete) {
+                break;
+            }
+            result = best;
+            this.decision.offer(positions[result], currentDepth, bestValue);
+        }
+        return positions[result];
+    }
+
+    /**
+     * @return the value of a board, from the piece of the given ply onwards
+     */
+    private double expand(ScratchGrid[] stack, byte[][] parent, int ply, int maxDepth, int cleared) throws TimeoutException {
+        if ((this.timed && System.nanoTime() - this.deadline > 0) || this.decision.isStopped()) {
+            throw new TimeoutException();
+        }
+        if (ply < this.known.length) {
+            return this.best(stack, parent, ply, this.known[ply], maxDepth, cleared);
+        }
+        Tetromino.Type[] types = Tetromino.Type.values();
+        double sum = 0.0;
+        for (Tetromino.Type type : types) {
+            sum += this.best(stack, parent, ply, type, maxDepth, cleared);
+        }
+        return sum / types.length;
+    }
+
+    /**
+     * @return the value of the best placement of a piece on a board
+     */
+    private double best(ScratchGrid[] stack, byte[][] parent, int ply, Tetromino.Type type, int maxDepth, int cleared) throws TimeoutException {
+        ScratchGrid grid = stack[ply];
+        grid.reload(parent);
+        int[] fits = this.defs.getPackedFits(type);
+        double[] statics = new double[fits.length];
+        int[] dropCleared = new int[fits.length];
+        this.scoreStatically(grid, fits, cleared, statics, dropCleared);
+
+        if (ply + 1 == maxDepth) {
+            double best = Double.NEGATIVE_INFINITY;
+            for (double value : statics) {
+                best = Math.max(best, value);
+            }
+            return best;
+        }
+
+        double best = Double.NEGATIVE_INFINITY;
+        for (int index : this.select(statics)) {
+            grid.load(parent);
+            try {
+                TetrisAI.simulateDrop(grid, fits[index]);
+            } catch (GameOverException e) {
+                continue;
+            }
+            double value = this.expand(stack, grid.grid, ply + 1, maxDepth, cleared + dropCleared[index]);
+            best = Math.max(best, value);
+        }
+        return best;
+    }
+
+    /**
+     * Scores every placement of a piece by the board it leaves.
+     */
+    private void scoreStatically(ScratchGrid grid, int[] fits, int cleared, double[] statics, int[] dropCleared) {
+        for (int i = 0; i < fits.length; i++) {
+            grid.rollback();
+            try {
+                dropCleared[i] = TetrisAI.simulateDrop(grid, fits[i]);
+            } catch (GameOverException e) {
+                statics[i] = Double.NEGATIVE_INFINITY;
+                continue;
+            }
+            statics[i] = this.ai.evaluate(grid, null, cleared + dropCleared[i]);
+        }
+        grid.rollback();
+    }
+
+    /**
+     * @return the indexes of the placements worth expanding, best first
+     */
+    private int[] select(double[] statics) {
+        int[] order = new int[statics.length];
+        int count = 0;
+        for (int i = 0; i < statics.length; i++) {
+            if (statics[i] != Double.NEGATIVE_INFINITY) {
+                order[count++] = i;
+            }
+        }
+        // Insertion sort, there are a few dozens of placements at most.
+        for (int i = 1; i < count; i++) {
+            int current = order[i];
+            int j = i - 1;
+            while (j >= 0 && statics[order[j]] < statics[current]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = current;
+        }
+        if (this.beamWidth > 0 && count > this.beamWidth) {
+            count = this.beamWidth;
+        }
+        int kept = 0;
+        while (kept < count && statics[order[kept]] >= statics[order[0]] - this.pruneMargin) {
+            kept++;
+        }
+        return kept == order.length ? order : Arrays.copyOf(order, kept);
+    }
+
+    private static class TimeoutException extends Exception {
+    }
+
+    /**
+     * Expands one placement of the first piece.
+     * Its result is null if the deadline was reached.
+     */
+    private class Expand extends RecursiveTask<Double> {
+        private final int position;
+        private final int cleared;
+        private final int maxDepth;
+
+        Expand(int position, int cleared, int maxDepth) {
+            this.position = position;
+            this.cleared = cleared;
+            this.maxDepth = maxDepth;
+        }
+
+        @Override
+        protected Double compute() {
+            ScratchGrid[] stack = ai.scratchStack(mockgrid, maxDepth);
+            ScratchGrid grid = stack[0];
+            grid.reload(mockgrid);
+            try {
+                TetrisAI.simulateDrop(grid, position);
+                return expand(stack, grid.grid, 1, maxDepth, cleared);
+            } catch (GameOverException e) {
+                return Double.NEGATIVE_INFINITY;
+            } catch (TimeoutException e) {
+                return null;
+            }
+        }
+    }
+}
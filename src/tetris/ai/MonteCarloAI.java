@@ -0,0 +1,535 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tetris.ai;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import tetris.ai.TetrisAI.GameOverException;
+import tetris.generic.BlockPosition;
+import tetris.generic.Definitions;
+import tetris.generic.TetrisEngine;
+import tetris.generic.Tetromino;
+
+/**
+ * An AI that places the active block by Monte-Carlo tree search.
+ *
+ * The tree alternates placements of the pieces: the active block and the
+ * preview first, then pieces of a random type. Every iteration walks down
+ * the tree picking placements by UCB1, adds one node, and plays a rollout
+ * from it: a few random pieces dropped greedily by the heuristic of a
+ * {@link TetrisAI}. The score of the board at the end of the rollout is
+ * added to every node of the walk; a lost game counts as the worst board
+ * seen so far. The placement of the active block visited the most wins.
+ *
+ * The search is root parallel: each task of the executor grows a tree of
+ * its own until the time budget runs out, and only the visits of the roots
+ * are added up, so the tasks share nothing but the heuristic. Each tree
+ * is kept for the next decision: the node of the placement that was played
+ * becomes the new root. Every few iterations a tree offers its most
+ * visited placement to the decision, and it stops growing once the
+ * decision is stopped.
+ *
+ * Decisions of the same AI should not overlap; when they do, they take
+ * turns on each tree.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class MonteCarloAI extends AbstractAI {
+    private static final Tetromino.Type[] TYPES = Tetromino.Type.values();
+
+    /**
+     * Pieces past this depth are only played by rollouts.
+     */
+    private static final int MAX_TREE_DEPTH = 8;
+
+    /**
+     * How many iterations a tree runs between two offers to the decision.
+     */
+    private static final int OFFER_INTERVAL = 256;
+
+    private final TetrisAI heuristic;
+    private final Tree[] trees;
+
+    private volatile long timeBudget = TimeUnit.MILLISECONDS.toNanos(50);
+    private volatile int iterationLimit = 0;
+    private volatile int rolloutDepth = 2;
+    private volatile double exploration = 0.5;
+
+    /**
+     * Runs one search task per available processor.
+     */
+    public MonteCarloAI(ListeningExecutorService executor) {
+        this(executor, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param executor where the search tasks run, it should have a thread
+     *        for each of them
+     * @param parallelism how many trees are searched at the same time
+     */
+    public MonteCarloAI(ListeningExecutorService executor, int parallelism) {
+        super(executor);
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.heuristic = new TetrisAI(executor);
+        this.trees = new Tree[parallelism];
+        Random seeds = new Random();
+        for (int i = 0; i < parallelism; i++) {
+            this.trees[i] = new Tree(seeds.nextLong());
+        }
+    }
+
+    /**
+     * Sets how long a decision may take. Every placement of the active
+     * block is tried at least once, however short the budget.
+     *
+     * @param time the time budget
+     * @param unit the unit of time
+     */
+    public void setTimeBudget(long time, TimeUnit unit) {
+        if (time < 0) {
+            throw new IllegalArgumentException("time must not be negative");
+        }
+        this.timeBudget = unit.toNanos(time);
+    }
+
+    public long getTimeBudget(TimeUnit unit) {
+        return unit.convert(this.timeBudget, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets how many iterations each tree may run per decision, even if the
+     * time budget is not over.
+     *
+     * @param iterationLimit the number of iterations, 0 for no limit
+     */
+    public void setIterationLimit(int iterationLimit) {
+        if (iterationLimit < 0) {
+            throw new IllegalArgumentException("iterationLimit must not be negative");
+        }
+        this.iterationLimit = iterationLimit;
+    }
+
+    public int getIterationLimit() {
+        return this.iterationLimit;
+    }
+
+    /**
+     * Sets how many random pieces a rollout drops past the new node.
+     *
+     * @param rolloutDepth the number of pieces, 0 to score the node itself
+     */
+    public void setRolloutDepth(int rolloutDepth) {
+        if (rolloutDepth < 0) {
+            throw new IllegalArgumentException("rolloutDepth must not be negative");
+        }
+        this.rolloutDepth = rolloutDepth;
+    }
+
+    public int getRolloutDepth() {
+        return this.rolloutDepth;
+    }
+
+    /**
+     * Sets the weight of the exploration term of UCB1. Scores are scaled to
+     * [0, 1] by the worst and best boards seen, so sqrt(2) is the textbook
+     * value; lower values trust the heuristic more.
+     *
+     * @param exploration the weight, not negative
+     */
+    public void setExploration(double exploration) {
+        if (exploration < 0) {
+            throw new IllegalArgumentException("exploration must not be negative");
+        }
+        this.exploration = exploration;
+    }
+
+    public double getExploration() {
+        return this.exploration;
+    }
+
+    /**
+     * @return the weights of the heuristic, see {@link TetrisAI#getWeights()}
+     */
+    public double[] getWeights() {
+        return this.heuristic.getWeights();
+    }
+
+    /**
+     * Sets the weights of the heuristic. The trees scored with the old
+     * weights are dropped.
+     *
+     * @param weights the weights, see {@link TetrisAI#setWeights(double[])}
+     */
+    public void setWeights(double[] weights) {
+        this.heuristic.setWeights(weights);
+        for (Tree tree : this.trees) {
+            tree.clear();
+        }
+    }
+
+    /**
+     * @return the AI whose heuristic scores the boards
+     */
+    TetrisAI getHeuristic() {
+        return this.heuristic;
+    }
+
+    @Override
+    protected ListenableFuture<BlockPosition> computeBestFit(TetrisEngine engine, final Decision decision) {
+        final Definitions defs = engine.defs;
+        final Tetromino.Type current = engine.getActiveblock().type;
+        final Tetromino.Type next = engine.getNextblock().type;
+        final byte[][] mockgrid = engine.createMockGrid();
+        final long deadline = System.nanoTime() + this.timeBudget;
+        final int limit = this.iterationLimit;
+
+        List<ListenableFuture<int[]>> searches = new ArrayList<>(this.trees.length);
+        for (final Tree tree : this.trees) {
+            searches.add(this.executor.submit(new Callable<int[]>() {
+                @Override
+                public int[] call() {
+                    return tree.search(defs, mockgrid, current, next, deadline, limit, decision);
+                }
+            }));
+        }
+        return Futures.transform(Futures.allAsList(searches), new Function<List<int[]>, BlockPosition>() {
+            @Override
+            public BlockPosition apply(List<int[]> visits) {
+                BlockPosition[] positions = defs.getPossibleFits(current);
+                int best = -1;
+                long bestVisits = -1;
+                for (int i = 0; i < positions.length; i++) {
+                    long sum = 0;
+                    for (int[] treeVisits : visits) {
+                        sum += treeVisits[i];
+                    }
+                    if (sum > bestVisits) {
+                        best = i;
+                        bestVisits = sum;
+                    }
+                }
+                // Stopped before any placement was tried.
+                return bestVisits <= 0 ? null : positions[best];
+            }
+        });
+    }
+
+    /**
+     * A state of the game: the board left by the placements on the way to
+     * it. Its children are the placements of the piece to place there, by
+     * type; the pieces past the preview can be of any type.
+     */
+    private static final class Node {
+        int visits;
+        double total;
+        boolean lost;
+        Node[][] children;
+
+        Node[] children(Tetromino.Type type, int count) {
+            if (this.children == null) {
+                this.children = new Node[TYPES.length][];
+            }
+            Node[] placements = this.children[type.ordinal()];
+            if (placements == null) {
+                placements = new Node[count];
+                this.children[type.ordinal()] = placements;
+            }
+            return placements;
+        }
+    }
+
+    /**
+     * One tree and everything a task needs to grow it.
+     */
+    private final class Tree {
+        private final Random random;
+        private final Node[] path = new Node[MAX_TREE_DEPTH + 1];
+
+        /**
+         * The scores of the boards seen, to scale them to [0, 1].
+         */
+        private double worst = Double.POSITIVE_INFINITY;
+        private double best = Double.NEGATIVE_INFINITY;
+
+        private Node root;
+        private byte[][] rootGrid;
+        private Tetromino.Type rootType;
+        private ScratchGrid walk;
+        private ScratchGrid probe;
+        private double[] scores;
+        private int[] dropCleared;
+
+        Tree(long seed) {
+            this.random = new Random(seed);
+        }
+
+        synchronized void clear() {
+            this.root = null;
+            this.rootGrid = null;
+            this.worst = Double.POSITIVE_INFINITY;
+            this.best = Double.NEGATIVE_INFINITY;
+        }
+
+        /**
+         * Grows the tree from a board until the deadline.
+         *
+         * @return the visits of each placement of the current piece
+         */
+        synchronized int[] search(Definitions defs, byte[][] mockgrid, Tetromino.Type current, Tetromino.Type next,
+                                  long deadline, int limit, Decision decision) {
+            if (this.walk == null || this.walk.width != defs.width || this.walk.height != defs.height) {
+                this.walk = new ScratchGrid(defs.width, defs.height);
+                this.probe = new ScratchGrid(defs.width, defs.height);
+                this.root = null;
+            }
+            this.moveRoot(defs, mockgrid);
+            this.rootGrid = mockgrid;
+            this.rootType = current;
+
+            Tetromino.Type[] known = {current, next};
+            Node[] placements = this.root.children(current, defs.getPackedFits(current).length);
+            BlockPosition[] positions = defs.getPossibleFits(current);
+            for (int i = 0; (limit == 0 || i < limit) && !decision.isStopped(); i++) {
+                if (i >= placements.length && System.nanoTime() - deadline > 0) {
+                    break;
+                }
+                this.iterate(defs, known);
+                if (i >= placements.length && i % OFFER_INTERVAL == 0) {
+                    int chosen = mostVisited(placements);
+                    decision.offer(positions[chosen], 0, placements[chosen].visits);
+                }
+            }
+
+            int[] visits = new int[placements.length];
+            for (int i = 0; i < placements.length; i++) {
+                visits[i] = placements[i] == null ? 0 : placements[i].visits;
+            }
+            return visits;
+        }
+
+        private int mostVisited(Node[] placements) {
+            int chosen = 0;
+            for (int i = 1; i < placements.length; i++) {
+                if (placements[i].visits > placements[chosen].visits) {
+                    chosen = i;
+                }
+            }
+            return chosen;
+        }
+
+        /**
+         * Makes the child of the root that leads to a board the new root, or
+         * starts a new tree if the board is not one of them.
+         */
+        private void moveRoot(Definitions defs, byte[][] mockgrid) {
+            Node reused = null;
+            if (this.root != null && this.root.children != null) {
+                Node[] placements = this.root.children[this.rootType.ordinal()];
+                int[] fits = defs.getPackedFits(this.rootType);
+                for (int i = 0; placements != null && i < placements.length && reused == null; i++) {
+                    if (placements[i] == null || placements[i].lost) {
+                        continue;
+                    }
+                    this.walk.load(this.rootGrid);
+                    try {
+                        TetrisAI.simulateDrop(this.walk, fits[i]);
+                    } catch (GameOverException e) {
+                        continue;
+                    }
+                    if (sameCells(this.walk.grid, mockgrid)) {
+                        reused = placements[i];
+                    }
+                }
+            }
+            this.root = reused == null ? new Node() : reused;
+        }
+
+        /**
+         * Walks down the tree, adds a node, plays a rollout from it and adds
+         * its score to the nodes of the walk.
+         */
+        private void iterate(Definitions defs, Tetromino.Type[] known) {
+            ScratchGrid grid = this.walk;
+            // The root board never changes, so this only undoes the last walk.
+            grid.load(this.rootGrid);
+            Node node = this.root;
+            this.path[0] = node;
+            int depth = 0;
+            int cleared = 0;
+            boolean lost = false;
+            while (true) {
+                Tetromino.Type type = depth < known.length ? known[depth] : TYPES[this.random.nextInt(TYPES.length)];
+                int[] fits = defs.getPackedFits(type);
+                Node[] placements = node.children(type, fits.length);
+                int index = this.select(node, placements);
+                boolean created = placements[index] == null;
+                if (created) {
+                    placements[index] = new Node();
+                }
+                Node child = placements[index];
+                this.path[++depth] = child;
+                try {
+                    cleared += TetrisAI.simulateDrop(grid, fits[index]);
+                } catch (GameOverException e) {
+                    child.lost = true;
+                    lost = true;
+                    break;
+                }
+                if (created || depth == MAX_TREE_DEPTH) {
+                    break;
+                }
+                node = child;
+            }
+
+            double score = lost ? Double.NaN : this.rollout(defs, cleared);
+            if (Double.isNaN(score)) {
+                // A lost game is as bad as the worst board seen.
+                score = this.worst == Double.POSITIVE_INFINITY ? 0.0 : this.worst;
+            } else {
+                this.worst = Math.min(this.worst, score);
+                this.best = Math.max(this.best, score);
+            }
+            for (int i = 0; i <= depth; i++) {
+                this.path[i].visits++;
+                this.path[i].total += score;
+                this.path[i] = null;
+            }
+        }
+
+        /**
+         * Picks the placement to walk: one never visited if there is any,
+         * from a random start, or the best one by UCB1.
+         */
+        private int select(Node node, Node[] placements) {
+            int start = this.random.nextInt(placements.length);
+            for (int i = 0; i < placements.length; i++) {
+                int index = (start + i) % placements.length;
+                if (placements[index] == null || placements[index].visits == 0) {
+                    return index;
+                }
+            }
+            double range = this.best - this.worst;
+            double log = Math.log(Math.max(1, node.visits));
+            double exploration = MonteCarloAI.this.exploration;
+            int chosen = 0;
+            double chosenValue = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < placements.length; i++) {
+                Node child = placements[i];
+                double mean = child.total / child.visits;
+                double value = range > 0 ? (mean - this.worst) / range : 0.5;
+                value += exploration * Math.sqrt(log / child.visits);
+                if (value > chosenValue) {
+                    chosen = i;
+                    chosenValue = value;
+                }
+            }
+            return chosen;
+        }
+
+        /**
+         * Drops random pieces on the board of the walk, each where the
+         * heuristic likes it best.
+         *
+         * @return the score of the last board, NaN if the game was lost
+         */
+        private double rollout(Definitions defs, int cleared) {
+            ScratchGrid grid = this.walk;
+            int pieces = MonteCarloAI.this.rolloutDepth;
+            for (int piece = 0; piece < pieces; piece++) {
+                int[] fits = defs.getPackedFits(TYPES[this.random.nextInt(TYPES.length)]);
+                if (this.scores == null || this.scores.length < fits.length) {
+                    this.scores = new double[fits.length];
+                    this.dropCleared = new int[fits.length];
+                }
+                scorePlacements(grid, this.probe, fits, cleared, this.scores, this.dropCleared);
+                int chosen = -1;
+                for (int i = 0; i < fits.length; i++) {
+                    if (this.scores[i] != Double.NEGATIVE_INFINITY && (chosen < 0 || this.scores[i] > this.scores[chosen])) {
+                        chosen = i;
+                    }
+                }
+                if (chosen < 0) {
+                    return Double.NaN;
+                }
+                try {
+                    TetrisAI.simulateDrop(grid, fits[chosen]);
+                } catch (GameOverException e) {
+                    throw new AssertionError(e);
+                }
+                cleared += this.dropCleared[chosen];
+                if (piece == pieces - 1) {
+                    return this.scores[chosen];
+                }
+            }
+            return heuristic.evaluate(grid, null, cleared);
+        }
+    }
+
+    /**
+     * Scores every placement of a piece on the board of a grid, the way the
+     * rollouts choose where it goes. The blocks dropped on the grid so far
+     * are settled first: the scores of a board derived from a base are only
+     * right if the base holds settled cells alone.
+     *
+     * @param grid the board, its dropped blocks are settled
+     * @param probe a grid to drop the piece on
+     * @param fits the packed placements of the piece
+     * @param cleared the lines cleared to reach the board
+     * @param scores the score of each placement, negative infinity if it
+     *        loses the game
+     * @param dropCleared the lines each placement clears
+     */
+    void scorePlacements(ScratchGrid grid, ScratchGrid probe, int[] fits, int cleared, double[] scores, int[] dropCleared) {
+        grid.settle();
+        BoardFeatures features = BoardFeatures.of(grid.grid);
+        probe.reload(grid.grid);
+        for (int i = 0; i < fits.length; i++) {
+            probe.rollback();
+            try {
+                dropCleared[i] = TetrisAI.simulateDrop(probe, fits[i]);
+            } catch (GameOverException e) {
+                scores[i] = Double.NEGATIVE_INFINITY;
+                continue;
+            }
+            scores[i] = this.heuristic.evaluate(probe, features, cleared + dropCleared[i]);
+        }
+        probe.rollback();
+    }
+
+    /**
+     * @return true if the same cells of two mock grids are filled
+     */
+    private static boolean sameCells(byte[][] a, byte[][] b) {
+        for (int x = 0; x < a.length; x++) {
+            for (int y = 0; y < a[x].length; y++) {
+                if ((a[x][y] > 0) != (b[x][y] > 0)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.ai;
+
+/**
+ * A reusable mock grid used to simulate drops on top of a base snapshot.
+ * Cells written by {@link #put} are remembered so {@link #rollback()} can
+ * undo them without copying the whole grid, unless rows were shifted.
+ * It also keeps a skyline: the highest filled row of every column, and a
+ * Zobrist hash of its content.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+final class ScratchGrid {
+    final int width;
+    final int height;
+    final byte[][] grid;
+    final BoardFeatures features;
+
+    /**
+     * The highest filled row of each column, height if the column is empty.
+     */
+    final int[] top;
+
+    /**
+     * The xor of the keys of every non empty cell, see {@link #cellKey}.
+     */
+    long hash;
+
+    private byte[][] base;
+    private long baseHash;
+    private final int[] baseTop;
+    private final int[] undo;
+    private int undoCount;
+    private boolean shifted;
+
+    ScratchGrid(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.grid = new byte[width][height];
+        this.top = new int[width];
+        this.baseTop = new int[width];
+        this.features = new BoardFeatures();
+        // Every drop writes at most 4 cells, and we simulate a few of them.
+        this.undo = new int[64];
+        this.undoCount = 0;
+        this.shifted = false;
+    }
+
+    /**
+     * Makes this grid a copy of the base snapshot, unless it already is.
+     *
+     * @param base a byte[width][height] matrix that must not change
+     */
+    void load(byte[][] base) {
+        if (this.base != base) {
+            this.base = base;
+            for (int x = 0; x < this.width; x++) {
+                this.baseTop[x] = topOf(base[x]);
+            }
+            this.baseHash = hashOf(base);
+            this.restore();
+        } else {
+            this.rollback();
+        }
+    }
+
+    /**
+     * Makes this grid a copy of a base grid whose content may have changed
+     * since it was last loaded.
+     *
+     * @param base a byte[width][height] matrix that must not change until
+     *        the next load
+     */
+    void reload(byte[][] base) {
+        this.base = null;
+        this.load(base);
+    }
+
+    /**
+     * Writes a cell, remembering it so it can be undone.
+     */
+    void put(int x, int y, byte value) {
+        if (this.undoCount < this.undo.length) {
+            this.undo[this.undoCount++] = x * this.height + y;
+        } else {
+            this.shifted = true;
+        }
+        int cell = x * this.height + y;
+        this.hash ^= cellKey(cell, this.grid[x][y]) ^ cellKey(cell, value);
+        this.grid[x][y] = value;
+        if (value > 0 && y < this.top[x]) {
+            this.top[x] = y;
+        }
+    }
+
+    /**
+     * Turns the cells of simulated blocks into settled cells, so the grid
+     * can be the base board of {@link BoardFeatures#update}.
+     */
+    void settle() {
+        for (int x = 0; x < this.width; x++) {
+            for (int y = this.top[x]; y < this.height; y++) {
+                if (this.grid[x][y] == 2) {
+                    this.put(x, y, (byte) 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Signals that rows were moved, so a rollback needs a full restore.
+     */
+    void markShifted() {
+        this.shifted = true;
+    }
+
+    /**
+     * Rebuilds the skyline and the hash after rows were moved.
+     */
+    void updateSkyline() {
+        for (int x = 0; x < this.width; x++) {
+            this.top[x] = topOf(this.grid[x]);
+        }
+        this.hash = hashOf(this.grid);
+    }
+
+    /**
+     * @return true if rows were moved since the grid was last restored
+     */
+    boolean isShifted() {
+        return this.shifted;
+    }
+
+    /**
+     * @return how many cells were written since the grid was last restored
+     */
+    int writtenCount() {
+        return this.undoCount;
+    }
+
+    int writtenX(int index) {
+        return this.undo[index] / this.height;
+    }
+
+    int writtenY(int index) {
+        return this.undo[index] % this.height;
+    }
+
+    /**
+     * Returns the grid to the content of the base snapshot.
+     */
+    void rollback() {
+        if (this.shifted) {
+            this.restore();
+            return;
+        }
+        for (int i = 0; i < this.undoCount; i++) {
+            int cell = this.undo[i];
+            int x = cell / this.height;
+            int y = cell % this.height;
+            this.grid[x][y] = this.base[x][y];
+            this.top[x] = this.baseTop[x];
+        }
+        this.hash = this.baseHash;
+        this.undoCount = 0;
+    }
+
+    private void restore() {
+        for (int x = 0; x < this.width; x++) {
+            System.arraycopy(this.base[x], 0, this.grid[x], 0, this.height);
+        }
+        System.arraycopy(this.baseTop, 0, this.top, 0, this.width);
+        this.hash = this.baseHash;
+        this.undoCount = 0;
+        this.shifted = false;
+    }
+
+    /**
+     * @return the Zobrist hash of a byte[width][height] matrix
+     */
+    static long hashOf(byte[][] grid) {
+        int height = grid[0].length;
+        // Cells are numbered column by column, so the size goes in the key
+        // too: a table may be shared by AIs playing different boards.
+        long result = sizeKey(grid.length, height);
+        for (int x = 0; x < grid.length; x++) {
+            for (int y = 0; y < height; y++) {
+                result ^= cellKey(x * height + y, grid[x][y]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The random key of a cell holding a value, 0 for an empty cell.
+     * Keys are derived from the cell and the value (SplitMix64 finalizer)
+     * instead of a table, so they are the same for every grid and thread.
+     */
+    static long cellKey(int cell, byte value) {
+        if (value == 0) {
+            return 0;
+        }
+        return mix((cell * 4L + value) * 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * The random key of the size of a grid.
+     */
+    static long sizeKey(int width, int height) {
+        return mix((((long) width << 32 | height) + 1) * 0xC2B2AE3D27D4EB4FL);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int topOf(byte[] column) {
+        for (int y = 0; y < column.length; y++) {
+            if (column[y] > 0) {
+                return y;
+            }
+        }
+        return column.length;
+    }
+}
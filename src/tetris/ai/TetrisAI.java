@@ -1,22 +1,25 @@
 package tetris.ai;
 
-import com.google.common.base.Function;
-import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
-import java.util.Iterator;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 import tetris.generic.BlockPosition;
 import tetris.generic.Definitions;
 import tetris.generic.TetrisEngine;
-import tetris.util.Util;
-import tetris.util.functional.CartesianProduct;
-import tetris.util.functional.CartesianProduct.Pair;
+import tetris.generic.Tetromino;
 
 /*
  * This is the default tetris playing AbstractAI. It holds a reference to the tetris
  * engines so it can send key events when necessary and it knows the current block
  */
 public class TetrisAI extends AbstractAI {
+    /**
+     * Pool used by the instances that are not given one.
+     */
+    private static final ForkJoinPool defaultPool = new ForkJoinPool();
 
     // Constants (sort of) for score evaluation.
     public double _TOUCHING_EDGES = 3.97;
@@ -27,10 +30,155 @@ public class TetrisAI extends AbstractAI {
     public double _BLOCKADE = -0.59;
     public double _CLEAR = 1.6;
 
+    /**
+     * Per thread mock grid, reused across every evaluated pair.
+     */
+    private final ThreadLocal<ScratchGrid> scratch = new ThreadLocal<>();
+
+    /**
+     * Per thread mock grids of the lookahead search, one for each piece.
+     */
+    private final ThreadLocal<ScratchGrid[]> scratchStack = new ThreadLocal<>();
+
+    private volatile int searchDepth = 2;
+    private volatile int beamWidth = 0;
+    private volatile double pruneMargin = Double.POSITIVE_INFINITY;
+    private volatile long timeBudget = 0;
+
+    /**
+     * The scores of the boards this AI already evaluated, null to disable.
+     * Off by default: a single search seldom meets a board twice.
+     */
+    private volatile TranspositionTable table = null;
+
+    /**
+     * The pool the placement search is split over.
+     */
+    private final ForkJoinPool pool;
+
     public TetrisAI(ListeningExecutorService executor) {
+        this(executor, defaultPool);
+    }
+
+    public TetrisAI(ListeningExecutorService executor, ForkJoinPool pool) {
         super(executor);
+        this.pool = pool;
     }
     
+    /**
+     * Sets how many pieces are dropped when evaluating a placement.
+     * Pieces past the active block and the preview are unknown, so every
+     * type is tried and their best scores are averaged.
+     * The default, 2, searches every pair of the active and next blocks.
+     *
+     * @param searchDepth the number of pieces, at least 1
+     */
+    public void setSearchDepth(int searchDepth) {
+        if (searchDepth < 1) {
+            throw new IllegalArgumentException("searchDepth must be at least 1");
+        }
+        this.searchDepth = searchDepth;
+    }
+
+    public int getSearchDepth() {
+        return this.searchDepth;
+    }
+
+    /**
+     * Sets how many placements of a piece are expanded in the lookahead
+     * search, the ones whose board scores best.
+     *
+     * @param beamWidth the number of placements, 0 to expand all of them
+     */
+    public void setBeamWidth(int beamWidth) {
+        if (beamWidth < 0) {
+            throw new IllegalArgumentException("beamWidth must not be negative");
+        }
+        this.beamWidth = beamWidth;
+    }
+
+    public int getBeamWidth() {
+        return this.beamWidth;
+    }
+
+    /**
+     * Sets how much worse than the best placement of a piece a placement
+     * may score and still be expanded in the lookahead search.
+     *
+     * @param pruneMargin the margin, infinite to disable pruning
+     */
+    public void setPruneMargin(double pruneMargin) {
+        if (pruneMargin < 0) {
+            throw new IllegalArgumentException("pruneMargin must not be negative");
+        }
+        this.pruneMargin = pruneMargin;
+    }
+
+    public double getPruneMargin() {
+        return this.pruneMargin;
+    }
+
+    /**
+     * Sets how long a decision may take. The lookahead search goes one
+     * piece deeper at a time and answers with the deepest search that
+     * completed in time.
+     *
+     * @param time the time budget, 0 for no limit
+     * @param unit the unit of time
+     */
+    public void setTimeBudget(long time, TimeUnit unit) {
+        if (time < 0) {
+            throw new IllegalArgumentException("time must not be negative");
+        }
+        this.timeBudget = unit.toNanos(time);
+    }
+
+    public long getTimeBudget(TimeUnit unit) {
+        return unit.convert(this.timeBudget, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets the cache of board scores. A table may be shared by many AIs,
+     * its scores are keyed by the weights too.
+     *
+     * @param table the table, null to evaluate every board
+     */
+    public void setTranspositionTable(TranspositionTable table) {
+        this.table = table;
+    }
+
+    public TranspositionTable getTranspositionTable() {
+        return this.table;
+    }
+
+    /**
+     * @return the weights of the heuristic, in the order edges, walls, floor,
+     *         height, holes, blockades and cleared lines
+     */
+    public double[] getWeights() {
+        return new double[] {
+            _TOUCHING_EDGES, _TOUCHING_WALLS, _TOUCHING_FLOOR, _HEIGHT, _HOLES, _BLOCKADE, _CLEAR
+        };
+    }
+
+    /**
+     * Sets every weight of the heuristic.
+     *
+     * @param weights the weights, in the order of {@link #getWeights()}
+     */
+    public void setWeights(double[] weights) {
+        if (weights.length != 7) {
+            throw new IllegalArgumentException("expected 7 weights, got " + weights.length);
+        }
+        _TOUCHING_EDGES = weights[0];
+        _TOUCHING_WALLS = weights[1];
+        _TOUCHING_FLOOR = weights[2];
+        _HEIGHT = weights[3];
+        _HOLES = weights[4];
+        _BLOCKADE = weights[5];
+        _CLEAR = weights[6];
+    }
+
     public void MakeItDumb() {
         _TOUCHING_EDGES = -3.97;
         _TOUCHING_WALLS = -6.52;
@@ -42,85 +190,80 @@ public class TetrisAI extends AbstractAI {
     }
     
     @Override
-    protected ListenableFuture<BlockPosition> computeBestFit(final TetrisEngine engine) {
-        BlockPosition[] currentPositions = engine.defs.getPossibleFits(engine.getActiveblock().type);
-        BlockPosition[] nextPositions = engine.defs.getPossibleFits(engine.getNextblock().type);
-        Iterator<Pair<BlockPosition>>
-                cartesian = new CartesianProduct<>(currentPositions, nextPositions);
-        
-        ListenableFuture<BestFit> futureBestFit = Util.maxAsync(cartesian, new EvalPosition(engine), executor);
-        return Futures.transform(futureBestFit, new Function<BestFit, BlockPosition>() {
-            @Override
-            public BlockPosition apply(BestFit input) {
-                return input.first;
-            }
-        });
+    protected ListenableFuture<BlockPosition> computeBestFit(final TetrisEngine engine, Decision decision) {
+        Tetromino.Type current = engine.getActiveblock().type;
+        Tetromino.Type next = engine.getNextblock().type;
+        // Take a single snapshot of the board, every pair is evaluated
+        // against it without touching the engine again.
+        byte[][] mockgrid = engine.createMockGrid();
+
+        SettableFuture<BlockPosition> future = SettableFuture.create();
+        if (this.searchDepth != 2 || this.beamWidth > 0 || this.pruneMargin != Double.POSITIVE_INFINITY
+                || this.timeBudget > 0) {
+            LookaheadSearch search = new LookaheadSearch(this, engine.defs, mockgrid, new Tetromino.Type[] {current, next},
+                                                         this.searchDepth, this.beamWidth, this.pruneMargin, this.timeBudget,
+                                                         decision);
+            this.pool.execute(new LookaheadRoot(search, future));
+            return future;
+        }
+        Search search = new Search(mockgrid, engine.defs.getPossibleFits(current), engine.defs.getPackedFits(current),
+                                   engine.defs.getPackedFits(next), this.pool.getParallelism(), decision);
+        this.pool.execute(new SearchRoot(search, future));
+        return future;
     }
 
-    private int simulateDrop(byte[][] mockgrid, TetrisEngine engine, BlockPosition position) throws GameOverException {
-        byte[][] bl = Definitions.blockdef[position.type.ordinal()][position.rot];
+    /**
+     * Drops a block on a scratch grid, clearing the lines it completes.
+     *
+     * @param placement the packed position of the block
+     * @return the number of cleared lines
+     * @throws GameOverException if the block does not fit
+     * @see BlockPosition#pack(Tetromino.Type, int, int)
+     */
+    static int simulateDrop(ScratchGrid scratch, int placement) throws GameOverException {
+        byte[][] mockgrid = scratch.grid;
+        Tetromino.Type type = BlockPosition.typeOf(placement);
+        int rot = BlockPosition.rotOf(placement);
+        int bx = BlockPosition.bxOf(placement);
+        int[] cells = Definitions.getCells(type, rot);
+        int[] bounds = Definitions.getBounds(type, rot);
+        int[] bottom = Definitions.getBottomProfile(type, rot);
         int cleared = 0;
 
-        // Now we find the fitting HEIGHT by starting from the bottom and
-        // working upwards. If we're fitting a line-block on an empty
-        // grid then the HEIGHT would be HEIGHT-1, and it can't be any
-        // lower than that, so that's where we'll start.
-        int h;
-        for (h = engine.defs.height - 1; ; h--) {
-            // indicator. 1: fits. 0: doesn't fit. -1: game over.
-            int fit_state = 1;
-
-            for (int i = 0; i < 4; i++) {
-                for (int j = 0; j < 4; j++) {
-                    //we have to simulate lazy evaluation in order to avoid
-                    //out of bounds errors.
-                    if (bl[j][i] >= 1) {
-                        //still have to check for overflow. X-overflow can't
-                        //happen at this stage but Y-overflow can.
-
-                        if (h + j >= engine.defs.height) {
-                            fit_state = 0;
-                        } else if (h + j < 0) {
-                            fit_state = -1;
-                        } else {
-                            // Already filled, doesn't fit.
-                            if (mockgrid[i + position.bx][h + j] >= 1) {
-                                fit_state = 0;
-                            }
-
-                            // Still the possibility that another block
-                            // might still be over it.
-                            if (fit_state == 1) {
-                                for (int h1 = h + j - 1; h1 >= 0; h1--) {
-                                    if (mockgrid[i + position.bx][h1] >= 1) {
-                                        fit_state = 0;
-                                        break;
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-
-            //We don't want game over so here:
-            if (fit_state == -1) {
-                throw new GameOverException();
-            }
+        // Now we find the fitting HEIGHT. The block can't have anything
+        // above any of its cells, so it rests where the lowest cell of one
+        // of its columns meets the skyline of the grid.
+        int h = Integer.MAX_VALUE;
+        for (int i = bounds[0]; i <= bounds[1]; i++) {
+            h = Math.min(h, scratch.top[bx + i] - 1 - bottom[i]);
+        }
+        int blockTop = bounds[2];
+        int blockBottom = bounds[3];
 
-            //1 = found!
-            if (fit_state == 1) {
-                break;
-            }
+        //We don't want game over so here:
+        if (h + blockTop < 0) {
+            throw new GameOverException();
         }
 
         // copy over block position
-        for (int i = 0; i < 4; i++) {
-            for (int j = 0; j < 4; j++) {
-                if (bl[j][i] == 1) {
-                    mockgrid[position.bx + i][h + j] = 2;
+        for (int k = 0; k < cells.length; k += 2) {
+            scratch.put(bx + cells[k], h + cells[k + 1], (byte) 2);
+        }
+
+        // Only the rows of the dropped block can have been completed.
+        boolean full = false;
+        ROWS:
+        for (int i = h + blockTop; i <= h + blockBottom; i++) {
+            for (int y = 0; y < mockgrid.length; y++) {
+                if (!(mockgrid[y][i] > 0)) {
+                    continue ROWS;
                 }
             }
+            full = true;
+            break;
+        }
+        if (!full) {
+            return 0;
         }
 
         // check for clears
@@ -137,6 +280,7 @@ public class TetrisAI extends AbstractAI {
                 // line i is full, clear it and copy
                 cleared++;
                 foundline = true;
+                scratch.markShifted();
                 for (int a = i; a > 0; a--) {
                     for (int y = 0; y < mockgrid.length; y++) {
                         mockgrid[y][a] = mockgrid[y][a - 1];
@@ -145,133 +289,271 @@ public class TetrisAI extends AbstractAI {
                 break ML;
             }
         } while (foundline && cleared < 10);
+        scratch.updateSkyline();
         return cleared;
     }
     
     // Evaluate position not with one, but with two blocks.
-    private BestFit evalPosition(TetrisEngine engine, BlockPosition position1, BlockPosition position2) {
+    private double evalPosition(byte[][] base, BoardFeatures baseFeatures, int position1, int position2) {
         // First thing: Simulate the drop. Do this on a mock grid.
-        // copying it here may seem like a waste but clearing it
-        // after each iteration is too much of a hassle.
-        // This copies the grid.
-        byte[][] mockgrid = engine.createMockGrid();
+        // The grid is owned by this thread and is brought back to the
+        // snapshot by undoing the cells written by the last evaluation.
+        ScratchGrid scratch = this.scratchFor(base);
 
         int cleared = 0;
         try {
-            cleared += this.simulateDrop(mockgrid, engine, position1);
-            cleared += this.simulateDrop(mockgrid, engine, position2);
+            cleared += simulateDrop(scratch, position1);
+            cleared += simulateDrop(scratch, position2);
         } catch (GameOverException e) {
-            return new BestFit(position1, position2, Double.NEGATIVE_INFINITY);
+            return Double.NEGATIVE_INFINITY;
         }
 
-        // Now we evaluate the resulting position.
-        // Part of the evaluation algorithm is to count the number of touching sides.
-        // We do this by generating all pairs and seeing how many them are touching.
-        // If they add up to 3, it means one of them is from the active block and the
-        // other is a normal block (ie. they're touching).
-        double score = 0.0;
+        return this.evaluate(scratch, baseFeatures, cleared);
+    }
 
-        //horizontal pairs
-        for (int i = 0; i < engine.defs.height; i++) {
-            for (int j = 0; j < engine.defs.width - 1; j++) {
-                if (j == 0 && mockgrid[j][i] == 2) {
-                    score += _TOUCHING_WALLS;
-                }
-                if (j + 1 == engine.defs.width - 1 && mockgrid[j + 1][i] == 2) {
-                    score += _TOUCHING_WALLS;
-                }
-                if (mockgrid[j][i] + mockgrid[j + 1][i] >= 3) {
-                    score += _TOUCHING_EDGES;
-                }
+    /**
+     * Scores the board of a scratch grid, looking it up in the
+     * transposition table first.
+     *
+     * @param scratch the grid
+     * @param baseFeatures the features of the base board of the grid, with
+     *        per column summaries, or null to scan the whole grid
+     * @param cleared the number of lines cleared to reach the board
+     */
+    double evaluate(ScratchGrid scratch, BoardFeatures baseFeatures, int cleared) {
+        TranspositionTable table = this.table;
+        long key = 0;
+        if (table != null) {
+            // The lines cleared depend on the path to the board, so only
+            // the score of the board itself is stored.
+            key = scratch.hash ^ this.weightsKey();
+            double score = table.get(key);
+            if (!Double.isNaN(score)) {
+                return score + cleared * _CLEAR;
             }
         }
 
-        //vertical pairs
-        for (int i = 0; i < engine.defs.width; i++) {
-            for (int j = 0; j < engine.defs.height - 1; j++) {
-                if (j + 1 == engine.defs.height - 1 && mockgrid[i][j + 1] == 2) {
-                    score += _TOUCHING_FLOOR;
-                }
-                if (mockgrid[i][j] + mockgrid[i][j + 1] >= 3) {
-                    score += _TOUCHING_EDGES;
-                }
-            }
+        // Now we evaluate the resulting position. Only the columns touched
+        // by the dropped blocks are rescanned, the rest of the features
+        // come from the snapshot.
+        BoardFeatures features = scratch.features;
+        if (baseFeatures != null) {
+            features.update(baseFeatures, scratch);
+        } else {
+            features.scan(scratch.grid);
+        }
+        double score = this.score(features, 0);
+        if (table != null) {
+            table.put(key, score);
         }
+        return score + cleared * _CLEAR;
+    }
+
+    /**
+     * @return a hash of the weights of the board features, so changing them
+     *         does not reuse stale scores
+     */
+    private long weightsKey() {
+        long result = 17;
+        result = 31 * result + Double.doubleToLongBits(_TOUCHING_EDGES);
+        result = 31 * result + Double.doubleToLongBits(_TOUCHING_WALLS);
+        result = 31 * result + Double.doubleToLongBits(_TOUCHING_FLOOR);
+        result = 31 * result + Double.doubleToLongBits(_HEIGHT);
+        result = 31 * result + Double.doubleToLongBits(_HOLES);
+        result = 31 * result + Double.doubleToLongBits(_BLOCKADE);
+        return result * 0x9E3779B97F4A7C15L;
+    }
 
+    /**
+     * Weights the features of a board.
+     * Part of the evaluation algorithm is to count the number of touching
+     * sides: pairs of cells where one of them is from a dropped block and the
+     * other is a normal block (ie. they're touching).
+     */
+    double score(BoardFeatures features, int cleared) {
+        double score = 0.0;
+        score += features.touchingEdges * _TOUCHING_EDGES;
+        score += features.touchingWalls * _TOUCHING_WALLS;
+        score += features.touchingFloor * _TOUCHING_FLOOR;
         // Penalize HEIGHT.
-        for (int i = 0; i < engine.defs.width; i++) {
-            for (int j = 0; j < engine.defs.height; j++) {
-                int curheight = engine.defs.height - j;
-                if (mockgrid[i][j] > 0) {
-                    score += curheight * _HEIGHT;
-                }
-            }
+        score += features.height * _HEIGHT;
+        //Penalize holes. Also penalize blocks above holes.
+        score += features.holes * _HOLES;
+        score += features.blockades * _BLOCKADE;
+        score += cleared * _CLEAR;
+        return score;
+    }
+
+    private ScratchGrid scratchFor(byte[][] base) {
+        ScratchGrid grid = this.scratch.get();
+        if (grid == null || grid.width != base.length || grid.height != base[0].length) {
+            grid = new ScratchGrid(base.length, base[0].length);
+            this.scratch.set(grid);
         }
+        grid.load(base);
+        return grid;
+    }
 
-        //Penalize holes. Also penalize blocks above holes.
-        for (int i = 0; i < engine.defs.width; i++) {
-            // Part 1: Count how many holes (space beneath blocks)
-            boolean f = false;
-            int holes = 0;
-            for (int j = 0; j < engine.defs.height; j++) {
-                if (mockgrid[i][j] > 0) {
-                    f = true;
-                }
-                if (f && mockgrid[i][j] == 0) {
-                    holes++;
-                }
+    /**
+     * @return the grids of this thread for a search of the given depth
+     */
+    ScratchGrid[] scratchStack(byte[][] base, int depth) {
+        ScratchGrid[] stack = this.scratchStack.get();
+        if (stack == null || stack.length < depth || stack[0].width != base.length || stack[0].height != base[0].length) {
+            stack = new ScratchGrid[Math.max(depth, stack == null ? 0 : stack.length)];
+            for (int i = 0; i < stack.length; i++) {
+                stack[i] = new ScratchGrid(base.length, base[0].length);
             }
+            this.scratchStack.set(stack);
+        }
+        return stack;
+    }
 
-            // Part 2: Count how many blockades (block above space)
-            f = false;
-            int blockades = 0;
-            for (int j = engine.defs.height - 1; j >= 0; j--) {
-                if (mockgrid[i][j] == 0) {
-                    f = true;
-                }
-                if (f && mockgrid[i][j] > 0) {
-                    blockades++;
-                }
-            }
+    static class GameOverException extends Exception {
+    }
+
+    /**
+     * Everything a search over the (current, next) pairs shares.
+     * The pairs are numbered, pair i being (current[i / next.length],
+     * next[i % next.length]), and split in chunks of threshold pairs. Each
+     * chunk writes its best pair and score in its slot of the result
+     * arrays, so the search allocates nothing per pair nor per chunk.
+     * The best pair of each chunk is offered to the decision as soon as the
+     * chunk is done, and chunks end early once the decision is stopped.
+     */
+    private static class Search {
+        final byte[][] mockgrid;
+        final BoardFeatures features;
+        final BlockPosition[] positions;
+        final int[] current;
+        final int[] next;
+        final int size;
+        final int threshold;
+        final int chunks;
+        final int[] bestPairs;
+        final double[] bestScores;
+        final Decision decision;
 
-            score += _HOLES * holes;
-            score += _BLOCKADE * blockades;
+        Search(byte[][] mockgrid, BlockPosition[] positions, int[] current, int[] next, int parallelism, Decision decision) {
+            this.mockgrid = mockgrid;
+            this.features = BoardFeatures.of(mockgrid);
+            this.positions = positions;
+            this.current = current;
+            this.next = next;
+            this.size = current.length * next.length;
+            // A few chunks per worker, so idle workers can steal some.
+            this.threshold = Math.max(1, this.size / (parallelism * 4));
+            this.chunks = (this.size + this.threshold - 1) / this.threshold;
+            this.bestPairs = new int[this.chunks];
+            this.bestScores = new double[this.chunks];
+            this.decision = decision;
         }
 
-        score += cleared * _CLEAR;
-        return new BestFit(position1, position2, score);
+        /**
+         * @return the best pair of the whole search, the first one on ties,
+         *         or -1 if there are no pairs
+         */
+        int best() {
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int chunk = 0; chunk < this.chunks; chunk++) {
+                if (this.bestPairs[chunk] >= 0 && (best < 0 || this.bestScores[chunk] > bestScore)) {
+                    best = this.bestPairs[chunk];
+                    bestScore = this.bestScores[chunk];
+                }
+            }
+            return best;
+        }
     }
 
-    private static class BestFit implements Comparable<BestFit> {
-        public final BlockPosition first;
-        public final BlockPosition second;
-        public final double score;
+    private class SearchRoot extends RecursiveAction {
+        private final Search search;
+        private final SettableFuture<BlockPosition> future;
 
-        BestFit(BlockPosition first, BlockPosition second, double score) {
-            this.first = first;
-            this.second = second;
-            this.score = score;
+        SearchRoot(Search search, SettableFuture<BlockPosition> future) {
+            this.search = search;
+            this.future = future;
         }
 
         @Override
-        public int compareTo(BestFit o) {
-            return Double.compare(score, o.score);
+        protected void compute() {
+            try {
+                new SearchTask(search, 0, search.chunks).compute();
+                int best = search.best();
+                future.set(best < 0 ? null : search.positions[best / search.next.length]);
+            } catch (RuntimeException | Error e) {
+                future.setException(e);
+            }
         }
     }
 
-    private static class GameOverException extends Exception {
+    private static class LookaheadRoot extends RecursiveAction {
+        private final LookaheadSearch search;
+        private final SettableFuture<BlockPosition> future;
+
+        LookaheadRoot(LookaheadSearch search, SettableFuture<BlockPosition> future) {
+            this.search = search;
+            this.future = future;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                future.set(search.compute());
+            } catch (RuntimeException | Error e) {
+                future.setException(e);
+            }
+        }
     }
 
-    private class EvalPosition implements Function<Pair<BlockPosition>, BestFit> {
-        private final TetrisEngine engine;
+    /**
+     * Finds the best pair of each chunk of a range, splitting the range
+     * while it has more than one chunk.
+     */
+    private class SearchTask extends RecursiveAction {
+        private final Search search;
+        private final int from;
+        private final int to;
 
-        EvalPosition(TetrisEngine engine) {
-            this.engine = engine;
+        SearchTask(Search search, int from, int to) {
+            this.search = search;
+            this.from = from;
+            this.to = to;
         }
 
         @Override
-        public BestFit apply(Pair<BlockPosition> pair) {
-            return evalPosition(engine, pair.first, pair.second);
+        protected void compute() {
+            if (to - from <= 1) {
+                for (int chunk = from; chunk < to; chunk++) {
+                    this.computeDirectly(chunk);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            SearchTask left = new SearchTask(search, from, middle);
+            left.fork();
+            new SearchTask(search, middle, to).compute();
+            left.join();
+        }
+
+        private void computeDirectly(int chunk) {
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            int nextLength = search.next.length;
+            int end = Math.min(search.size, (chunk + 1) * search.threshold);
+            for (int i = chunk * search.threshold; i < end && !search.decision.isStopped(); i++) {
+                double score = evalPosition(search.mockgrid, search.features,
+                                            search.current[i / nextLength], search.next[i % nextLength]);
+                if (best < 0 || score > bestScore) {
+                    best = i;
+                    bestScore = score;
+                }
+            }
+            search.bestPairs[chunk] = best;
+            search.bestScores[chunk] = bestScore;
+            if (best >= 0) {
+                search.decision.offer(search.positions[best / nextLength], 2, bestScore);
+            }
         }
     }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.ai;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded cache of board scores, keyed by the Zobrist hash of a mock grid.
+ * It may be shared by every thread of a search, and by many AIs.
+ *
+ * Entries live in buckets of four slots. A full bucket evicts with a clock:
+ * a slot that was read since the hand last passed it gets a second chance.
+ * The table takes no locks; each slot stores its key xored with its value,
+ * so a slot torn by two racing writers reads as a miss.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public final class TranspositionTable {
+    private static final int BUCKET_SIZE = 4;
+
+    /**
+     * Counters are spread over a few padded cells, so threads counting at
+     * the same time do not fight for one cache line.
+     */
+    private static final int STRIPES = 16;
+    private static final int PADDING = 8;
+
+    private final int mask;
+    private final long[] keys;
+    private final long[] values;
+    private final byte[] referenced;
+    private final byte[] hands;
+    private final AtomicLongArray hits;
+    private final AtomicLongArray misses;
+
+    /**
+     * @param capacity the maximum number of entries, rounded up to a power
+     *        of two
+     */
+    public TranspositionTable(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = Integer.highestOneBit(Math.max(capacity, BUCKET_SIZE) - 1) << 1;
+        this.mask = size / BUCKET_SIZE - 1;
+        this.keys = new long[size];
+        this.values = new long[size];
+        this.referenced = new byte[size];
+        this.hands = new byte[size / BUCKET_SIZE];
+        this.hits = new AtomicLongArray(STRIPES * PADDING);
+        this.misses = new AtomicLongArray(STRIPES * PADDING);
+    }
+
+    /**
+     * @return the score stored for a key, or NaN if it is not in the table
+     */
+    double get(long key) {
+        key = nonZero(key);
+        int bucket = this.bucketOf(key);
+        for (int i = bucket; i < bucket + BUCKET_SIZE; i++) {
+            long value = this.values[i];
+            if ((this.keys[i] ^ value) == key) {
+                this.referenced[i] = 1;
+                count(this.hits);
+                return Double.longBitsToDouble(value);
+            }
+        }
+        count(this.misses);
+        return Double.NaN;
+    }
+
+    /**
+     * Stores the score of a key, evicting an entry of its bucket if needed.
+     */
+    void put(long key, double score) {
+        key = nonZero(key);
+        long value = Double.doubleToRawLongBits(score);
+        int bucket = this.bucketOf(key);
+        int slot = -1;
+        for (int i = bucket; i < bucket + BUCKET_SIZE; i++) {
+            long stored = this.keys[i] ^ this.values[i];
+            if (stored == key || stored == 0) {
+                slot = i;
+                break;
+            }
+        }
+        if (slot < 0) {
+            int b = bucket / BUCKET_SIZE;
+            int hand = this.hands[b];
+            // At most one lap clearing the referenced flags, then the hand
+            // is back to a slot that lost its second chance.
+            for (int n = 0; n <= BUCKET_SIZE; n++) {
+                int i = bucket + hand;
+                hand = (hand + 1) % BUCKET_SIZE;
+                if (this.referenced[i] == 0) {
+                    slot = i;
+                    break;
+                }
+                this.referenced[i] = 0;
+            }
+            if (slot < 0) {
+                slot = bucket + hand;
+            }
+            this.hands[b] = (byte) hand;
+        }
+        this.referenced[slot] = 0;
+        this.values[slot] = value;
+        this.keys[slot] = key ^ value;
+    }
+
+    /**
+     * Removes every entry and resets the counters.
+     */
+    public void clear() {
+        Arrays.fill(this.keys, 0L);
+        Arrays.fill(this.values, 0L);
+        Arrays.fill(this.referenced, (byte) 0);
+        for (int i = 0; i < STRIPES; i++) {
+            this.hits.set(i * PADDING, 0);
+            this.misses.set(i * PADDING, 0);
+        }
+    }
+
+    /**
+     * @return the maximum number of entries
+     */
+    public int capacity() {
+        return this.keys.length;
+    }
+
+    /**
+     * @return how many lookups found their key
+     */
+    public long getHits() {
+        return sum(this.hits);
+    }
+
+    /**
+     * @return how many lookups did not find their key
+     */
+    public long getMisses() {
+        return sum(this.misses);
+    }
+
+    private int bucketOf(long key) {
+        return ((int) (key ^ (key >>> 32)) & this.mask) * BUCKET_SIZE;
+    }
+
+    /**
+     * An empty slot reads as key 0, so that key is moved elsewhere.
+     */
+    private static long nonZero(long key) {
+        return key == 0 ? 1 : key;
+    }
+
+    private static void count(AtomicLongArray counter) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        counter.incrementAndGet(stripe * PADDING);
+    }
+
+    private static long sum(AtomicLongArray counter) {
+        long result = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            result += counter.get(i * PADDING);
+        }
+        return result;
+    }
+}
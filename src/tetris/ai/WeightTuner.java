@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.ai;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import tetris.ai.BatchRunner.GameResult;
+import tetris.generic.Definitions;
+
+/**
+ * Evolves the weights of the TetrisAI heuristic with a genetic algorithm.
+ * Every candidate of a generation plays the same seeded games, all of them at
+ * the same time, and its fitness is the average number of lines cleared.
+ * The best candidates survive, the others are replaced by crossovers of
+ * tournament winners with a gaussian mutation.
+ *
+ * Everything random is derived from the seed and the generation, so a run
+ * is reproducible, and the population can be saved after any generation
+ * and resumed later.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public final class WeightTuner {
+    private static final int TOURNAMENT_SIZE = 3;
+    private static final double MUTATION_RATE = 0.3;
+    private static final double MUTATION_SIGMA = 0.2;
+
+    private final ListeningExecutorService executor;
+    private final ForkJoinPool pool;
+    private final TranspositionTable table;
+    private final long seed;
+    private final Definitions defs;
+    private final int gamesPerCandidate;
+    private final int maxPieces;
+    private final int elite;
+    private int generation;
+    private List<double[]> population;
+    private Candidate best;
+
+    /**
+     * Starts a tuning from the default weights of TetrisAI.
+     *
+     * @param executor the executor that drives the games
+     * @param pool the pool the AIs search on
+     * @param seed the seed of the run
+     * @param defs the definitions of the boards
+     * @param populationSize how many candidates a generation has
+     * @param gamesPerCandidate how many games evaluate a candidate
+     * @param maxPieces how many pieces a game may last
+     */
+    public WeightTuner(ListeningExecutorService executor, ForkJoinPool pool, long seed, Definitions defs,
+                       int populationSize, int gamesPerCandidate, int maxPieces) {
+        this(executor, pool, seed, defs, gamesPerCandidate, maxPieces, 0,
+             initialPopulation(seed, populationSize), null);
+    }
+
+    private WeightTuner(ListeningExecutorService executor, ForkJoinPool pool, long seed, Definitions defs,
+                        int gamesPerCandidate, int maxPieces, int generation, List<double[]> population,
+                        Candidate best) {
+        if (population.size() < 2) {
+            throw new IllegalArgumentException("the population needs at least 2 candidates");
+        }
+        this.executor = executor;
+        this.pool = pool;
+        // Scores are keyed by the weights, so every candidate can share it.
+        this.table = new TranspositionTable(1 << 20);
+        this.seed = seed;
+        this.defs = defs;
+        this.gamesPerCandidate = gamesPerCandidate;
+        this.maxPieces = maxPieces;
+        this.elite = Math.max(1, population.size() / 8);
+        this.generation = generation;
+        this.population = population;
+        this.best = best;
+    }
+
+    /**
+     * @return how many generations were evaluated
+     */
+    public int getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * @return the best candidate evaluated so far, or null
+     */
+    public Candidate getBest() {
+        return this.best;
+    }
+
+    /**
+     * @return the weights of the candidates of the next generation
+     */
+    public List<double[]> getPopulation() {
+        List<double[]> result = new ArrayList<>(this.population.size());
+        for (double[] weights : this.population) {
+            result.add(weights.clone());
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates the current generation and breeds the next one.
+     *
+     * @return the candidates of the evaluated generation, best first
+     */
+    public List<Candidate> step() throws InterruptedException, ExecutionException {
+        long firstSeed = new Random(this.seed + this.generation).nextLong();
+        List<ListenableFuture<List<GameResult>>> futures = new ArrayList<>(this.population.size());
+        for (double[] weights : this.population) {
+            TetrisAI ai = new TetrisAI(MoreExecutors.sameThreadExecutor(), this.pool);
+            ai.setWeights(weights);
+            ai.setTranspositionTable(this.table);
+            BatchRunner runner = new BatchRunner(ai, this.executor, this.defs, this.maxPieces);
+            futures.add(runner.playAll(firstSeed, this.gamesPerCandidate));
+        }
+
+        List<Candidate> candidates = new ArrayList<>(this.population.size());
+        for (int i = 0; i < futures.size(); i++) {
+            long lines = 0;
+            for (GameResult result : futures.get(i).get()) {
+                lines += result.lines;
+            }
+            candidates.add(new Candidate(this.population.get(i), (double) lines / this.gamesPerCandidate));
+        }
+        // A stable sort, so ties keep the order of the population.
+        Collections.sort(candidates, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate o1, Candidate o2) {
+                return Double.compare(o2.fitness, o1.fitness);
+            }
+        });
+        if (this.best == null || candidates.get(0).fitness > this.best.fitness) {
+            this.best = candidates.get(0);
+        }
+
+        this.population = this.breed(candidates, new Random(this.seed * 31 + this.generation));
+        this.generation++;
+        return candidates;
+    }
+
+    private List<double[]> breed(List<Candidate> candidates, Random random) {
+        List<double[]> next = new ArrayList<>(candidates.size());
+        for (int i = 0; i < this.elite; i++) {
+            next.add(candidates.get(i).weights.clone());
+        }
+        while (next.size() < candidates.size()) {
+            double[] a = tournament(candidates, random).weights;
+            double[] b = tournament(candidates, random).weights;
+            double[] child = new double[a.length];
+            for (int i = 0; i < child.length; i++) {
+                // Blend crossover, a bit past both parents.
+                double u = random.nextDouble() * 1.5 - 0.25;
+                child[i] = a[i] + u * (b[i] - a[i]);
+                if (random.nextDouble() < MUTATION_RATE) {
+                    child[i] += random.nextGaussian() * MUTATION_SIGMA * (Math.abs(child[i]) + 0.1);
+                }
+            }
+            next.add(child);
+        }
+        return next;
+    }
+
+    private static Candidate tournament(List<Candidate> candidates, Random random) {
+        // Candidates are sorted, so the lowest index drawn wins.
+        int winner = candidates.size();
+        for (int i = 0; i < TOURNAMENT_SIZE; i++) {
+            winner = Math.min(winner, random.nextInt(candidates.size()));
+        }
+        return candidates.get(winner);
+    }
+
+    private static List<double[]> initialPopulation(long seed, int populationSize) {
+        Random random = new Random(seed);
+        double[] defaults = new TetrisAI(MoreExecutors.sameThreadExecutor()).getWeights();
+        List<double[]> population = new ArrayList<>(populationSize);
+        population.add(defaults);
+        while (population.size() < populationSize) {
+            double[] weights = defaults.clone();
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] += random.nextGaussian() * (Math.abs(weights[i]) + 0.1);
+            }
+            population.add(weights);
+        }
+        return population;
+    }
+
+    /**
+     * Writes the state of the tuning, replacing the file atomically so a
+     * crash never leaves a broken checkpoint.
+     *
+     * @param path the checkpoint file
+     * @throws IOException if the file could not be written
+     */
+    public void save(Path path) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("seed", Long.toString(this.seed));
+        properties.setProperty("width", Integer.toString(this.defs.width));
+        properties.setProperty("height", Integer.toString(this.defs.height));
+        properties.setProperty("games", Integer.toString(this.gamesPerCandidate));
+        properties.setProperty("pieces", Integer.toString(this.maxPieces));
+        properties.setProperty("generation", Integer.toString(this.generation));
+        properties.setProperty("population", Integer.toString(this.population.size()));
+        for (int i = 0; i < this.population.size(); i++) {
+            properties.setProperty("candidate." + i, format(this.population.get(i)));
+        }
+        if (this.best != null) {
+            properties.setProperty("best", format(this.best.weights));
+            properties.setProperty("best.fitness", Double.toString(this.best.fitness));
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            properties.store(writer, "TetrisAI weight tuning");
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Resumes a tuning from a checkpoint.
+     *
+     * @param path the checkpoint file
+     * @param executor the executor that drives the games
+     * @param pool the pool the AIs search on
+     * @return the tuner, at the generation of the checkpoint
+     * @throws IOException if the file could not be read
+     */
+    public static WeightTuner load(Path path, ListeningExecutorService executor, ForkJoinPool pool) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        try {
+            int size = Integer.parseInt(properties.getProperty("population"));
+            List<double[]> population = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                population.add(parse(properties.getProperty("candidate." + i)));
+            }
+            Candidate best = null;
+            if (properties.getProperty("best") != null) {
+                best = new Candidate(parse(properties.getProperty("best")),
+                                     Double.parseDouble(properties.getProperty("best.fitness")));
+            }
+            Definitions defs = Definitions.create(Integer.parseInt(properties.getProperty("width")),
+                                                  Integer.parseInt(properties.getProperty("height")));
+            return new WeightTuner(executor, pool, Long.parseLong(properties.getProperty("seed")), defs,
+                                   Integer.parseInt(properties.getProperty("games")),
+                                   Integer.parseInt(properties.getProperty("pieces")),
+                                   Integer.parseInt(properties.getProperty("generation")), population, best);
+        } catch (NullPointerException | IllegalArgumentException e) {
+            throw new IOException("invalid checkpoint " + path, e);
+        }
+    }
+
+    private static String format(double[] weights) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < weights.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(weights[i]);
+        }
+        return builder.toString();
+    }
+
+    private static double[] parse(String value) {
+        String[] parts = value.split(",");
+        double[] weights = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            weights[i] = Double.parseDouble(parts[i]);
+        }
+        return weights;
+    }
+
+    /**
+     * A weight vector and its average lines per game.
+     */
+    public static final class Candidate {
+        public final double[] weights;
+        public final double fitness;
+
+        Candidate(double[] weights, double fitness) {
+            this.weights = weights;
+            this.fitness = fitness;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.2f %s", this.fitness, Arrays.toString(this.weights));
+        }
+    }
+
+    /**
+     * Runs generations, saving a checkpoint after each of them. The run is
+     * resumed if the checkpoint exists.
+     * Arguments: checkpoint [generations [seed [population [games [maxPieces]]]]].
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: WeightTuner checkpoint [generations [seed [population [games [maxPieces]]]]]");
+            System.exit(2);
+        }
+        Path checkpoint = Paths.get(args[0]);
+        int generations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        ForkJoinPool pool = new ForkJoinPool();
+        int threads = pool.getParallelism() * 2;
+        ListeningExecutorService executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
+        try {
+            WeightTuner tuner;
+            if (Files.exists(checkpoint)) {
+                tuner = load(checkpoint, executor, pool);
+                System.err.printf("resuming at generation %d%n", tuner.getGeneration());
+            } else {
+                tuner = new WeightTuner(executor, pool,
+                                        args.length > 2 ? Long.parseLong(args[2]) : 0,
+                                        Definitions.create(6, 20),
+                                        args.length > 3 ? Integer.parseInt(args[3]) : 32,
+                                        args.length > 4 ? Integer.parseInt(args[4]) : 8,
+                                        args.length > 5 ? Integer.parseInt(args[5]) : 500);
+            }
+            for (int i = 0; i < generations; i++) {
+                List<Candidate> candidates = tuner.step();
+                tuner.save(checkpoint);
+                System.out.printf("generation %d: %s%n", tuner.getGeneration(), candidates.get(0));
+            }
+            System.out.printf("best: %s%n", tuner.getBest());
+        } finally {
+            executor.shutdown();
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.generic;
+
+import java.util.Arrays;
+
+/**
+ * Packed representation of the settled blocks of a board.
+ * Each row is stored as a bitmask (bit x set means column x is filled) and a
+ * parallel plane keeps the tetromino type of every filled cell for colours.
+ * The active block is never stored here, it is overlaid by the engine.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+final class BitBoard {
+    /**
+     * Row masks of every block definition, indexed by [type][rotation][row].
+     * Bit c of a row mask is set when column c of the definition is filled.
+     */
+    private static final long[][][] pieceRows;
+
+    static {
+        pieceRows = new long[Definitions.blockdef.length][][];
+        for (Tetromino.Type type : Tetromino.Type.values()) {
+            int rotations = Definitions.getRotations(type);
+            pieceRows[type.ordinal()] = new long[rotations][4];
+            for (int rot = 0; rot < rotations; rot++) {
+                int[] cells = Definitions.getCells(type, rot);
+                for (int k = 0; k < cells.length; k += 2) {
+                    pieceRows[type.ordinal()][rot][cells[k + 1]] |= 1L << cells[k];
+                }
+            }
+        }
+    }
+
+    final int width;
+    final int height;
+    private final long fullRow;
+    private final long[] rows;
+
+    /**
+     * The type plane, one array per row. Rows are shared with the last
+     * snapshot and copied before their first write after it, so a snapshot
+     * only copies the rows that changed.
+     */
+    private final byte[][] types;
+    private final boolean[] shared;
+    private final byte[] emptyRow;
+
+    /**
+     * The settled part of the last snapshot, reused until a cell changes.
+     */
+    private long[] snapshotRows;
+    private byte[][] snapshotTypes;
+
+    BitBoard(int width, int height) {
+        if (width > Definitions.MAX_WIDTH) {
+            throw new IllegalArgumentException("width must be at most " + Definitions.MAX_WIDTH);
+        }
+        this.width = width;
+        this.height = height;
+        this.fullRow = width == Long.SIZE ? -1L : (1L << width) - 1;
+        this.rows = new long[height];
+        this.types = new byte[height][];
+        this.shared = new boolean[height];
+        this.emptyRow = new byte[width];
+        this.clear();
+    }
+
+    /**
+     * Takes an immutable picture of the board. Rows that did not change
+     * since the previous snapshot are shared with it.
+     *
+     * @param version the version of the snapshot
+     * @param activeblock the block to overlay, or null
+     * @return the snapshot
+     */
+    BoardSnapshot snapshot(long version, Tetromino activeblock) {
+        long[] rows = this.snapshotRows();
+        // After a game over the active block is left where it did not fit.
+        if (activeblock != null && !this.fits(activeblock.type, activeblock.rot, activeblock.x, activeblock.y)) {
+            activeblock = null;
+        }
+        return new BoardSnapshot(version, this.width, this.height, rows, this.snapshotTypes, activeblock);
+    }
+
+    /**
+     * Takes an immutable picture of the settled cells. The arrays are the
+     * same as the last picture's until a cell changes, and then only the
+     * rows that changed are new.
+     *
+     * @return the occupancy of the picture, its type plane is given by
+     *         {@link #snapshotTypes()}
+     */
+    long[] snapshotRows() {
+        if (this.snapshotRows == null) {
+            this.snapshotRows = this.rows.clone();
+            this.snapshotTypes = this.types.clone();
+            Arrays.fill(this.shared, true);
+        }
+        return this.snapshotRows;
+    }
+
+    /**
+     * @return the type plane of the last picture taken by snapshotRows()
+     */
+    byte[][] snapshotTypes() {
+        return this.snapshotTypes;
+    }
+
+    /**
+     * @param rows the occupancy of a picture taken by snapshotRows()
+     * @return true if a cell changed since the picture was taken
+     */
+    boolean changedSince(long[] rows) {
+        return this.snapshotRows != rows;
+    }
+
+    /**
+     * Empties the whole board.
+     */
+    void clear() {
+        Arrays.fill(this.rows, 0L);
+        Arrays.fill(this.types, this.emptyRow);
+        Arrays.fill(this.shared, true);
+        this.snapshotRows = null;
+    }
+
+    /**
+     * Replaces the content of this board with the settled rows of a
+     * snapshot. The rows are shared with it until they are written, and it
+     * becomes the cached snapshot again.
+     *
+     * @param rows the occupancy of the snapshot
+     * @param types the type plane of the snapshot
+     */
+    void restore(long[] rows, byte[][] types) {
+        if (rows.length != this.height) {
+            throw new IllegalArgumentException("snapshot of a board of another size");
+        }
+        System.arraycopy(rows, 0, this.rows, 0, this.height);
+        System.arraycopy(types, 0, this.types, 0, this.height);
+        Arrays.fill(this.shared, true);
+        this.snapshotRows = rows;
+        this.snapshotTypes = types;
+    }
+
+    /**
+     * Replaces the content of this board with the filled cells of a block
+     * matrix. Active cells are ignored.
+     *
+     * @param blocks a Block[width][height] matrix
+     */
+    void load(Block[][] blocks) {
+        this.clear();
+        for (int x = 0; x < this.width; x++) {
+            for (int y = 0; y < this.height; y++) {
+                Block block = blocks[x][y];
+                if (block != null && block.getState() == Block.FILLED) {
+                    this.set(x, y, block.getType());
+                }
+            }
+        }
+    }
+
+    boolean isFilled(int x, int y) {
+        return (this.rows[y] & (1L << x)) != 0;
+    }
+
+    /**
+     * @return the type of a filled cell, or null if the cell is empty
+     */
+    Tetromino.Type getType(int x, int y) {
+        int ordinal = this.types[y][x] - 1;
+        return ordinal < 0 ? null : Tetromino.Type.values()[ordinal];
+    }
+
+    /**
+     * @return the bitmask of a row
+     */
+    long getRow(int y) {
+        return this.rows[y];
+    }
+
+    /**
+     * Checks if a block fits in the board at a given position.
+     *
+     * @return false if any cell is out of bounds or already filled
+     */
+    boolean fits(Tetromino.Type type, int rot, int x, int y) {
+        int[] bounds = Definitions.getBounds(type, rot);
+        if (x + bounds[0] < 0 || x + bounds[1] >= this.width
+                || y + bounds[2] < 0 || y + bounds[3] >= this.height) {
+            return false;
+        }
+        long[] piece = pieceRows[type.ordinal()][rot];
+        for (int r = bounds[2]; r <= bounds[3]; r++) {
+            if ((this.rows[y + r] & shift(piece[r], x)) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Settles a block in the board. The position must fit.
+     */
+    void lock(Tetromino.Type type, int rot, int x, int y) {
+        assert this.fits(type, rot, x, y);
+        int[] cells = Definitions.getCells(type, rot);
+        for (int k = 0; k < cells.length; k += 2) {
+            this.set(x + cells[k], y + cells[k + 1], type);
+        }
+    }
+
+    /**
+     * @return true if a cell of the block at the given position lies on (x, y)
+     */
+    static boolean covers(Tetromino.Type type, int rot, int bx, int by, int x, int y) {
+        int r = y - by;
+        int c = x - bx;
+        if (r < 0 || r >= 4 || c < 0 || c >= 4) {
+            return false;
+        }
+        return (pieceRows[type.ordinal()][rot][r] & (1L << c)) != 0;
+    }
+
+    /**
+     * Removes every full row, moving the rows above it down.
+     *
+     * @return the number of cleared rows
+     */
+    int clearFullLines() {
+        int cleared = 0;
+        for (int y = this.height - 1; y >= 0; y--) {
+            if (this.rows[y] == this.fullRow) {
+                cleared++;
+            } else if (cleared > 0) {
+                // Rows move by reference, the arrays are not copied.
+                this.rows[y + cleared] = this.rows[y];
+                this.types[y + cleared] = this.types[y];
+                this.shared[y + cleared] = this.shared[y];
+            }
+        }
+        if (cleared > 0) {
+            Arrays.fill(this.rows, 0, cleared, 0L);
+            Arrays.fill(this.types, 0, cleared, this.emptyRow);
+            Arrays.fill(this.shared, 0, cleared, true);
+            this.snapshotRows = null;
+        }
+        return cleared;
+    }
+
+    private void set(int x, int y, Tetromino.Type type) {
+        if (this.shared[y]) {
+            this.types[y] = this.types[y].clone();
+            this.shared[y] = false;
+        }
+        this.rows[y] |= 1L << x;
+        this.types[y][x] = (byte) (type == null ? 0 : type.ordinal() + 1);
+        this.snapshotRows = null;
+    }
+
+    private static long shift(long mask, int x) {
+        return x >= 0 ? mask << x : mask >>> -x;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof BitBoard) {
+            BitBoard other = (BitBoard) obj;
+            return this.width == other.width && this.height == other.height
+                    && Arrays.equals(this.rows, other.rows)
+                    && Arrays.deepEquals(this.types, other.types);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 37 * hash + Arrays.hashCode(this.rows);
+        hash = 37 * hash + Arrays.deepHashCode(this.types);
+        return hash;
+    }
+}
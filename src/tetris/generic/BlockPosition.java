@@ -4,6 +4,8 @@ import java.util.Objects;
 import tetris.generic.Tetromino.Type;
 
 public class BlockPosition {
+    private static final Type[] TYPES = Type.values();
+
     public final Type type;
     public final byte bx;
     public final byte rot;
@@ -37,6 +39,43 @@ public class BlockPosition {
         return hash;
     }
 
+    /**
+     * Packs a position in an int, so searches can carry positions without
+     * allocating: the type is in bits 16 to 23, the rotation in bits 8 to 15
+     * and the x, as a signed byte, in bits 0 to 7.
+     *
+     * @return the packed position
+     */
+    public static int pack(Type type, int rot, int bx) {
+        return type.ordinal() << 16 | rot << 8 | (bx & 0xFF);
+    }
+
+    /**
+     * @return this position, packed
+     */
+    public int pack() {
+        return pack(this.type, this.rot, this.bx);
+    }
+
+    public static Type typeOf(int packed) {
+        return TYPES[packed >>> 16];
+    }
+
+    public static int rotOf(int packed) {
+        return (packed >>> 8) & 0xFF;
+    }
+
+    public static int bxOf(int packed) {
+        return (byte) packed;
+    }
+
+    /**
+     * @return the position of a packed one
+     */
+    public static BlockPosition unpack(int packed) {
+        return new BlockPosition(bxOf(packed), rotOf(packed), typeOf(packed));
+    }
+
     @Override
     public String toString() {
         return "BlockPosition{" + "bx=" + bx + ", rot=" + rot + '}';
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.generic;
+
+import java.util.Arrays;
+
+/**
+ * An immutable picture of a board: the settled blocks and the active block
+ * over them. Snapshots are cheap to take; the settled rows are shared with
+ * the previous snapshot of the same engine while they do not change, so a
+ * move of the active block copies nothing.
+ *
+ * Every snapshot of an engine has a version, which grows whenever anything
+ * in the game changes, so a reader that keeps the last version it used may
+ * skip its work when nothing changed.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public final class BoardSnapshot {
+    private final long version;
+    private final int width;
+    private final int height;
+    private final long[] rows;
+    private final byte[][] types;
+    private final Tetromino activeblock;
+
+    BoardSnapshot(long version, int width, int height, long[] rows, byte[][] types, Tetromino activeblock) {
+        this.version = version;
+        this.width = width;
+        this.height = height;
+        this.rows = rows;
+        this.types = types;
+        this.activeblock = activeblock == null ? null : activeblock.clone();
+    }
+
+    /**
+     * @return the version of the game this snapshot was taken from
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * @param y the row
+     * @return the settled cells of a row, bit x set when column x is filled
+     */
+    public long getRow(int y) {
+        return this.rows[y];
+    }
+
+    /**
+     * @return true if the cell holds a settled block
+     */
+    public boolean isFilled(int x, int y) {
+        return (this.rows[y] & (1L << x)) != 0;
+    }
+
+    /**
+     * @return Block.FILLED, Block.ACTIVE or Block.EMPTY
+     */
+    public int getState(int x, int y) {
+        if (this.isFilled(x, y)) {
+            return Block.FILLED;
+        } else if (this.isActive(x, y)) {
+            return Block.ACTIVE;
+        } else {
+            return Block.EMPTY;
+        }
+    }
+
+    /**
+     * @return the type of the block on a cell, or null if the cell is empty
+     */
+    public Tetromino.Type getType(int x, int y) {
+        int ordinal = this.types[y][x] - 1;
+        if (ordinal >= 0) {
+            return Tetromino.Type.values()[ordinal];
+        }
+        return this.isActive(x, y) ? this.activeblock.type : null;
+    }
+
+    /**
+     * @return the active block drawn over the board, or null if there is none
+     */
+    public Tetromino getActiveblock() {
+        return this.activeblock == null ? null : this.activeblock.clone();
+    }
+
+    /**
+     * Checks if a row of settled blocks is the same in two snapshots. Rows
+     * shared by the snapshots are not even compared.
+     *
+     * @param other another snapshot of a board of the same size
+     * @param y the row
+     * @return true if the settled blocks of the row are the same
+     */
+    public boolean sameRow(BoardSnapshot other, int y) {
+        if (this.types[y] == other.types[y]) {
+            return this.rows[y] == other.rows[y];
+        }
+        return this.rows[y] == other.rows[y] && Arrays.equals(this.types[y], other.types[y]);
+    }
+
+    /**
+     * Builds the Block[][] matrix of the board, with the active block.
+     *
+     * @return a new Block[width][height] matrix
+     */
+    public Block[][] toBlocks() {
+        Block[][] result = new Block[this.width][this.height];
+        for (int i = 0; i < this.width; i++) {
+            for (int j = 0; j < this.height; j++) {
+                result[i][j] = new Block(this.getState(i, j), this.getType(i, j));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Builds the mock grid of the settled blocks, as used by the AI.
+     *
+     * @return a new byte[width][height] matrix
+     */
+    public byte[][] toMockGrid() {
+        byte[][] mockgrid = new byte[this.width][this.height];
+        for (int j = 0; j < this.height; j++) {
+            long row = this.rows[j];
+            if (row == 0) {
+                continue;
+            }
+            for (int i = 0; i < this.width; i++) {
+                if ((row & (1L << i)) != 0) {
+                    mockgrid[i][j] = Block.FILLED;
+                }
+            }
+        }
+        return mockgrid;
+    }
+
+    private boolean isActive(int x, int y) {
+        Tetromino active = this.activeblock;
+        return active != null && BitBoard.covers(active.type, active.rot, active.x, active.y, x, y);
+    }
+
+    /**
+     * Snapshots are equal when they show the same board, whatever their
+     * versions.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof BoardSnapshot) {
+            BoardSnapshot other = (BoardSnapshot) obj;
+            if (this.width != other.width || this.height != other.height) {
+                return false;
+            }
+            for (int y = 0; y < this.height; y++) {
+                if (!this.sameRow(other, y)) {
+                    return false;
+                }
+            }
+            return this.activeblock == null
+                    ? other.activeblock == null
+                    : this.activeblock.equals(other.activeblock);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 3;
+        hash = 41 * hash + Arrays.hashCode(this.rows);
+        hash = 41 * hash + Arrays.deepHashCode(this.types);
+        return hash;
+    }
+}
@@ -17,9 +17,6 @@
 
 package tetris.generic;
 
-import com.google.common.collect.Iterators;
-import java.util.Iterator;
-import java.util.NoSuchElementException;
 import java.util.Objects;
 
 /**
@@ -146,61 +143,122 @@ public class Definitions {
         }
     }};
     
-    private static final FreeSpaces[][] freeSpaces = calculateFreeSpaces();
+    private static final int[][][] bottomProfiles = calculateBottomProfiles();
+    private static final int[][][] cells = calculateCells();
+    private static final int[][][] bounds = calculateBounds();
 
     
     /**
-     * Return the amount of free columns right and left of a block definition
-     * for each rotation of the block
-     * 
      * @param type the type of the tetromino block
-     * @return an array of free spaces for each rotation of the block
+     * @return how many rotations the block has
+     */
+    public static int getRotations(Tetromino.Type type) {
+        return blockdef[type.ordinal()].length;
+    }
+
+    /**
+     * Return the filled cells of a block definition, so they can be visited
+     * without scanning the 4x4 matrix.
+     *
+     * @param type the type of the tetromino block
+     * @param rotation the rotation of the block
+     * @return the column and row of each of the 4 cells, as {column0, row0,
+     *         column1, row1, ...}, must not be modified
      */
-    public static FreeSpaces[] getFreeSpaces(Tetromino.Type type) {
+    public static int[] getCells(Tetromino.Type type, int rotation) {
         Objects.requireNonNull(type);
-        return freeSpaces[type.ordinal()];
+        return cells[type.ordinal()][rotation];
     }
-    
-    private static FreeSpaces[][] calculateFreeSpaces() {
-        FreeSpaces[][] result = new FreeSpaces[blockdef.length][];
+
+    /**
+     * Return the bounds of the filled cells of a block definition.
+     *
+     * @param type the type of the tetromino block
+     * @param rotation the rotation of the block
+     * @return {minColumn, maxColumn, minRow, maxRow}, must not be modified
+     */
+    public static int[] getBounds(Tetromino.Type type, int rotation) {
+        Objects.requireNonNull(type);
+        return bounds[type.ordinal()][rotation];
+    }
+
+    private static int[][][] calculateCells() {
+        int[][][] result = new int[blockdef.length][][];
         for (int i = 0; i < blockdef.length; ++i) {
-            result[i] = new FreeSpaces[blockdef[i].length];
+            result[i] = new int[blockdef[i].length][];
             for (int j = 0; j < blockdef[i].length; j++) {
-                result[i][j] = calculateFreeSpaces(blockdef[i][j]);
+                int[] list = new int[8];
+                int count = 0;
+                for (int row = 0; row < 4; row++) {
+                    for (int column = 0; column < 4; column++) {
+                        if (blockdef[i][j][row][column] != 0) {
+                            list[count++] = column;
+                            list[count++] = row;
+                        }
+                    }
+                }
+                assert count == list.length;
+                result[i][j] = list;
             }
         }
         return result;
     }
 
-    private static FreeSpaces calculateFreeSpaces(byte[][] in) {
-        // It's free if all of them are zero, and their sum is zero.
-        boolean[] column = new boolean[4];
-        for (int j = 0; j < 4; j++) {
-            column[j] = true;
-            for (int i = 0; i < 4; i++) {
-                if (in[i][j] != 0) {
-                    column[j] = false;
-                    break;
+    private static int[][][] calculateBounds() {
+        int[][][] result = new int[blockdef.length][][];
+        for (int i = 0; i < blockdef.length; ++i) {
+            result[i] = new int[blockdef[i].length][];
+            for (int j = 0; j < blockdef[i].length; j++) {
+                int[] list = cells[i][j];
+                int[] bound = {4, -1, 4, -1};
+                for (int k = 0; k < list.length; k += 2) {
+                    bound[0] = Math.min(bound[0], list[k]);
+                    bound[1] = Math.max(bound[1], list[k]);
+                    bound[2] = Math.min(bound[2], list[k + 1]);
+                    bound[3] = Math.max(bound[3], list[k + 1]);
                 }
+                result[i][j] = bound;
             }
         }
-        int freeOnLeft = 0;
-        for (int i = 0; i < 4; i++) {
-            if (!column[i]) {
-                break;
-            }
-            freeOnLeft++;
-        }
-        int freeOnRight = 0;
-        for (int i = 3; i >= 0; i--) {
-            if (!column[i]) {
-                break;
+        return result;
+    }
+
+    /**
+     * Return the lowest filled row of each of the 4 columns of a block
+     * definition, or -1 for an empty column.
+     * 
+     * @param type the type of the tetromino block
+     * @param rotation the rotation of the block
+     * @return an array with 4 row offsets, must not be modified
+     */
+    public static int[] getBottomProfile(Tetromino.Type type, int rotation) {
+        Objects.requireNonNull(type);
+        return bottomProfiles[type.ordinal()][rotation];
+    }
+
+    private static int[][][] calculateBottomProfiles() {
+        int[][][] result = new int[blockdef.length][][];
+        for (int i = 0; i < blockdef.length; ++i) {
+            result[i] = new int[blockdef[i].length][4];
+            for (int j = 0; j < blockdef[i].length; j++) {
+                for (int column = 0; column < 4; column++) {
+                    result[i][j][column] = -1;
+                    for (int row = 0; row < 4; row++) {
+                        if (blockdef[i][j][row][column] != 0) {
+                            result[i][j][column] = row;
+                        }
+                    }
+                }
             }
-            freeOnRight++;
         }
-        return new FreeSpaces(freeOnLeft, freeOnRight);
+        return result;
     }
     
+    /**
+     * The widest board, every row is kept in a long.
+     */
+    public static final int MAX_WIDTH = Long.SIZE;
+
     /**
      * The height of the board
      */
@@ -211,6 +269,14 @@ public class Definitions {
      */
     public final int width;
     private final BlockPosition[][] possibleFits;
+    private final int[][] packedFits;
+
+    /**
+     * The range of x where each rotation of each block fits in the width of
+     * the board, indexed by [type][rotation].
+     */
+    private final int[][] minX;
+    private final int[][] maxX;
 
     
     public static Definitions create(int width, int height) {
@@ -224,11 +290,45 @@ public class Definitions {
         this.width = width;
         this.height = height;
         this.possibleFits = new BlockPosition[blockdef.length][];
+        this.packedFits = new int[blockdef.length][];
+        this.minX = new int[blockdef.length][];
+        this.maxX = new int[blockdef.length][];
         for (int i = 0; i < blockdef.length; i++) {
-            this.possibleFits[i] = Iterators.toArray(new GetPossibleFits(Tetromino.Type.values()[i]), BlockPosition.class);
+            Tetromino.Type type = Tetromino.Type.values()[i];
+            this.minX[i] = new int[blockdef[i].length];
+            this.maxX[i] = new int[blockdef[i].length];
+            int count = 0;
+            for (int rot = 0; rot < blockdef[i].length; rot++) {
+                this.minX[i][rot] = -bounds[i][rot][0];
+                this.maxX[i][rot] = width - 1 - bounds[i][rot][1];
+                count += Math.max(0, this.maxX[i][rot] - this.minX[i][rot] + 1);
+            }
+            this.possibleFits[i] = new BlockPosition[count];
+            this.packedFits[i] = new int[count];
+            count = 0;
+            for (int rot = 0; rot < blockdef[i].length; rot++) {
+                for (int x = this.minX[i][rot]; x <= this.maxX[i][rot]; x++) {
+                    this.possibleFits[i][count] = new BlockPosition(x, rot, type);
+                    this.packedFits[i][count++] = BlockPosition.pack(type, rot, x);
+                }
+            }
         }
     }
 
+    /**
+     * @return the leftmost x where a rotation of a block fits in the board
+     */
+    public int getMinX(Tetromino.Type type, int rotation) {
+        return this.minX[type.ordinal()][rotation];
+    }
+
+    /**
+     * @return the rightmost x where a rotation of a block fits in the board
+     */
+    public int getMaxX(Tetromino.Type type, int rotation) {
+        return this.maxX[type.ordinal()][rotation];
+    }
+
     /**
      * Return all the possible fits of a block type on an empty board, combining
      * every rotations and every horizontal position.
@@ -241,6 +341,19 @@ public class Definitions {
         return this.possibleFits[type.ordinal()];
     }
 
+    /**
+     * Return the possible fits of a block type packed as ints, in the order
+     * of {@link #getPossibleFits(Tetromino.Type)}.
+     *
+     * @param type the type of the tetromino block
+     * @return an array of packed positions, must not be modified
+     * @see BlockPosition#pack(Tetromino.Type, int, int)
+     */
+    public int[] getPackedFits(Tetromino.Type type) {
+        Objects.requireNonNull(type);
+        return this.packedFits[type.ordinal()];
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof Definitions) {
@@ -259,72 +372,4 @@ public class Definitions {
         hash = 67 * hash + this.width;
         return hash;
     }
-
-    public static final class FreeSpaces {
-        public final int left;
-        public final int right;
-
-        public FreeSpaces(int left, int right) {
-            this.left = left;
-            this.right = right;
-        }
-    }
-
-    // List of all the possible fits.
-    private class GetPossibleFits implements Iterator<BlockPosition> {
-        private final Tetromino.Type type;
-        private final FreeSpaces[] rotations;
-
-        private int maxX;
-        private int currentRotation;
-        private int currX;
-        private boolean end;
-        
-        GetPossibleFits(Tetromino.Type type) {
-            this.type = type;
-            this.rotations = getFreeSpaces(this.type);
-            
-            this.currentRotation = -1;
-            this.maxX = 0;
-            this.end = false;
-        }
-
-        @Override
-        public boolean hasNext() {
-            if (this.end) {
-                return false;
-            }
-            if ((this.maxX == 0 || this.currX > this.maxX) && (this.currentRotation + 1) >= this.rotations.length) {
-                this.end = true;
-                return false;
-            }
-            return true;
-        }
-
-        @Override
-        public BlockPosition next() {
-            if (this.end) {
-                throw new NoSuchElementException();
-            }
-            if (this.maxX == 0 || this.currX > this.maxX) {
-                this.maxX = 0;
-                this.currentRotation++;
-            }
-            if (this.currentRotation >= this.rotations.length) {
-                this.end = true;
-                throw new NoSuchElementException();
-            }
-            if (maxX == 0) {
-                FreeSpaces free = rotations[currentRotation];
-                currX = 0 - free.left;
-                maxX = (width - 4) + free.right;
-            }
-            return new BlockPosition(currX++, currentRotation, this.type);
-        }
-
-        @Override
-        public void remove() {
-            throw new UnsupportedOperationException("Not supported yet.");
-        }
-    }
 }
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.generic;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Where the pieces of a TetrisEngine come from.
+ * Sources keep their whole state in themselves (the random ones have their
+ * own generator instead of a java.util.Random), so a source can be copied
+ * to replay the same pieces from where it is.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public abstract class PieceSource {
+
+    /**
+     * @return a new tetromino at (0, 0)
+     */
+    public abstract Tetromino next();
+
+    /**
+     * @return a source that gives the same pieces this one will give
+     */
+    public abstract PieceSource copy();
+
+    /**
+     * @return a source of uniformly drawn pieces, with an arbitrary seed
+     */
+    public static PieceSource uniform() {
+        return uniform(System.nanoTime() ^ 0x5DEECE66DL);
+    }
+
+    /**
+     * Pieces are drawn uniformly, and so are their rotations.
+     *
+     * @param seed the seed of the pieces
+     * @return a source of uniformly drawn pieces
+     */
+    public static PieceSource uniform(long seed) {
+        return new Uniform(seed);
+    }
+
+    /**
+     * Pieces are dealt from a shuffled bag of the seven types, refilled
+     * when empty, so no type is missing for long. Rotations are random.
+     *
+     * @param seed the seed of the pieces
+     * @return a source of bag dealt pieces
+     */
+    public static PieceSource bag(long seed) {
+        return new Bag(seed);
+    }
+
+    /**
+     * Gives the pieces of a list, in order, starting over after the last.
+     *
+     * @param pieces the pieces, whose positions are ignored
+     * @return a source of fixed pieces
+     */
+    public static PieceSource sequence(List<Tetromino> pieces) {
+        if (pieces.isEmpty()) {
+            throw new IllegalArgumentException("the sequence is empty");
+        }
+        return new Sequence(pieces.toArray(new Tetromino[pieces.size()]), 0);
+    }
+
+    /**
+     * Reads a sequence of pieces from a text file. Pieces are separated by
+     * spaces or lines, each being the name of a type optionally followed by
+     * a colon and the rotation, like "T:2"; a # starts a comment.
+     *
+     * @param path the file
+     * @return a source of the pieces of the file
+     * @throws IOException if the file could not be read or is invalid
+     */
+    public static PieceSource fromFile(Path path) throws IOException {
+        List<Tetromino> pieces = new ArrayList<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            for (String token : line.trim().split("\\s+")) {
+                if (token.isEmpty()) {
+                    continue;
+                }
+                try {
+                    pieces.add(parse(token));
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    throw new IOException(String.format("invalid piece \"%s\" in %s", token, path), e);
+                }
+            }
+        }
+        if (pieces.isEmpty()) {
+            throw new IOException("no pieces in " + path);
+        }
+        return sequence(pieces);
+    }
+
+    private static Tetromino parse(String token) {
+        int colon = token.indexOf(':');
+        if (colon < 0) {
+            return new Tetromino(Tetromino.Type.valueOf(token), 0);
+        }
+        return new Tetromino(Tetromino.Type.valueOf(token.substring(0, colon)),
+                             Integer.parseInt(token.substring(colon + 1)));
+    }
+
+    /**
+     * A SplitMix64 generator, small enough to be copied with its source.
+     */
+    private abstract static class RandomSource extends PieceSource {
+        long state;
+
+        RandomSource(long seed) {
+            this.state = seed;
+        }
+
+        int nextInt(int bound) {
+            this.state += 0x9E3779B97F4A7C15L;
+            long z = this.state;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z = z ^ (z >>> 31);
+            return (int) (((z >>> 32) * bound) >>> 32);
+        }
+
+        Tetromino create(Tetromino.Type type) {
+            int rotations = Definitions.getRotations(type);
+            return new Tetromino(type, rotations == 1 ? 0 : this.nextInt(rotations));
+        }
+    }
+
+    private static final class Uniform extends RandomSource {
+        Uniform(long seed) {
+            super(seed);
+        }
+
+        @Override
+        public Tetromino next() {
+            Tetromino.Type[] types = Tetromino.Type.values();
+            return this.create(types[this.nextInt(types.length)]);
+        }
+
+        @Override
+        public PieceSource copy() {
+            return new Uniform(this.state);
+        }
+    }
+
+    private static final class Bag extends RandomSource {
+        private final Tetromino.Type[] bag;
+        private int remaining;
+
+        Bag(long seed) {
+            super(seed);
+            this.bag = Tetromino.Type.values();
+            this.remaining = 0;
+        }
+
+        @Override
+        public Tetromino next() {
+            if (this.remaining == 0) {
+                this.remaining = this.bag.length;
+            }
+            // Draw from the part of the bag that was not dealt yet, and
+            // move the piece past it.
+            int index = this.nextInt(this.remaining);
+            Tetromino.Type type = this.bag[index];
+            this.remaining--;
+            this.bag[index] = this.bag[this.remaining];
+            this.bag[this.remaining] = type;
+            return this.create(type);
+        }
+
+        @Override
+        public PieceSource copy() {
+            Bag copy = new Bag(this.state);
+            System.arraycopy(this.bag, 0, copy.bag, 0, this.bag.length);
+            copy.remaining = this.remaining;
+            return copy;
+        }
+    }
+
+    private static final class Sequence extends PieceSource {
+        private final Tetromino[] pieces;
+        private int index;
+
+        Sequence(Tetromino[] pieces, int index) {
+            this.pieces = pieces;
+            this.index = index;
+        }
+
+        @Override
+        public Tetromino next() {
+            Tetromino piece = this.pieces[this.index];
+            this.index = (this.index + 1) % this.pieces.length;
+            return new Tetromino(piece.type, piece.rot);
+        }
+
+        @Override
+        public PieceSource copy() {
+            return new Sequence(this.pieces, this.index);
+        }
+    }
+}
@@ -40,6 +40,12 @@ public class Score {
         this.blocksDropped = 0;
     }
 
+    Score(int score, int linesRemoved, int blocksDropped) {
+        this.score = score;
+        this.linesRemoved = linesRemoved;
+        this.blocksDropped = blocksDropped;
+    }
+
     /**
      * @return the score
      */
@@ -2,17 +2,25 @@ package tetris.generic;
 
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class calculates the block positions, rotations, moves across the board.
  * Leaving to the gui and ai classes to only interface with this class.
- * It is thread safe and uses a ReadWriteLock.
+ * It is thread safe: every change publishes an immutable view of the game
+ * through a volatile reference, and the getters read that view, so readers
+ * never block nor wait for a move. Moves are serialized by a lock, unless the
+ * engine is in single writer mode, where only one thread may change it.
+ * The settled blocks are kept packed in a {@link BitBoard}, so moving the
+ * active block allocates nothing but the published view. Readers get the
+ * board as a versioned {@link BoardSnapshot}; the Block[][] returned by
+ * getBlocks() is built from it on demand.
  * It also has observable properties: score, state, blocks, nextblock.
+ * Their changes are coalesced: a move fires at most one event per property
+ * when it is over, however many times the property changed during it.
  */
 public final class TetrisEngine {
     
@@ -41,12 +49,43 @@ public final class TetrisEngine {
         GAMEOVER;
     }
     
-    private final List<TetrisMoveListener> moveListeners = new ArrayList<>();
+    private final List<TetrisMoveListener> moveListeners = new CopyOnWriteArrayList<>();
     private final PropertyChangeSupport propertyChangeSupport;
-    private final ReadWriteLock rwLock;
-    private final Random rdm;
 
-    private Block[][] blocks;
+    /**
+     * Serializes the changes, null in single writer mode.
+     */
+    private final ReentrantLock writeLock;
+
+    /**
+     * The only thread that changes the engine in single writer mode, the
+     * first one that did.
+     */
+    private final AtomicReference<Thread> writer = new AtomicReference<>();
+
+    /**
+     * The properties changed by the current write, fired when it ends.
+     * They are indexed by the position of their names in PROPERTIES.
+     */
+    private static final String[] PROPERTIES = {"blocks", "nextblock", "score", "state"};
+    private final Object[] oldValues = new Object[PROPERTIES.length];
+    private final Object[] newValues = new Object[PROPERTIES.length];
+    private int dirty;
+    private int writeDepth;
+
+    /**
+     * The last published view of the game, what the getters read.
+     */
+    private volatile View view;
+    private PieceSource pieces;
+
+    /**
+     * Counts the pieces dealt and the sources restored, so a view copies
+     * the source only when it changed.
+     */
+    private int dealt;
+
+    private final BitBoard board;
     private Score score;
     private GameState state;
     private Tetromino activeblock;
@@ -81,29 +120,65 @@ public final class TetrisEngine {
      * @param defs the definitions for the game
      */
     public TetrisEngine(Definitions defs) {
+        this(defs, PieceSource.uniform());
+    }
+
+    /**
+     * Remember to call startengine() or else this won't do
+     * anything!
+     * @param defs the definitions for the game
+     * @param seed the seed of the pieces, games with the same seed get the
+     *        same sequence of pieces
+     */
+    public TetrisEngine(Definitions defs, long seed) {
+        this(defs, PieceSource.uniform(seed));
+    }
+
+    /**
+     * Remember to call startengine() or else this won't do
+     * anything!
+     * @param defs the definitions for the game
+     * @param pieces where the pieces of the game come from
+     */
+    public TetrisEngine(Definitions defs, PieceSource pieces) {
+        this(defs, pieces, false);
+    }
+
+    /**
+     * Remember to call startengine() or else this won't do
+     * anything!
+     * In single writer mode moves take no lock at all, but every change must
+     * come from the same thread, the first one to change it. Changes from
+     * any other thread throw an IllegalStateException.
+     * @param defs the definitions for the game
+     * @param pieces where the pieces of the game come from
+     * @param singleWriter true if only one thread will change the engine
+     */
+    public TetrisEngine(Definitions defs, PieceSource pieces, boolean singleWriter) {
         this.defs = defs;
         this.propertyChangeSupport = new PropertyChangeSupport(this);
-        this.rwLock = new ReentrantReadWriteLock();
-        this.rdm = new Random();
-        this.blocks = new Block[this.defs.width][this.defs.height];
+        this.writeLock = singleWriter ? null : new ReentrantLock();
+        this.pieces = pieces;
+        this.board = new BitBoard(this.defs.width, this.defs.height);
         this.score = new Score();
-        this.reset();
+        // Deal from a copy, so the game started by startengine() gets the
+        // first pieces of the source.
+        PieceSource preview = pieces.copy();
+        this.reset(preview.next(), preview.next(), null);
+        this.publish();
+        // Nobody listens yet, this only forgets the changes of the reset.
+        this.fireChanges();
     }
 
     /**
      * @return the current state of the game
      */
     public GameState getState() {
-        this.rwLock.readLock().lock();
-        try {
-            return this.state;
-        } finally {
-            this.rwLock.readLock().unlock();
-        }
+        return this.view.state;
     }
     
     public void tooglePause() {
-        this.rwLock.writeLock().lock();
+        this.beginWrite();
         try {
             if (this.state == GameState.GAMEOVER) {
                 this.reset();
@@ -112,9 +187,9 @@ public final class TetrisEngine {
             }
             GameState oldValue = this.state;
             this.state = this.state != GameState.PLAYING ? GameState.PLAYING : GameState.PAUSED;
-            this.propertyChangeSupport.firePropertyChange("state", oldValue, this.state);
+            this.changed("state", oldValue, this.state);
         } finally {
-            this.rwLock.writeLock().unlock();
+            this.endWrite();
         }
 
     }
@@ -123,13 +198,7 @@ public final class TetrisEngine {
      * @return the current score of the game
      */
     public Score getScore() {
-        this.rwLock.readLock().lock();
-        try {
-            return score.Clone();
-        } finally {
-            this.rwLock.readLock().unlock();
-        }
-
+        return this.view.score();
     }
 
     public void addPropertyChangeListener(PropertyChangeListener listener) {
@@ -217,7 +286,7 @@ public final class TetrisEngine {
     }
     
     public boolean tryMove(Move move, Tetromino nextblock_candidate) {
-        this.rwLock.writeLock().lock();
+        this.beginWrite();
         try {
             if (this.state != GameState.PLAYING) {
                 return false;
@@ -283,7 +352,8 @@ public final class TetrisEngine {
             } else {
                 result = new MoveResult(move, successful, null);
                 }
-            if (successful) {
+            if (successful && !this.moveListeners.isEmpty()) {
+                this.publish();
                 for (TetrisMoveListener listener : moveListeners) {
                     listener.sucessfulMove(result);
             }
@@ -291,9 +361,9 @@ public final class TetrisEngine {
             if (move == Move.DOWN || move == Move.SLAM) {
                 return fallEnded;
             }
-            return true;
+            return successful;
         } finally {
-            this.rwLock.writeLock().unlock();
+            this.endWrite();
         }
     }
 
@@ -313,12 +383,12 @@ public final class TetrisEngine {
      * doesn't appear halfway down the screen.
      */
     public void startengine() {
-        this.rwLock.writeLock().lock();
+        this.beginWrite();
         try {
             
             this.reset();
         } finally {
-            this.rwLock.writeLock().unlock();
+            this.endWrite();
         }
     }
 
@@ -326,32 +396,31 @@ public final class TetrisEngine {
      * Fully resets everything.
      */
     public void reset() {
-        this.rwLock.writeLock().lock();
+        this.beginWrite();
         try {
         this.reset(null, null, null);
         } finally {
-            this.rwLock.writeLock().unlock();
+            this.endWrite();
         }
     }
 
     private void reset(Tetromino activeblock, Tetromino nextblock, Block[][] blocks) {
-        this.activeblock = activeblock == null ? Tetromino.getRandom(rdm) : activeblock;
-        this.nextblock =   nextblock == null ? Tetromino.getRandom(rdm) : nextblock;
+        this.activeblock = activeblock == null ? this.deal() : activeblock;
+        this.nextblock =   nextblock == null ? this.deal() : nextblock;
         this.state = GameState.PLAYING;
         this.score = new Score();
-        this.propertyChangeSupport.firePropertyChange("score", null, null);
+        this.changed("score", null, null);
         if (blocks == null) {
-        for (int i = 0; i < this.defs.width; i++) {
-            for (int j = 0; j < this.defs.height; j++) {
-                    this.blocks[i][j] = new Block(Block.EMPTY, null);
-                }
-            }
+            this.board.clear();
         } else {
-            this.blocks = blocks;
+            this.board.load(blocks);
         }
-        this.copy();
-        this.propertyChangeSupport.firePropertyChange("blocks", null, null);
-        this.propertyChangeSupport.firePropertyChange("nextblock", null, null); // FIXME
+        if (!this.copy()) {
+            // A loaded game that was lost, as in newblock().
+            this.state = GameState.GAMEOVER;
+        }
+        this.changed("blocks", null, null);
+        this.changed("nextblock", null, null); // FIXME
     }
 
     private void donecurrent() {
@@ -361,13 +430,8 @@ public final class TetrisEngine {
      * Done the current block and changes all active blocks to filled.
      */
     private void donecurrent(Tetromino nextblock_candidate) {
-        for (Block[] blocks : this.blocks) {
-            for (Block block : blocks) {
-                if (block.getState() == Block.ACTIVE) {
-                    block.setState(Block.FILLED);
-                }
-            }
-        }
+        // The last position that fitted is one row above the current one.
+        this.board.lock(this.activeblock.type, this.activeblock.rot, this.activeblock.x, this.activeblock.y - 1);
         // Threading fix?
         this.activeblock = null;
 
@@ -375,11 +439,11 @@ public final class TetrisEngine {
         // Now actually remove the blocks.
         this.clearFullLines();
         this.newblock(nextblock_candidate);
-        this.propertyChangeSupport.firePropertyChange("blocks", null, null);
+        this.changed("blocks", null, null);
     }
 
     /**
-     * Copies the position of the active block into the abstract block grid.
+     * Checks the position of the active block against the settled blocks.
      * 
      * @return false if a block already exists under it, true otherwise.
      */
@@ -387,49 +451,10 @@ public final class TetrisEngine {
         if (activeblock == null || activeblock.array == null) {
             return false;
         }
-        int x = activeblock.x;
-        int y = activeblock.y;
-
-        // Check if any blocks already have a block under them.
-        // If yes, immediately return.
-        for (int i = 0; i < 4; i++) {
-            for (int r = 0; r < 4; r++) {
-                int xi = x + i;
-                int yr = y + r;
-
-                if (activeblock.array[r][i].getState() == Block.ACTIVE
-                        && (xi < 0 || yr < 0 || xi >= this.defs.width || yr >= this.defs.height
-                        || blocks[xi][yr].getState() == Block.FILLED)) {
-                    return false;
-                }
-            }
-        }
-        Block[][] buffer = Block.copy2D(blocks);
-
-        //First remove all active blocks.
-        for (int i = 0; i < this.defs.width; i++) {
-            for (int r = 0; r < this.defs.height; r++) {
-                if (buffer[i][r].getState() == Block.ACTIVE) {
-                    buffer[i][r].setState(Block.EMPTY);
-                    buffer[i][r].setType(null);
-                }
-            }
-        }
-
-        //Then fill in blocks from the new position.
-        for (int i = 0; i < 4; i++) {
-            for (int r = 0; r < 4; r++) {
-                if (activeblock.array[i][r].getState() == Block.ACTIVE) {
-                    int xr = x + r;
-                    int yi = y + i;
-                    buffer[xr][yi].setState(Block.ACTIVE);
-                    buffer[xr][yi].setType(activeblock.type);
-                }
-            }
+        if (!this.board.fits(activeblock.type, activeblock.rot, activeblock.x, activeblock.y)) {
+            return false;
         }
-
-        this.blocks = Block.copy2D(buffer);
-        this.propertyChangeSupport.firePropertyChange("blocks", null, null);
+        this.changed("blocks", null, null);
         return true;
     }
 
@@ -462,41 +487,11 @@ public final class TetrisEngine {
      * As expected this function checks whether there are any full lines and clears them.
      */
     private void clearFullLines() {
-        int whichline = -1;
-        int clearedLines = 0;
-        int old;
-        do {
-            old = clearedLines;
-            
-            // Loops to find any row that has every block filled.
-            // If one block is not filled, the loop breaks.
-            ML:
-            for (int i = this.defs.height - 1; i >= 0; i--) {
-                for (int y = 0; y < this.defs.width; y++) {
-                    if (blocks[y][i].getState() != Block.FILLED) {
-                        continue ML;
-                    }
-                }
-                clearedLines++;
-                whichline = i;
-                break;
-            }
-
-            // If this recursive step produced more clears:
-            if (clearedLines > old) {
-                for (int i = whichline; i > 0; i--) {
-                    /* Iterate and copy the state of the block on top of itself
-                       to its location. */
-                    for (int y = 0; y < blocks.length; y++) {
-                        blocks[y][i] = blocks[y][i - 1];
-                    }
-                }
-            }
-        } while(clearedLines > old);
+        int clearedLines = this.board.clearFullLines();
         if (clearedLines > 0) {
             Score oldValue = this.score.Clone();
             this.score.addRemovedLines(clearedLines);
-            this.propertyChangeSupport.firePropertyChange("score", oldValue, this.score.Clone());
+            this.changed("score", oldValue, this.score.Clone());
         }
     }
 
@@ -522,22 +517,30 @@ public final class TetrisEngine {
         if (!this.copy()) {
             GameState oldValue = this.state;
             this.state = GameState.GAMEOVER;
-            this.propertyChangeSupport.firePropertyChange("state", oldValue, this.state);
+            this.changed("state", oldValue, this.state);
         } else {
             Score oldValue = this.score.Clone();
             this.score.addDroppedBlock();
-            this.propertyChangeSupport.firePropertyChange("score", oldValue, this.score.Clone());
+            this.changed("score", oldValue, this.score.Clone());
         }
-        this.propertyChangeSupport.firePropertyChange("nextblock", null, null);
+        this.changed("nextblock", null, null);
     }
 
     /**
-     * Create and return a random block.
+     * @return the next piece of the source
+     */
+    private Tetromino deal() {
+        this.dealt++;
+        return this.pieces.next();
+    }
+
+    /**
+     * Create and return the next block of the piece source.
      * 
-     * @return a random block
+     * @return the next block
      */
     private Tetromino getRandBlock() {
-        Tetromino block = Tetromino.getRandom(rdm);
+        Tetromino block = this.deal();
         block.x = this.defs.width / 2 - 2;
         block.y = 0;
         return block;
@@ -547,12 +550,14 @@ public final class TetrisEngine {
      * @return the blocks
      */
     public Block[][] getBlocks() {
-        this.rwLock.readLock().lock();
-        try {
-            return Block.copy2D(blocks);
-        } finally {
-            this.rwLock.readLock().unlock();
-        }
+        return this.view.snapshot().toBlocks();
+    }
+
+    /**
+     * @return an immutable picture of the board, with the active block
+     */
+    public BoardSnapshot getSnapshot() {
+        return this.view.snapshot();
     }
 
     /**
@@ -561,63 +566,25 @@ public final class TetrisEngine {
      * @return a byte matrix
      */
     public byte[][] createMockGrid() {
-        this.rwLock.readLock().lock();
-        try {
-            byte[][] mockgrid = new byte[this.defs.width][this.defs.height];
-            for (int i = 0; i < this.defs.width; i++) {
-                for (int j = 0; j < this.defs.height; j++) {
-                    byte s = (byte) blocks[i][j].getState();
-                    if (s == 2) {
-                        s = 0;
-                    }
-                    mockgrid[i][j] = s;
-                }
-            }
-            return mockgrid;
-        } finally {
-            this.rwLock.readLock().unlock();
-        }
+        return this.view.snapshot().toMockGrid();
     }
 
     /**
      * @return the activeblock
      */
     public Tetromino getActiveblock() {
-        this.rwLock.readLock().lock();
-        try {
-            if (activeblock == null) {
-                return null;
-            } else {
-                return activeblock.clone();
-            }
-        } finally {
-            this.rwLock.readLock().unlock();
-        }
+        return this.view.activeblock();
     }
 
     /**
      * @return the nextblock
      */
     public Tetromino getNextblock() {
-        this.rwLock.readLock().lock();
-        try {
-            if (nextblock == null) {
-                return null;
-            } else {
-                return nextblock.clone();
-            }
-        } finally {
-            this.rwLock.readLock().unlock();
-        }
+        return this.view.nextblock();
     }
 
     public void addMoveListener(TetrisMoveListener listener) {
-        this.rwLock.writeLock().lock();
-        try {
-            this.moveListeners.add(listener);
-        } finally {
-            this.rwLock.writeLock().unlock();
-        }
+        this.moveListeners.add(listener);
     }
     
     public static class CompleteState {
@@ -625,27 +592,186 @@ public final class TetrisEngine {
         public Tetromino activeblock;
         public Tetromino nextblock;
         public Definitions definitions;
+
+        /**
+         * The score, or null for a new score. Not sent over the network.
+         */
+        public Score score;
     }
     public CompleteState dumpCompleteState() {
-        this.rwLock.readLock().lock();
+        View view = this.view;
+        CompleteState state = new CompleteState();
+        state.definitions = this.defs;
+        state.blocks = view.snapshot().toBlocks();
+        state.activeblock = view.activeblock();
+        state.nextblock = view.nextblock();
+        state.score = view.score();
+        return state;
+    }
+
+    public void loadCompleteState(CompleteState state) {
+        this.beginWrite();
         try {
-            CompleteState state = new CompleteState();
-            state.definitions = this.defs;
-            state.blocks = this.blocks.clone();
-            state.activeblock = this.activeblock.clone();
-            state.nextblock = this.nextblock.clone();
-            return state;
+            // The engine moves its blocks, so it must not share them.
+            this.reset(state.activeblock == null ? null : state.activeblock.clone(),
+                       state.nextblock == null ? null : state.nextblock.clone(),
+                       state.blocks);
+            if (state.score != null) {
+                this.score = state.score.Clone();
+            }
         } finally {
-            this.rwLock.readLock().unlock();
+            this.endWrite();
         }
     }
 
-    public void loadCompleteState(CompleteState state) {
-        this.rwLock.writeLock().lock();
+    /**
+     * Takes a copy of the whole game, pieces to come included, to go back
+     * to with restore(). It is the last published view, so this copies
+     * nothing and takes no lock: any thread may fork, even a single writer
+     * engine.
+     *
+     * @return the snapshot
+     */
+    public Snapshot fork() {
+        return new Snapshot(this.defs, this.view);
+    }
+
+    /**
+     * Puts the game back as it was when the snapshot was taken, with the
+     * same pieces to come. Unlike loadCompleteState() no property change is
+     * fired: a search restores the engine between every attempt and nobody
+     * should hear of it. The getters show the restored game.
+     *
+     * @param snapshot a snapshot taken by fork() on an engine with the same
+     *        definitions
+     */
+    public void restore(Snapshot snapshot) {
+        if (!this.defs.equals(snapshot.defs)) {
+            throw new IllegalArgumentException("snapshot of a game with other definitions");
+        }
+        this.beginWrite();
+        try {
+            View view = snapshot.view;
+            this.board.restore(view.rows, view.types);
+            this.state = view.state;
+            this.score = view.score();
+            this.activeblock = view.activeblock();
+            this.nextblock = view.nextblock();
+            this.pieces = view.pieces.copy();
+            this.dealt++;
+        } finally {
+            this.endWrite();
+        }
+    }
+
+    /**
+     * A copy of the whole game made by fork(). It is immutable, so it can be
+     * restored any number of times, on any engine with the same definitions.
+     */
+    public static final class Snapshot {
+        private final Definitions defs;
+        private final View view;
+
+        private Snapshot(Definitions defs, View view) {
+            this.defs = defs;
+            this.view = view;
+        }
+
+        /**
+         * @return the board when the snapshot was taken
+         */
+        public BoardSnapshot getBoard() {
+            return this.view.snapshot();
+        }
+
+        /**
+         * @return the state of the game when the snapshot was taken
+         */
+        public GameState getState() {
+            return this.view.state;
+        }
+    }
+
+    /**
+     * Takes the right to change the engine.
+     */
+    private void beginWrite() {
+        if (this.writeLock != null) {
+            this.writeLock.lock();
+        } else {
+            Thread current = Thread.currentThread();
+            if (this.writer.get() != current && !this.writer.compareAndSet(null, current)) {
+                throw new IllegalStateException("single writer engine changed by " + current);
+            }
+        }
+        this.writeDepth++;
+    }
+
+    /**
+     * Publishes the changes and gives back the right to change the engine.
+     * The outermost write also fires the properties it changed.
+     */
+    private void endWrite() {
         try {
-            this.reset(state.activeblock, state.nextblock, state.blocks);
+            this.publish();
+            if (--this.writeDepth == 0) {
+                this.fireChanges();
+            }
         } finally {
-            this.rwLock.writeLock().unlock();
+            if (this.writeLock != null) {
+                this.writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Makes the current state visible to the readers, as a new version if
+     * anything changed since the last one.
+     */
+    private void publish() {
+        View last = this.view;
+        if (last == null) {
+            this.view = new View(this, 0, this.pieces.copy());
+        } else if (!last.matches(this)) {
+            // The source is only copied when pieces were dealt, so moves
+            // share it with the view before them.
+            PieceSource pieces = last.dealt == this.dealt ? last.pieces : this.pieces.copy();
+            this.view = new View(this, last.version + 1, pieces);
+        }
+    }
+
+    /**
+     * Marks a property as changed. The first old value and the last new
+     * value are kept for the event fired at the end of the write.
+     */
+    private void changed(String propertyName, Object oldValue, Object newValue) {
+        int index = 0;
+        while (!PROPERTIES[index].equals(propertyName)) {
+            index++;
+        }
+        int bit = 1 << index;
+        if ((this.dirty & bit) == 0) {
+            this.dirty |= bit;
+            this.oldValues[index] = oldValue;
+        }
+        this.newValues[index] = newValue;
+    }
+
+    /**
+     * Fires the changed properties, once each. Listeners may change the
+     * engine again; their changes are fired by their own writes.
+     */
+    private void fireChanges() {
+        while (this.dirty != 0) {
+            int index = Integer.numberOfTrailingZeros(this.dirty);
+            this.dirty &= ~(1 << index);
+            Object oldValue = this.oldValues[index];
+            Object newValue = this.newValues[index];
+            this.oldValues[index] = null;
+            this.newValues[index] = null;
+            if (this.propertyChangeSupport.hasListeners(PROPERTIES[index])) {
+                this.propertyChangeSupport.firePropertyChange(PROPERTIES[index], oldValue, newValue);
+            }
         }
     }
 
@@ -653,19 +779,148 @@ public final class TetrisEngine {
     public boolean equals(Object obj) {
         if (obj instanceof TetrisEngine) {
             TetrisEngine other = (TetrisEngine) obj;
+            View view = this.view;
+            View otherView = other.view;
 
-            if (!this.defs.equals(other.defs) || !this.activeblock.equals(other.activeblock) || !this.nextblock.equals(other.nextblock)) return false;
+            if (!this.defs.equals(other.defs) || !view.samePieces(otherView)) return false;
 
-            for (int i = 0; i < blocks.length; i++) {
-                for (int j = 0; j < blocks[i].length; j++) {
-                    if (!blocks[i][j].equals(other.blocks[i][j])) {
-                        return false;
-                    }
-                }
-            }
-            return true;
+            return view.snapshot().equals(otherView.snapshot());
         } else {
             return false;
         }
     }
+
+    /**
+     * An immutable copy of the state of the game. The pieces and the score
+     * are kept as plain values and the board as the settled rows shared
+     * with the BitBoard, so publishing a move allocates nothing but the view.
+     * The objects handed to the readers are built from it when asked for.
+     */
+    private static final class View {
+        final long version;
+        final GameState state;
+        final int score;
+        final int linesRemoved;
+        final int blocksDropped;
+
+        /**
+         * The active block, null type if there is none. After a game over it
+         * is left where it did not fit, and is not drawn over the board.
+         */
+        final Tetromino.Type activeType;
+        final int activeRot;
+        final int activeX;
+        final int activeY;
+        final boolean activeDrawn;
+
+        final Tetromino.Type nextType;
+        final int nextRot;
+        final int nextX;
+        final int nextY;
+
+        final int width;
+        final long[] rows;
+        final byte[][] types;
+
+        /**
+         * The pieces to come, never dealt from: restore() deals from a copy.
+         */
+        final PieceSource pieces;
+        final int dealt;
+
+        /**
+         * The board, built on the first call to snapshot(). Readers racing
+         * on it may build it twice; snapshots are immutable, so both are
+         * safely published and equal.
+         */
+        private BoardSnapshot snapshot;
+
+        View(TetrisEngine engine, long version, PieceSource pieces) {
+            Tetromino active = engine.activeblock;
+            Tetromino next = engine.nextblock;
+            this.version = version;
+            this.state = engine.state;
+            this.score = engine.score.getScore();
+            this.linesRemoved = engine.score.getLinesRemoved();
+            this.blocksDropped = engine.score.getBlocksDropped();
+            this.activeType = active == null ? null : active.type;
+            this.activeRot = active == null ? 0 : active.rot;
+            this.activeX = active == null ? 0 : active.x;
+            this.activeY = active == null ? 0 : active.y;
+            this.activeDrawn = active != null && engine.board.fits(active.type, active.rot, active.x, active.y);
+            this.nextType = next == null ? null : next.type;
+            this.nextRot = next == null ? 0 : next.rot;
+            this.nextX = next == null ? 0 : next.x;
+            this.nextY = next == null ? 0 : next.y;
+            this.width = engine.defs.width;
+            this.rows = engine.board.snapshotRows();
+            this.types = engine.board.snapshotTypes();
+            this.pieces = pieces;
+            this.dealt = engine.dealt;
+        }
+
+        Score score() {
+            return new Score(this.score, this.linesRemoved, this.blocksDropped);
+        }
+
+        Tetromino activeblock() {
+            return piece(this.activeType, this.activeRot, this.activeX, this.activeY);
+        }
+
+        Tetromino nextblock() {
+            return piece(this.nextType, this.nextRot, this.nextX, this.nextY);
+        }
+
+        BoardSnapshot snapshot() {
+            BoardSnapshot result = this.snapshot;
+            if (result == null) {
+                result = new BoardSnapshot(this.version, this.width, this.rows.length, this.rows, this.types,
+                                           this.activeDrawn ? this.activeblock() : null);
+                this.snapshot = result;
+            }
+            return result;
+        }
+
+        /**
+         * @return true if the engine is still in the state of this view
+         */
+        boolean matches(TetrisEngine engine) {
+            return this.state == engine.state
+                    && this.dealt == engine.dealt
+                    && !engine.board.changedSince(this.rows)
+                    && this.score == engine.score.getScore()
+                    && this.linesRemoved == engine.score.getLinesRemoved()
+                    && this.blocksDropped == engine.score.getBlocksDropped()
+                    && samePlace(this.activeType, this.activeRot, this.activeX, this.activeY, engine.activeblock)
+                    && samePlace(this.nextType, this.nextRot, this.nextX, this.nextY, engine.nextblock);
+        }
+
+        /**
+         * @return true if the active and next blocks are where they are in
+         *         another view
+         */
+        boolean samePieces(View other) {
+            return this.activeType == other.activeType && this.activeRot == other.activeRot
+                    && this.activeX == other.activeX && this.activeY == other.activeY
+                    && this.nextType == other.nextType && this.nextRot == other.nextRot
+                    && this.nextX == other.nextX && this.nextY == other.nextY;
+        }
+
+        private static Tetromino piece(Tetromino.Type type, int rot, int x, int y) {
+            if (type == null) {
+                return null;
+            }
+            Tetromino block = new Tetromino(type, rot);
+            block.x = x;
+            block.y = y;
+            return block;
+        }
+
+        private static boolean samePlace(Tetromino.Type type, int rot, int x, int y, Tetromino block) {
+            if (type == null || block == null) {
+                return type == null && block == null;
+            }
+            return type == block.type && rot == block.rot && x == block.x && y == block.y;
+        }
+    }
 }
@@ -1,29 +1,12 @@
 package tetris.generic;
 
 import java.util.Objects;
-import java.util.Random;
 
 /*
  * Object representation of a tetromino.
  */
 public final class Tetromino implements Cloneable {
 
-    public static Tetromino getRandom(Random random) {
-        Tetromino.Type type = Tetromino.Type.getRandom(random);
-        byte[][][] blockdef = Definitions.blockdef[type.ordinal()];
-        int rotation;
-        if (blockdef.length == 1) {
-            rotation = 0;
-        } else {
-            rotation = random.nextInt(blockdef.length);
-        }
-        Tetromino tetromino = new Tetromino();
-        tetromino.type = type;
-        tetromino.rot = rotation;
-        tetromino.array = Block.toBlock2D(blockdef[rotation], type);
-        return tetromino;
-    }
-
     public Block[][] array;
     public int x, y, rot;
     public Type type;
@@ -114,9 +97,5 @@ public final class Tetromino implements Cloneable {
 
     public enum Type {
         Long, Box, L, J, T, S, Z;
-        
-        public static Type getRandom(Random random) {
-            return Type.values()[random.nextInt(Type.values().length)];
-        }
     }
 }
@@ -25,7 +25,9 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.Timer;
 import tetris.ai.AbstractAI;
+import tetris.ai.Decision;
 import tetris.generic.BlockMover;
+import tetris.generic.BlockPosition;
 import tetris.generic.TetrisEngine;
 
 /**
@@ -36,7 +38,7 @@ public final class AIExecutor {
     private static final Logger logger = Logger.getLogger(AIExecutor.class.getName());
 
     private final ActionListenerImpl actionListenerImpl = new ActionListenerImpl();
-    private final FutureCallbackImpl futureCallbackImpl = new FutureCallbackImpl();
+    private final DeadlineListener deadlineListener = new DeadlineListener();
     
     private final AbstractAI ai;
     private final TetrisEngine engine;
@@ -45,11 +47,20 @@ public final class AIExecutor {
     private boolean running;
     private int delay;
 
+    /**
+     * The decision being searched, and when its best placement so far is
+     * taken instead of waiting for the whole search.
+     */
+    private Decision decision;
+    private final Timer deadlineTimer;
+
     public AIExecutor(int delay, AbstractAI ai, TetrisEngine engine) {
         this.running = false;
         this.mover = null;
         
         this.timer = new Timer(delay, actionListenerImpl);
+        this.deadlineTimer = new Timer(0, deadlineListener);
+        this.deadlineTimer.setRepeats(false);
         this.ai = ai;
         this.engine = engine;
         this.setDelay(delay);
@@ -66,6 +77,25 @@ public final class AIExecutor {
         }
     }
 
+    /**
+     * Sets how long a decision may take. At the deadline the AI plays the
+     * best placement it found so far and the rest of the search is stopped,
+     * so a slow decision does not stall the game.
+     *
+     * @param deadline the time in milliseconds, 0 to wait for the whole
+     *        search
+     */
+    public synchronized void setDeadline(int deadline) {
+        if (deadline < 0) {
+            throw new IllegalArgumentException("deadline must not be negative");
+        }
+        this.deadlineTimer.setInitialDelay(deadline);
+    }
+
+    public synchronized int getDeadline() {
+        return this.deadlineTimer.getInitialDelay();
+    }
+
     public synchronized void start() {
         if (!this.running) {
             this.running = true;
@@ -81,6 +111,51 @@ public final class AIExecutor {
         if (this.running) {
             this.running = false;
             this.timer.stop();
+            this.deadlineTimer.stop();
+            if (this.decision != null) {
+                this.decision.stop();
+                this.decision = null;
+            }
+        }
+    }
+
+    private synchronized void decide() {
+        final Decision current = this.ai.decide(this.engine);
+        this.decision = current;
+        if (this.deadlineTimer.getInitialDelay() > 0) {
+            this.deadlineTimer.restart();
+        }
+        Futures.addCallback(current.getResult(), new FutureCallback<BlockPosition>() {
+            @Override
+            public void onSuccess(BlockPosition position) {
+                decided(current, position);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                logger.log(Level.SEVERE, "error while processing ai", t);
+            }
+        });
+    }
+
+    /**
+     * Plays the placement of a decision, unless it was already played or
+     * another decision replaced it.
+     */
+    private synchronized void decided(Decision decided, BlockPosition position) {
+        if (decided != this.decision) {
+            return;
+        }
+        this.decision = null;
+        this.deadlineTimer.stop();
+        if (running) {
+            BlockMover mover = position == null ? null : new BlockMover(engine, position);
+            if (mover != null && delay == 0) {
+                mover.slam();
+            } else {
+                this.mover = mover;
+            }
+            timer.restart();
         }
     }
 
@@ -97,29 +172,30 @@ public final class AIExecutor {
                 mover = null;
                 timer.stop();
                 if (running) {
-                    Futures.addCallback(ai.process(engine), futureCallbackImpl);
+                    decide();
                 }
             }
         }
     }
-    
-    private class FutureCallbackImpl implements FutureCallback<BlockMover> {
+
+    /**
+     * Takes the best placement so far of the decision at its deadline. If
+     * there is none yet, the stopped search answers soon with what it has.
+     */
+    private class DeadlineListener implements ActionListener {
         @Override
-        public void onSuccess(BlockMover mover) {
-            if (running) {
-                if (mover != null && delay == 0) {
-                    mover.slam();
-                } else {
-                    AIExecutor.this.mover = mover;
+        public void actionPerformed(ActionEvent e) {
+            Decision current;
+            synchronized (AIExecutor.this) {
+                current = decision;
+            }
+            if (current != null) {
+                BlockPosition best = current.stop();
+                if (best != null) {
+                    decided(current, best);
                 }
-                timer.restart();
             }
         }
-
-        @Override
-        public void onFailure(Throwable t) {
-            logger.log(Level.SEVERE, "error while processing ai", t);
-        }
     }
 
 }
@@ -19,6 +19,7 @@ package tetris.gui;
 
 import java.awt.Graphics;
 import javax.swing.JComponent;
+import tetris.generic.BoardSnapshot;
 import tetris.generic.TetrisEngine;
 
 /**
@@ -31,6 +32,11 @@ public class BoardPane extends JComponent {
 
     private final Drawer drawer;
     private final TetrisEngine engine;
+
+    /**
+     * The version of the last snapshot painted, read by the Swing thread only.
+     */
+    private long paintedVersion = -1;
     
     public BoardPane() {
         this.width = 6;
@@ -54,8 +60,21 @@ public class BoardPane extends JComponent {
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        this.drawer.draw(g, this.getSize(), this.width,
-                         this.height, this.engine != null ? this.engine.getBlocks() : null);
+        if (this.engine != null) {
+            BoardSnapshot snapshot = this.engine.getSnapshot();
+            this.paintedVersion = snapshot.getVersion();
+            this.drawer.draw(g, this.getSize(), snapshot);
+        } else {
+            this.drawer.draw(g, this.getSize(), this.width, this.height, null);
+        }
+    }
+
+    /**
+     * Repaints the board if the game changed since it was last painted.
+     */
+    public void refresh() {
+        if (this.engine == null || this.engine.getSnapshot().getVersion() != this.paintedVersion) {
+            this.repaint();
+        }
     }
-    
 }
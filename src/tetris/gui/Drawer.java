@@ -21,6 +21,7 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import tetris.generic.Block;
+import tetris.generic.BoardSnapshot;
 import tetris.generic.Tetromino;
 
 /**
@@ -78,32 +79,53 @@ public final class Drawer {
         int deslocy = (size.height - (square.height * BoardHeight)) / 2;
         Tetromino.Type type;
         //assert BoardWidth == array.length;
-        int x, xLinha, y, yLinha, ordinal = 0;
+        int ordinal = 0;
         for (int i = 0; i < BoardWidth; ++i) {
             //assert BoardHeight == array[i].length;
-            x = deslocx + (i * square.width);
-            xLinha = deslocx + ((i + 1) * square.width) - 1;
             for (int j = 0; j < BoardHeight; ++j) {
-                y = deslocy + (j * square.height);
-                yLinha = deslocy + ((j + 1) * square.height) - 1;
-                
                 if (array != null) {
                     type = array[i][j].getType();
                     ordinal = type == null ? 0 : type.ordinal() + 1;
                 }
+                this.drawSquare(graphic, square, deslocx, deslocy, i, j, ordinal);
+            }
+        }
+    }
+
+    /**
+     * Draws a board straight from a snapshot, without building its blocks.
+     */
+    public void draw(Graphics graphic, Dimension size, BoardSnapshot snapshot) {
+        int BoardWidth = snapshot.getWidth();
+        int BoardHeight = snapshot.getHeight();
+        Dimension square = this.getSquareDimension(size, BoardWidth, BoardHeight);
+        int deslocx = (size.width - (square.width * BoardWidth)) / 2;
+        int deslocy = (size.height - (square.height * BoardHeight)) / 2;
+        Tetromino.Type type;
+        for (int i = 0; i < BoardWidth; ++i) {
+            for (int j = 0; j < BoardHeight; ++j) {
+                type = snapshot.getType(i, j);
+                this.drawSquare(graphic, square, deslocx, deslocy, i, j, type == null ? 0 : type.ordinal() + 1);
+            }
+        }
+    }
 
-                graphic.setColor(colors[ordinal]);
-                graphic.fillRect(x + 1, y + 1, square.width - 2, square.height - 2);
+    private void drawSquare(Graphics graphic, Dimension square, int deslocx, int deslocy, int i, int j, int ordinal) {
+        int x = deslocx + (i * square.width);
+        int xLinha = deslocx + ((i + 1) * square.width) - 1;
+        int y = deslocy + (j * square.height);
+        int yLinha = deslocy + ((j + 1) * square.height) - 1;
 
-                graphic.setColor(brighterColors[ordinal]);
-                graphic.drawLine(x, yLinha, x, y);
+        graphic.setColor(colors[ordinal]);
+        graphic.fillRect(x + 1, y + 1, square.width - 2, square.height - 2);
 
-                graphic.drawLine(x, y, xLinha, y);
+        graphic.setColor(brighterColors[ordinal]);
+        graphic.drawLine(x, yLinha, x, y);
 
-                graphic.setColor(darkerColors[ordinal]);
-                graphic.drawLine(x + 1, yLinha, xLinha, yLinha);
-                graphic.drawLine(xLinha, yLinha, xLinha, y + 1);
-            }
-        }
+        graphic.drawLine(x, y, xLinha, y);
+
+        graphic.setColor(darkerColors[ordinal]);
+        graphic.drawLine(x + 1, yLinha, xLinha, yLinha);
+        graphic.drawLine(xLinha, yLinha, xLinha, y + 1);
     }
 }
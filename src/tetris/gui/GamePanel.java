@@ -64,6 +64,8 @@ class GamePanel {
         this.executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
         this.ai = new TetrisAI(this.executor);
         this.aiExecutor = new AIExecutor(100, ai, engine);
+        // Play on time even when the machine is busy.
+        this.aiExecutor.setDeadline(250);
 
         this.previewPane = new PreviewPiece(drawer);
         this.previewPane.setPreferredSize(DEFAULT_SIZE);
@@ -84,25 +86,25 @@ class GamePanel {
         this.sidebarPane.add(createLinePanel(this.scoreLabel, this.scoreValue));
         this.sidebarPane.add(createLinePanel(this.removeLinesLabel, this.removeLinesValue));
         this.sidebarPane.add(createLinePanel(this.blocksDroppedLabel, this.blocksDroppedValue));
-        this.engine.addPropertyChangeListener("blocks", PropertyListeners.alwaysInSwing(new PropertyChangeListener() {
+        this.engine.addPropertyChangeListener(PropertyListeners.coalescedInSwing(new PropertyChangeListener() {
             @Override
             public void propertyChange(PropertyChangeEvent evt) {
-                board.repaint();
-            }
-        }));
-        this.engine.addPropertyChangeListener("nextblock", PropertyListeners.alwaysInSwing(new PropertyChangeListener() {
-            @Override
-            public void propertyChange(PropertyChangeEvent evt) {
-                previewPane.setPiece(engine.getNextblock());
-            }
-        }));
-        this.engine.addPropertyChangeListener("score", PropertyListeners.alwaysInSwing(new PropertyChangeListener() {
-            @Override
-            public void propertyChange(PropertyChangeEvent evt) {
-                Score score = engine.getScore();
-                scoreValue.setText(String.format("%06d", score.getScore()));
-                removeLinesValue.setText(String.format("%06d", score.getLinesRemoved()));
-                blocksDroppedValue.setText(String.format("%06d", score.getBlocksDropped()));
+                switch (evt.getPropertyName()) {
+                case "blocks":
+                    board.refresh();
+                    break;
+                case "nextblock":
+                    previewPane.setPiece(engine.getNextblock());
+                    break;
+                case "score":
+                    Score score = engine.getScore();
+                    scoreValue.setText(String.format("%06d", score.getScore()));
+                    removeLinesValue.setText(String.format("%06d", score.getLinesRemoved()));
+                    blocksDroppedValue.setText(String.format("%06d", score.getBlocksDropped()));
+                    break;
+                default:
+                    break;
+                }
             }
         }));
     }
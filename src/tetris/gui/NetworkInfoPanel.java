@@ -35,6 +35,7 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import tetris.net.Network;
 import tetris.net.Network.ConnectionState;
+import tetris.util.functional.PropertyListeners;
 
 /**
  *
@@ -63,12 +64,12 @@ public class NetworkInfoPanel extends JPanel {
         });
 
         this.network = network;
-        this.network.addPropertyChangeListener("connectionState", new PropertyChangeListener() {
+        this.network.addPropertyChangeListener("connectionState", PropertyListeners.alwaysInSwing(new PropertyChangeListener() {
             @Override
             public void propertyChange(PropertyChangeEvent evt) {
                 updateDisplay((ConnectionState) evt.getNewValue());
             }
-        });
+        }));
         
         this.setLayout(new BoxLayout(this, BoxLayout.LINE_AXIS));
         this.add(Box.createHorizontalGlue());
@@ -90,7 +90,7 @@ public class Window extends JFrame {
         this.network = new TCPNetwork(this.gameRight.engine, this.gameLeft.engine);
         this.network.start();
         this.chatPanel = new ChatPanel(this.network);
-        this.network.addPropertyChangeListener("connectionState", new PropertyChangeListener() {
+        this.network.addPropertyChangeListener("connectionState", PropertyListeners.alwaysInSwing(new PropertyChangeListener() {
             @Override
             public void propertyChange(PropertyChangeEvent evt) {
                 ConnectionState state = (ConnectionState) evt.getNewValue();
@@ -104,7 +104,7 @@ public class Window extends JFrame {
                     pack();
                 }
             }
-        });
+        }));
         
         
         this.gameRight.engine.addPropertyChangeListener("state", PropertyListeners.alwaysInSwing(new PropertyChangeListener() {
@@ -277,14 +277,28 @@ public class Window extends JFrame {
                     if (address == null || address.isEmpty()) {
                         break;
                     }
-                    URI uri = TCPNetwork.parseHostPort(address);
+                    final URI uri = TCPNetwork.parseHostPort(address);
                     gameLeft.aiExecutor.stop();
-                    try {
-                        network.connect(InetAddress.getByName(uri.getHost()), uri.getPort());
-                    } catch (UnknownHostException ex) {
-                        logger.log(Level.SEVERE, null, ex);
-                        gameLeft.aiExecutor.start();
-                    }
+                    // A match server only answers when an opponent shows up,
+                    // so the handshake must not hold the event thread.
+                    Thread connecting = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                network.connect(InetAddress.getByName(uri.getHost()), uri.getPort());
+                            } catch (UnknownHostException ex) {
+                                logger.log(Level.SEVERE, null, ex);
+                                SwingUtilities.invokeLater(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        gameLeft.aiExecutor.start();
+                                    }
+                                });
+                            }
+                        }
+                    }, "conexao");
+                    connecting.setDaemon(true);
+                    connecting.start();
                     break;
                 case KeyEvent.VK_V:
                     if (gameRight.aiExecutor.isRunning()) {
@@ -0,0 +1,546 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import tetris.generic.Definitions;
+import tetris.generic.TetrisEngine;
+
+/**
+ * Hosts many 1v1 matches between TCPNetwork clients on a few threads.
+ *
+ * Each thread runs a non-blocking selector loop over its share of the
+ * connections. A client is greeted as a TCPNetwork server would, then waits
+ * for an opponent; once paired, each player gets a fresh board and sends
+ * its own, which the server forwards to the other as an "ESTADO :" line.
+ * From then on the server relays the bytes of each player to the other
+ * without decoding them, so the players negotiate the binary protocol
+ * between themselves.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public final class MatchServer {
+    private static final Logger logger = Logger.getLogger(MatchServer.class.getName());
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+
+    /**
+     * The longest handshake line accepted, a complete state fits with room.
+     */
+    private static final int MAX_LINE = 1 << 16;
+
+    /**
+     * How many relayed bytes may wait for a slow player before its match
+     * is closed.
+     */
+    private static final long MAX_QUEUED = 1 << 20;
+
+    private final Definitions defs;
+    private final Protocol protocol;
+    private final Loop[] loops;
+    private final AtomicInteger nextLoop;
+    private final AtomicInteger matches;
+    private final AtomicInteger connections;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    /**
+     * The player waiting for an opponent, guarded by this.
+     */
+    private Connection waiting;
+
+    /**
+     * @param defs the definitions of the boards of the players
+     * @param threads how many selector threads serve the connections
+     */
+    public MatchServer(Definitions defs, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.defs = defs;
+        this.protocol = Protocol.create();
+        this.loops = new Loop[threads];
+        this.nextLoop = new AtomicInteger();
+        this.matches = new AtomicInteger();
+        this.connections = new AtomicInteger();
+    }
+
+    /**
+     * Opens the port and starts the threads.
+     *
+     * @param port the port, 0 for any free port
+     * @throws IOException if the port could not be opened
+     */
+    public synchronized void start(int port) throws IOException {
+        if (this.running) {
+            throw new IllegalStateException("already started");
+        }
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+        this.serverChannel.configureBlocking(false);
+        for (int i = 0; i < this.loops.length; i++) {
+            this.loops[i] = new Loop(Selector.open());
+        }
+        this.serverChannel.register(this.loops[0].selector, SelectionKey.OP_ACCEPT);
+        this.running = true;
+        for (int i = 0; i < this.loops.length; i++) {
+            this.loops[i].thread = new Thread(this.loops[i], "Match Server Thread " + i);
+            this.loops[i].thread.start();
+        }
+    }
+
+    /**
+     * Closes every connection and waits for the threads to end.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (!this.running) {
+                return;
+            }
+            this.running = false;
+        }
+        for (Loop loop : this.loops) {
+            loop.selector.wakeup();
+        }
+        for (Loop loop : this.loops) {
+            try {
+                loop.thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        try {
+            this.serverChannel.close();
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * @return the port the server listens to
+     */
+    public int getPort() {
+        return this.serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return how many matches are being played
+     */
+    public int getMatchCount() {
+        return this.matches.get();
+    }
+
+    /**
+     * @return how many players are connected, playing or waiting
+     */
+    public int getConnectionCount() {
+        return this.connections.get();
+    }
+
+    /**
+     * Pairs a greeted player with the one waiting, or makes it wait.
+     */
+    private void pair(Connection connection) {
+        Connection opponent;
+        // The players are linked under the lock that close() takes before
+        // it looks at the match, so a player closing on its own loop either
+        // is not paired or finds its opponent and ends the match.
+        synchronized (this) {
+            if (this.waiting == null || this.waiting.closed.get()) {
+                this.waiting = connection;
+                return;
+            }
+            opponent = this.waiting;
+            this.waiting = null;
+            AtomicBoolean open = new AtomicBoolean(true);
+            connection.match = open;
+            opponent.match = open;
+            connection.opponent = opponent;
+            opponent.opponent = connection;
+            this.matches.incrementAndGet();
+        }
+        connection.sendLine(this.freshState());
+        opponent.sendLine(this.freshState());
+    }
+
+    private synchronized void forget(Connection connection) {
+        if (this.waiting == connection) {
+            this.waiting = null;
+        }
+    }
+
+    /**
+     * @return the state of a new game, what a player sees of its opponent
+     *         until it gets the real one
+     */
+    private String freshState() {
+        TetrisEngine engine = new TetrisEngine(this.defs);
+        engine.startengine();
+        return this.protocol.encodeCompleteState(engine.dumpCompleteState());
+    }
+
+    /**
+     * A selector and the connections registered on it.
+     */
+    private final class Loop implements Runnable {
+        final Selector selector;
+        Thread thread;
+
+        /**
+         * Connections accepted by another loop, to be registered here.
+         */
+        final Queue<Connection> registrations = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Connections with bytes to write or to be closed.
+         */
+        final Queue<Connection> dirty = new ConcurrentLinkedQueue<>();
+
+        Loop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(Connection connection) {
+            this.registrations.add(connection);
+            this.selector.wakeup();
+        }
+
+        void markDirty(Connection connection) {
+            this.dirty.add(connection);
+            if (Thread.currentThread() != this.thread) {
+                this.selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    this.selector.select();
+                    Connection connection;
+                    while ((connection = this.registrations.poll()) != null) {
+                        connection.register();
+                    }
+                    for (SelectionKey key : this.selector.selectedKeys()) {
+                        this.process(key);
+                    }
+                    this.selector.selectedKeys().clear();
+                    while ((connection = this.dirty.poll()) != null) {
+                        connection.flush();
+                    }
+                }
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "erro no seletor", ex);
+            } finally {
+                for (SelectionKey key : this.selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                try {
+                    this.selector.close();
+                } catch (IOException ex) {
+                    logger.log(Level.SEVERE, null, ex);
+                }
+            }
+        }
+
+        private void process(SelectionKey key) {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                this.accept();
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            if (key.isReadable()) {
+                connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.flush();
+            }
+        }
+
+        private void accept() {
+            while (true) {
+                SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                    if (channel == null) {
+                        return;
+                    }
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                } catch (IOException ex) {
+                    logger.log(Level.SEVERE, "erro ao aceitar conexão", ex);
+                    return;
+                }
+                connections.incrementAndGet();
+                Loop loop = loops[Math.abs(nextLoop.getAndIncrement() % loops.length)];
+                Connection connection = new Connection(channel, loop);
+                if (loop == this) {
+                    connection.register();
+                } else {
+                    loop.register(connection);
+                }
+            }
+        }
+    }
+
+    private enum Phase {
+        HELLO, STATE, RELAY
+    }
+
+    /**
+     * A player. Only the thread of its loop reads and writes its channel;
+     * other threads queue bytes for it.
+     */
+    private final class Connection {
+        final SocketChannel channel;
+        final Loop loop;
+        final Queue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+        final AtomicLong queued = new AtomicLong();
+        final AtomicBoolean closed = new AtomicBoolean(false);
+        volatile boolean closeRequested;
+        volatile Connection opponent;
+        volatile AtomicBoolean match;
+        ByteBuffer input = ByteBuffer.allocate(4096);
+        ByteBuffer writing;
+        SelectionKey key;
+        Phase phase = Phase.HELLO;
+
+        Connection(SocketChannel channel, Loop loop) {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        void register() {
+            try {
+                this.key = this.channel.register(this.loop.selector, SelectionKey.OP_READ, this);
+            } catch (ClosedChannelException ex) {
+                this.close();
+                return;
+            }
+            // Bytes may have been queued before the registration.
+            this.flush();
+        }
+
+        void read() {
+            int count;
+            try {
+                count = this.channel.read(this.input);
+            } catch (IOException ex) {
+                count = -1;
+            }
+            if (count < 0) {
+                this.close();
+                return;
+            }
+            this.input.flip();
+            while (this.phase != Phase.RELAY && !this.closed.get()) {
+                String line = this.readLine();
+                if (line == null) {
+                    break;
+                }
+                this.processLine(line);
+            }
+            if (this.phase == Phase.RELAY && this.input.hasRemaining()) {
+                ByteBuffer copy = ByteBuffer.allocate(this.input.remaining());
+                copy.put(this.input);
+                copy.flip();
+                Connection other = this.opponent;
+                if (other != null) {
+                    other.send(copy);
+                }
+            }
+            this.input.compact();
+            if (!this.input.hasRemaining()) {
+                if (this.input.capacity() >= MAX_LINE) {
+                    logger.log(Level.WARNING, "linha muito longa de {0}", this.channel);
+                    this.close();
+                } else {
+                    ByteBuffer bigger = ByteBuffer.allocate(this.input.capacity() * 2);
+                    this.input.flip();
+                    bigger.put(this.input);
+                    this.input = bigger;
+                }
+            }
+        }
+
+        /**
+         * @return the next line of the input, or null if it is not complete
+         */
+        private String readLine() {
+            for (int i = this.input.position(); i < this.input.limit(); i++) {
+                if (this.input.get(i) == '\n') {
+                    int length = i - this.input.position();
+                    byte[] bytes = new byte[length];
+                    this.input.get(bytes);
+                    this.input.get();
+                    if (length > 0 && bytes[length - 1] == '\r') {
+                        length--;
+                    }
+                    return new String(bytes, 0, length);
+                }
+            }
+            return null;
+        }
+
+        private void processLine(String line) {
+            switch (this.phase) {
+            case HELLO:
+                if (!line.equals(Network.HELLO)) {
+                    this.close();
+                    return;
+                }
+                this.phase = Phase.STATE;
+                this.sendLine(Network.HELLO);
+                pair(this);
+                break;
+            case STATE:
+                Connection other = this.opponent;
+                if (other == null) {
+                    // Clients only send their state when they got a board.
+                    this.close();
+                    return;
+                }
+                other.sendLine(Network.delimitadorEstado + line);
+                this.phase = Phase.RELAY;
+                break;
+            default:
+                throw new AssertionError();
+            }
+        }
+
+        void sendLine(String line) {
+            byte[] bytes = line.getBytes();
+            ByteBuffer buffer = ByteBuffer.allocate(bytes.length + LINE_SEPARATOR.length);
+            buffer.put(bytes).put(LINE_SEPARATOR).flip();
+            this.send(buffer);
+        }
+
+        /**
+         * Queues bytes to be written by the thread of the loop.
+         */
+        void send(ByteBuffer buffer) {
+            if (this.closed.get()) {
+                return;
+            }
+            if (this.queued.addAndGet(buffer.remaining()) > MAX_QUEUED) {
+                logger.log(Level.WARNING, "jogador lento demais: {0}", this.channel);
+                this.requestClose();
+                return;
+            }
+            this.output.add(buffer);
+            this.loop.markDirty(this);
+        }
+
+        /**
+         * Closes the connection once the bytes already queued are written.
+         */
+        void requestClose() {
+            this.closeRequested = true;
+            this.loop.markDirty(this);
+        }
+
+        void flush() {
+            if (this.closed.get() || this.key == null) {
+                return;
+            }
+            try {
+                while (true) {
+                    if (this.writing == null) {
+                        this.writing = this.output.poll();
+                        if (this.writing == null) {
+                            break;
+                        }
+                    }
+                    int count = this.channel.write(this.writing);
+                    this.queued.addAndGet(-count);
+                    if (this.writing.hasRemaining()) {
+                        this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    this.writing = null;
+                }
+            } catch (IOException ex) {
+                this.close();
+                return;
+            }
+            this.key.interestOps(SelectionKey.OP_READ);
+            if (this.closeRequested) {
+                this.close();
+            }
+        }
+
+        void close() {
+            if (!this.closed.compareAndSet(false, true)) {
+                return;
+            }
+            connections.decrementAndGet();
+            // After this, pair() either skips this player or has linked it.
+            forget(this);
+            if (this.key != null) {
+                this.key.cancel();
+            }
+            try {
+                this.channel.close();
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "erro ao fechar conexão", ex);
+            }
+            AtomicBoolean open = this.match;
+            if (open != null && open.compareAndSet(true, false)) {
+                matches.decrementAndGet();
+            }
+            Connection other = this.opponent;
+            if (other != null) {
+                other.requestClose();
+            }
+        }
+    }
+
+    /**
+     * Runs a server until the process is killed.
+     * Arguments: [port [threads [width height]]].
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7777;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Definitions defs = args.length > 3
+                ? Definitions.create(Integer.parseInt(args[2]), Integer.parseInt(args[3]))
+                : Definitions.create(6, 20);
+        MatchServer server = new MatchServer(defs, threads);
+        server.start(port);
+        System.err.printf("servidor de partidas na porta %d com %d threads%n", server.getPort(), threads);
+    }
+}
@@ -20,11 +20,14 @@ package tetris.net;
 import com.google.common.base.Function;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.io.DataInput;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 import tetris.generic.TetrisEngine;
+import tetris.generic.TetrisEngine.CompleteState;
 import tetris.generic.TetrisMoveListener;
 import tetris.util.MyThread;
 
@@ -43,6 +46,20 @@ public abstract class Network {
     protected static final String HELLO = "mamao";
     protected static final String delimitadorChat = "CHAT :";
     protected static final String delimitadorJogo = "JOGO :";
+
+    /**
+     * The complete state of the other player, sent by a MatchServer when
+     * the player sends it.
+     */
+    protected static final String delimitadorEstado = "ESTADO :";
+
+    /**
+     * Negotiation of the binary protocol. Peers that do not know it ignore
+     * these lines, like any unknown line, and keep talking text.
+     */
+    protected static final String delimitadorBinario = "BINARIO :";
+    protected static final String BINARIO_OFERTA = "oferta";
+    protected static final String BINARIO_INICIO = "inicio";
     
     protected final Protocol protocol;
     protected final TetrisEngine remoteEngine;
@@ -54,6 +71,12 @@ public abstract class Network {
     private ConnectionState connectionState;
     private String connectionError;
 
+    /**
+     * Rebuilds the game of the other player from its StateSync frames.
+     * Only used by the read thread, a new connection starts a new one.
+     */
+    private StateSync.Receiver stateReceiver = new StateSync.Receiver();
+
     public Network(TetrisEngine local, TetrisEngine remote) {
         this.connectionState = ConnectionState.DISCONNECTED;
         this.protocol = Protocol.create();
@@ -145,18 +168,72 @@ public abstract class Network {
             processLinhaChat(linha.substring(delimitadorChat.length()));
         } else if (linha.startsWith(delimitadorJogo)) {
             processLinhaJogo(linha.substring(delimitadorJogo.length()));
+        } else if (linha.startsWith(delimitadorEstado)) {
+            processLinhaEstado(linha.substring(delimitadorEstado.length()));
         } else {
             // TODO: ERRO
         }
     }
 
     protected void processLinhaJogo(String linha) {
-        TetrisEngine.MoveResult moveResult = this.protocol.decodeMoveResult(linha);
+        this.processMove(this.protocol.decodeMoveResult(linha));
+    }
+
+    /**
+     * Replays a move of the other player on the remote engine.
+     */
+    protected void processMove(TetrisEngine.MoveResult moveResult) {
         if (moveResult != null) {
             this.remoteEngine.tryMove(moveResult.move, moveResult.nextblock);
         }
     }
 
+    protected void processLinhaEstado(String linha) {
+        this.remoteEngine.loadCompleteState(this.protocol.decodeCompleteState(linha));
+    }
+
+    /**
+     * Reads the rest of a binary frame and processes it.
+     *
+     * @param header the first byte of the frame
+     * @param in where to read the rest of the frame
+     * @throws IOException if the frame is not valid or could not be read
+     */
+    protected void processFrame(int header, DataInput in) throws IOException {
+        if (this.protocol.isMoveFrame(header)) {
+            this.processMove(this.protocol.decodeMoveResult(header, in));
+        } else if (header == Protocol.FRAME_CHAT) {
+            this.processLinhaChat(in.readUTF());
+        } else if (header == Protocol.FRAME_STATE) {
+            this.remoteEngine.loadCompleteState(this.protocol.decodeCompleteState(in));
+        } else if (header == StateSync.FRAME_KEYFRAME || header == StateSync.FRAME_DELTA) {
+            this.processStateFrame(header, in);
+        } else {
+            throw new IOException("frame desconhecido: " + header);
+        }
+    }
+
+    /**
+     * Loads the game of the other player from a keyframe or a delta, so a
+     * board that drifted from the moves is fixed. The frames carry no
+     * score, the one counted from the moves is kept.
+     */
+    protected void processStateFrame(int header, DataInput in) throws IOException {
+        if (this.stateReceiver.read(header, in)) {
+            CompleteState state = this.stateReceiver.getState();
+            state.score = this.remoteEngine.getScore();
+            this.remoteEngine.loadCompleteState(state);
+        }
+    }
+
+    /**
+     * Forgets the frames of the last connection: the other player numbers
+     * them anew and starts with a keyframe.
+     */
+    protected void resetStateSync() {
+        this.stateReceiver = new StateSync.Receiver();
+    }
+
     protected synchronized void processLinhaChat(String linha) {
         String message = this.protocol.decodeChat(linha);
         for (MessageReciever messageReciever : messageRecievers) {
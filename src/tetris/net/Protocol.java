@@ -17,6 +17,10 @@
 
 package tetris.net;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -38,6 +42,33 @@ public final class Protocol {
     private static final Pattern blocksPattern = Pattern.compile("^blocks\\[(\\d+)\\]\\[(\\d+)\\]=(\\d+),(\\d+)$");
     private static final Pattern tetrominoPattern = Pattern.compile("^(active|next)block=(\\d+),(\\d+),(\\d+),(\\d+)$");
 
+    /**
+     * Kinds of the frames of the binary protocol, in the high bits of their
+     * first byte. A move frame has the move in the low bits and nothing
+     * else, so a plain move is a single byte; a move that ended a fall is
+     * followed by the next block in 3 bytes (type and rotation, x, y). A chat
+     * frame is followed by the message as in DataOutput.writeUTF.
+     */
+    public static final int FRAME_MOVE = 0x00;
+    public static final int FRAME_MOVE_NEXTBLOCK = 0x10;
+    public static final int FRAME_CHAT = 0x20;
+
+    /**
+     * A complete state, as in encodeCompleteState(CompleteState, DataOutput).
+     * StateSync uses 0x30 and 0x40.
+     */
+    public static final int FRAME_STATE = 0x50;
+    private static final int FRAME_KIND = 0xF0;
+
+    /**
+     * Flags of a binary state, and the bit of the nibble of a cell that
+     * marks a cell of the active block.
+     */
+    private static final int STATE_RLE = 0x01;
+    private static final int STATE_ACTIVEBLOCK = 0x02;
+    private static final int STATE_NEXTBLOCK = 0x04;
+    private static final int NIBBLE_ACTIVE = 0x08;
+
     private static final Protocol instance = new Protocol();
     public static Protocol create() {
         return instance;
@@ -79,6 +110,77 @@ public final class Protocol {
         }
 
     }
+    /**
+     * Writes a move as a binary frame.
+     *
+     * @param moveResult the move
+     * @param out where to write the frame
+     * @throws IOException if the frame could not be written
+     */
+    public void encodeMoveResult(MoveResult moveResult, DataOutput out) throws IOException {
+        Tetromino nextblock = moveResult.nextblock;
+        if (nextblock == null) {
+            out.writeByte(FRAME_MOVE | moveResult.move.ordinal());
+        } else {
+            out.writeByte(FRAME_MOVE_NEXTBLOCK | moveResult.move.ordinal());
+            writeTetromino(nextblock, out);
+        }
+    }
+
+    /**
+     * Reads the rest of a binary move frame.
+     *
+     * @param header the first byte of the frame
+     * @param in where to read the rest of the frame
+     * @return the move
+     * @throws IOException if the frame is not a valid move or could not be read
+     */
+    public MoveResult decodeMoveResult(int header, DataInput in) throws IOException {
+        int kind = header & FRAME_KIND;
+        int move = header & ~FRAME_KIND;
+        if ((kind != FRAME_MOVE && kind != FRAME_MOVE_NEXTBLOCK) || move >= Move.values().length) {
+            throw new IOException("frame de jogo invalido: " + header);
+        }
+        if (kind == FRAME_MOVE) {
+            return new MoveResult(Move.values()[move], true, null);
+        }
+        return new MoveResult(Move.values()[move], true, readTetromino(in));
+    }
+
+    /**
+     * Writes a tetromino in 3 bytes: type and rotation, x, y.
+     */
+    static void writeTetromino(Tetromino tetromino, DataOutput out) throws IOException {
+        out.writeByte(tetromino.type.ordinal() << 2 | tetromino.rot);
+        out.writeByte(tetromino.x);
+        out.writeByte(tetromino.y);
+    }
+
+    static Tetromino readTetromino(DataInput in) throws IOException {
+        int typeAndRot = in.readUnsignedByte();
+        int type = typeAndRot >>> 2;
+        if (type >= Tetromino.Type.values().length) {
+            throw new IOException("tipo de bloco invalido: " + type);
+        }
+        Tetromino tetromino;
+        try {
+            tetromino = new Tetromino(Tetromino.Type.values()[type], typeAndRot & 3);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("rotacao invalida: " + (typeAndRot & 3), e);
+        }
+        tetromino.x = in.readByte();
+        tetromino.y = in.readByte();
+        return tetromino;
+    }
+
+    /**
+     * @return true if the first byte of a binary frame starts a move
+     */
+    public boolean isMoveFrame(int header) {
+        int kind = header & FRAME_KIND;
+        return kind == FRAME_MOVE || kind == FRAME_MOVE_NEXTBLOCK;
+    }
+
     public String encodeChat(String chat) {
         return chat.trim().split("\n")[0];
     }
@@ -87,6 +189,14 @@ public final class Protocol {
         return chat;
     }
     
+    /**
+     * Encodes a state as a text line, with a token for every cell that is
+     * not empty. It is the format of the TCP handshake, read by every
+     * version; binary states are only sent over UDP.
+     *
+     * @param state the state
+     * @return a line without line breaks
+     */
     public String encodeCompleteState(CompleteState state) {
         StringBuilder builder = new StringBuilder();
         builder.append(state.definitions.width).append('x');
@@ -119,7 +229,177 @@ public final class Protocol {
         }
         return builder.toString();
     }
-    
+
+    /**
+     * Writes a state in binary. After a byte of flags and the size of the
+     * board come the cells, a bit each, set if the cell is not empty, row by
+     * row from the top; the zero bytes of this bitmap may be run length
+     * encoded, as most of a board is usually empty. Then a nibble for each
+     * cell that is not empty, in the same order, with the type and a bit
+     * set for the cells of the active block. At last the active and next
+     * blocks, as in the move frames.
+     *
+     * @param state the state
+     * @param out where to write the state
+     * @throws IOException if the state could not be written
+     */
+    public void encodeCompleteState(CompleteState state, DataOutput out) throws IOException {
+        int width = state.definitions.width;
+        int height = state.definitions.height;
+        if (width > 0xFF || height > 0xFF) {
+            throw new IllegalArgumentException("tabuleiro grande demais: " + width + "x" + height);
+        }
+        byte[] bitmap = new byte[(width * height + 7) / 8];
+        byte[] nibbles = new byte[(width * height + 1) / 2];
+        int cells = 0;
+        int bit = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, bit++) {
+                Block block = state.blocks[x][y];
+                if (block.getState() == Block.EMPTY) {
+                    continue;
+                }
+                bitmap[bit >>> 3] |= 1 << (bit & 7);
+                int nibble = block.getType().ordinal() | (block.getState() == Block.ACTIVE ? NIBBLE_ACTIVE : 0);
+                nibbles[cells >>> 1] |= nibble << ((cells & 1) << 2);
+                cells++;
+            }
+        }
+        byte[] runs = encodeZeroRuns(bitmap);
+        boolean rle = runs.length < bitmap.length;
+
+        int flags = (rle ? STATE_RLE : 0)
+                | (state.activeblock != null ? STATE_ACTIVEBLOCK : 0)
+                | (state.nextblock != null ? STATE_NEXTBLOCK : 0);
+        out.writeByte(flags);
+        out.writeByte(width);
+        out.writeByte(height);
+        if (rle) {
+            out.writeShort(runs.length);
+            out.write(runs);
+        } else {
+            out.write(bitmap);
+        }
+        out.write(nibbles, 0, (cells + 1) / 2);
+        if (state.activeblock != null) {
+            writeTetromino(state.activeblock, out);
+        }
+        if (state.nextblock != null) {
+            writeTetromino(state.nextblock, out);
+        }
+    }
+
+    /**
+     * Reads a state written by encodeCompleteState(CompleteState, DataOutput).
+     *
+     * @param in where to read the state
+     * @return the state
+     * @throws IOException if the state is not valid or could not be read
+     */
+    public CompleteState decodeCompleteState(DataInput in) throws IOException {
+        int flags = in.readUnsignedByte();
+        int width = in.readUnsignedByte();
+        int height = in.readUnsignedByte();
+        if ((flags & ~(STATE_RLE | STATE_ACTIVEBLOCK | STATE_NEXTBLOCK)) != 0 || width == 0 || height == 0) {
+            throw new IOException("cabecalho de estado invalido");
+        }
+        if (width > Definitions.MAX_WIDTH) {
+            throw new IOException("tabuleiro largo demais: " + width);
+        }
+        byte[] bitmap = new byte[(width * height + 7) / 8];
+        if ((flags & STATE_RLE) != 0) {
+            byte[] runs = new byte[in.readUnsignedShort()];
+            in.readFully(runs);
+            decodeZeroRuns(runs, bitmap);
+        } else {
+            in.readFully(bitmap);
+        }
+        int cells = 0;
+        for (byte b : bitmap) {
+            cells += Integer.bitCount(b & 0xFF);
+        }
+        byte[] nibbles = new byte[(cells + 1) / 2];
+        in.readFully(nibbles);
+
+        CompleteState state = new CompleteState();
+        state.definitions = Definitions.create(width, height);
+        state.blocks = new Block[width][height];
+        Tetromino.Type[] types = Tetromino.Type.values();
+        int cell = 0;
+        int bit = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, bit++) {
+                if ((bitmap[bit >>> 3] & (1 << (bit & 7))) == 0) {
+                    state.blocks[x][y] = new Block(Block.EMPTY, null);
+                    continue;
+                }
+                int nibble = (nibbles[cell >>> 1] >>> ((cell & 1) << 2)) & 0xF;
+                cell++;
+                int type = nibble & ~NIBBLE_ACTIVE;
+                if (type >= types.length) {
+                    throw new IOException("tipo de bloco invalido: " + type);
+                }
+                int blockState = (nibble & NIBBLE_ACTIVE) != 0 ? Block.ACTIVE : Block.FILLED;
+                state.blocks[x][y] = new Block(blockState, types[type]);
+            }
+        }
+        if ((flags & STATE_ACTIVEBLOCK) != 0) {
+            state.activeblock = readTetromino(in);
+        }
+        if ((flags & STATE_NEXTBLOCK) != 0) {
+            state.nextblock = readTetromino(in);
+        }
+        return state;
+    }
+
+    /**
+     * Replaces every run of zero bytes by a zero and the length of the run
+     * minus one; runs longer than 256 bytes are split.
+     */
+    private static byte[] encodeZeroRuns(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+        int i = 0;
+        while (i < bytes.length) {
+            if (bytes[i] != 0) {
+                out.write(bytes[i++]);
+                continue;
+            }
+            int run = 1;
+            while (run < 256 && i + run < bytes.length && bytes[i + run] == 0) {
+                run++;
+            }
+            out.write(0);
+            out.write(run - 1);
+            i += run;
+        }
+        return out.toByteArray();
+    }
+
+    private static void decodeZeroRuns(byte[] runs, byte[] bytes) throws IOException {
+        int o = 0;
+        try {
+            for (int i = 0; i < runs.length; i++) {
+                if (runs[i] != 0) {
+                    bytes[o++] = runs[i];
+                } else {
+                    o += (runs[++i] & 0xFF) + 1;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("corrida invalida no estado", e);
+        }
+        if (o != bytes.length) {
+            throw new IOException("corrida invalida no estado");
+        }
+    }
+
+    /**
+     * Reads the text states written by encodeCompleteState(CompleteState).
+     *
+     * @param input the line
+     * @return the state
+     * @throws IllegalArgumentException if the line is not a valid state
+     */
     public CompleteState decodeCompleteState(String input) {
         CompleteState state = new CompleteState();
         
@@ -129,6 +409,9 @@ public final class Protocol {
         String[] splitSize = size.split("x");
         int width = Integer.parseInt(splitSize[0]);
         int height = Integer.parseInt(splitSize[1]);
+        if (width <= 0 || width > Definitions.MAX_WIDTH || height <= 0) {
+            throw new IllegalArgumentException("tamanho de tabuleiro invalido: " + size);
+        }
         state.definitions = new Definitions(width, height);
         state.blocks = new Block[width][height];
 
@@ -167,7 +450,6 @@ public final class Protocol {
                 }
             }
         }
-        System.out.println(encodeCompleteState(state));
         return state;
-    } 
+    }
 }
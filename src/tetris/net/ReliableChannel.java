@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Delivers messages in order over datagrams that may be lost, duplicated or
+ * reordered. It only builds and reads the packets; sending them is up to
+ * the caller.
+ *
+ * Every message has a sequence number. Every packet acknowledges the last
+ * message received in order and, in a bitmap, the 32 after it that were
+ * received too, so only the missing ones are sent again. A packet carries
+ * the new message and the last unacknowledged ones before it, so a lost
+ * packet is usually made up by the next one without waiting for a resend.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+final class ReliableChannel {
+    static final int PACKET_HELLO = 1;
+    static final int PACKET_DATA = 2;
+
+    /**
+     * How far ahead of the last message delivered a message may be kept.
+     */
+    private static final int WINDOW = 1024;
+
+    /**
+     * How many messages may wait for an acknowledgement. The other peer
+     * keeps none further ahead than WINDOW, so more would never be
+     * acknowledged.
+     */
+    private static final int MAX_UNACKED = WINDOW;
+
+    private final int redundancy;
+    private final long resendNanos;
+
+    /**
+     * Messages sent and not acknowledged, oldest first.
+     */
+    private final ArrayDeque<Message> unacked;
+    private int lastSent;
+
+    /**
+     * Messages received out of order, by their numbers.
+     */
+    private final TreeMap<Integer, byte[]> early;
+    private int lastDelivered;
+    private boolean ackPending;
+
+    /**
+     * @param redundancy how many messages a packet carries at most
+     * @param resendNanos how long to wait for an acknowledgement before
+     *        sending a message again
+     */
+    ReliableChannel(int redundancy, long resendNanos) {
+        if (redundancy < 1) {
+            throw new IllegalArgumentException("redundancy must be at least 1");
+        }
+        this.redundancy = redundancy;
+        this.resendNanos = resendNanos;
+        this.unacked = new ArrayDeque<>();
+        this.early = new TreeMap<>();
+    }
+
+    /**
+     * Numbers a message and builds the packet that carries it, with the
+     * messages not acknowledged before it.
+     *
+     * @param payload the message
+     * @param now the current System.nanoTime()
+     * @return the packet to send
+     * @throws IOException if too many messages wait for an acknowledgement,
+     *         the other peer is gone
+     */
+    synchronized byte[] send(byte[] payload, long now) throws IOException {
+        if (payload.length > 0xFFFF) {
+            throw new IllegalArgumentException("message too long: " + payload.length);
+        }
+        if (this.unacked.size() >= MAX_UNACKED) {
+            throw new IOException("mensagens demais sem confirmacao: " + this.unacked.size());
+        }
+        Message message = new Message(++this.lastSent, payload);
+        this.unacked.addLast(message);
+        List<Message> messages = new ArrayList<>(this.redundancy);
+        Iterator<Message> newest = this.unacked.descendingIterator();
+        while (newest.hasNext() && messages.size() < this.redundancy) {
+            messages.add(newest.next());
+        }
+        Collections.reverse(messages);
+        return this.packet(messages, now);
+    }
+
+    /**
+     * Reads a data packet.
+     *
+     * @param packet the bytes of the packet
+     * @param length how many bytes of the packet were received
+     * @return the messages that can now be delivered, in order
+     * @throws IOException if the packet is not valid
+     */
+    List<byte[]> receive(byte[] packet, int length) throws IOException {
+        final List<byte[]> delivered = new ArrayList<>();
+        this.receive(packet, length, new Listener() {
+            @Override
+            public void delivered(int sequence, byte[] message) {
+                delivered.add(message);
+            }
+
+            @Override
+            public void early(int sequence, byte[] message) {
+            }
+        });
+        return delivered;
+    }
+
+    /**
+     * Reads a data packet, telling a listener of the messages that can now
+     * be delivered, in order, and of the ones that arrived before a message
+     * that was lost.
+     *
+     * @param packet the bytes of the packet
+     * @param length how many bytes of the packet were received
+     * @param listener who is told of the messages
+     * @throws IOException if the packet is not valid, or from the listener
+     */
+    synchronized void receive(byte[] packet, int length, Listener listener) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(packet, 0, length));
+        if (in.readUnsignedByte() != PACKET_DATA) {
+            throw new IOException("pacote de dados invalido");
+        }
+        this.acknowledged(in.readInt(), in.readInt());
+
+        int count = in.readUnsignedByte();
+        if (count > 0) {
+            this.ackPending = true;
+        }
+        for (int i = 0; i < count; i++) {
+            int sequence = in.readInt();
+            byte[] payload = new byte[in.readUnsignedShort()];
+            in.readFully(payload);
+            int ahead = sequence - this.lastDelivered;
+            if (ahead <= 0 || ahead > WINDOW || this.early.containsKey(sequence)) {
+                continue;
+            }
+            if (ahead == 1) {
+                this.lastDelivered = sequence;
+                listener.delivered(sequence, payload);
+                byte[] next;
+                while ((next = this.early.remove(this.lastDelivered + 1)) != null) {
+                    this.lastDelivered++;
+                    listener.delivered(this.lastDelivered, next);
+                }
+            } else {
+                this.early.put(sequence, payload);
+                listener.early(sequence, payload);
+            }
+        }
+    }
+
+    /**
+     * Builds the packet to send when no message is being sent: the messages
+     * that waited too long for an acknowledgement, or only an
+     * acknowledgement of the messages received.
+     *
+     * @param now the current System.nanoTime()
+     * @return the packet, or null if there is nothing to send
+     */
+    synchronized byte[] poll(long now) {
+        List<Message> messages = new ArrayList<>(this.redundancy);
+        for (Message message : this.unacked) {
+            if (messages.size() == this.redundancy) {
+                break;
+            }
+            if (now - message.sentAt >= this.resendNanos) {
+                messages.add(message);
+            }
+        }
+        if (messages.isEmpty() && !this.ackPending) {
+            return null;
+        }
+        return this.packet(messages, now);
+    }
+
+    /**
+     * Builds a packet with no message, to tell the other peer that this one
+     * is still there.
+     *
+     * @param now the current System.nanoTime()
+     * @return the packet to send
+     */
+    synchronized byte[] keepAlive(long now) {
+        return this.packet(Collections.<Message>emptyList(), now);
+    }
+
+    /**
+     * @return how many messages sent were not acknowledged yet
+     */
+    synchronized int getUnacknowledged() {
+        return this.unacked.size();
+    }
+
+    /**
+     * @return a packet that starts a connection
+     */
+    static byte[] hello() {
+        byte[] hello = Network.HELLO.getBytes();
+        byte[] packet = new byte[hello.length + 1];
+        packet[0] = PACKET_HELLO;
+        System.arraycopy(hello, 0, packet, 1, hello.length);
+        return packet;
+    }
+
+    /**
+     * @return true if the bytes are a packet made by hello()
+     */
+    static boolean isHello(byte[] packet, int offset, int length) {
+        byte[] hello = hello();
+        if (length != hello.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (packet[offset + i] != hello[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A packet is its kind, the last message received in order, the bitmap
+     * of the messages received after it (bit i for the message 2 + i after
+     * it) and then the messages, each with its number and length.
+     */
+    private byte[] packet(List<Message> messages, long now) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(PACKET_DATA);
+            out.writeInt(this.lastDelivered);
+            out.writeInt(this.receivedBits());
+            out.writeByte(messages.size());
+            for (Message message : messages) {
+                out.writeInt(message.sequence);
+                out.writeShort(message.payload.length);
+                out.write(message.payload);
+                message.sentAt = now;
+            }
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+        this.ackPending = false;
+        return bytes.toByteArray();
+    }
+
+    private int receivedBits() {
+        int bits = 0;
+        for (Integer sequence : this.early.headMap(this.lastDelivered + 2 + 32).keySet()) {
+            bits |= 1 << (sequence - this.lastDelivered - 2);
+        }
+        return bits;
+    }
+
+    private void acknowledged(int last, int bits) {
+        for (Iterator<Message> it = this.unacked.iterator(); it.hasNext();) {
+            int ahead = it.next().sequence - last;
+            if (ahead <= 0 || (ahead >= 2 && ahead < 2 + 32 && (bits & (1 << (ahead - 2))) != 0)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Told of the messages of the packets received.
+     */
+    interface Listener {
+        /**
+         * A message is delivered, after every message before it.
+         */
+        void delivered(int sequence, byte[] message) throws IOException;
+
+        /**
+         * A message arrived before a message that was lost. It is delivered
+         * again when its turn comes.
+         */
+        void early(int sequence, byte[] message) throws IOException;
+    }
+
+    private static final class Message {
+        final int sequence;
+        final byte[] payload;
+        long sentAt;
+
+        Message(int sequence, byte[] payload) {
+            this.sequence = sequence;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.net;
+
+import tetris.generic.TetrisEngine;
+import tetris.generic.TetrisEngine.MoveResult;
+import tetris.generic.TetrisEngine.Snapshot;
+
+/**
+ * Plays the moves of the other player on the remote engine as soon as they
+ * arrive, even when a message before them was lost.
+ *
+ * Messages are numbered, and a missing one is predicted to be no move at
+ * all. When it arrives, the engine goes back to the state saved before it
+ * and plays again every move known after it. The states after each message
+ * are kept in a ring, so going back costs one restore; messages are only
+ * played ahead of a gap as long as the ring has room for them.
+ *
+ * Not thread safe, it is driven by the read thread of a network.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+final class Rollback {
+    private static final byte UNKNOWN = 0;
+    private static final byte MOVE = 1;
+    private static final byte NOTHING = 2;
+
+    private final TetrisEngine engine;
+    private final int capacity;
+
+    /**
+     * By the number of a message modulo the capacity: what the message is,
+     * its move, and the state of the engine after it.
+     */
+    private final byte[] kinds;
+    private final MoveResult[] moves;
+    private final Snapshot[] states;
+
+    /**
+     * Every message up to confirmed is known; the engine shows the messages
+     * up to applied.
+     */
+    private int confirmed;
+    private int applied;
+    private int rollbacks;
+
+    /**
+     * @param engine the remote engine, as it is before the first message
+     * @param capacity how many messages may be played ahead of a gap
+     */
+    Rollback(TetrisEngine engine, int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2");
+        }
+        this.engine = engine;
+        this.capacity = capacity;
+        this.kinds = new byte[capacity];
+        this.moves = new MoveResult[capacity];
+        this.states = new Snapshot[capacity];
+        this.states[0] = engine.fork();
+    }
+
+    /**
+     * A move arrived, in order or not.
+     *
+     * @param sequence the number of its message
+     * @param move the move
+     */
+    void move(int sequence, MoveResult move) {
+        this.arrived(sequence, MOVE, move);
+    }
+
+    /**
+     * A message that is not a move arrived, in order.
+     *
+     * @param sequence the number of the message
+     */
+    void nothing(int sequence) {
+        this.arrived(sequence, NOTHING, null);
+    }
+
+    /**
+     * The whole engine was loaded by a message that arrived in order. The
+     * moves played ahead of it are played again over the new state.
+     *
+     * @param sequence the number of the message
+     */
+    void loaded(int sequence) {
+        if (!this.store(sequence, NOTHING, null)) {
+            return;
+        }
+        this.save(sequence);
+        this.advance();
+        this.replay(sequence + 1);
+    }
+
+    /**
+     * @return the number of the last message known with all before it
+     */
+    int getConfirmed() {
+        return this.confirmed;
+    }
+
+    /**
+     * @return how many times a late message made the engine go back
+     */
+    int getRollbacks() {
+        return this.rollbacks;
+    }
+
+    private void arrived(int sequence, byte kind, MoveResult move) {
+        if (!this.store(sequence, kind, move)) {
+            return;
+        }
+        if (sequence > this.applied) {
+            // Whatever is missing before it is predicted to be nothing.
+            for (int i = this.applied + 1; i < sequence; i++) {
+                this.states[this.slot(i)] = this.states[this.slot(i - 1)];
+            }
+            this.play(sequence);
+            this.applied = sequence;
+        } else {
+            this.rollbacks++;
+            this.engine.restore(this.states[this.slot(sequence - 1)]);
+            this.replay(sequence);
+        }
+        this.advance();
+    }
+
+    /**
+     * @return false if the message was known or does not fit in the ring
+     */
+    private boolean store(int sequence, byte kind, MoveResult move) {
+        if (sequence <= this.confirmed || sequence - this.confirmed >= this.capacity) {
+            return false;
+        }
+        int slot = this.slot(sequence);
+        if (sequence <= this.applied && this.kinds[slot] != UNKNOWN) {
+            return false;
+        }
+        if (sequence > this.applied) {
+            // Forget what the slots held for an earlier round of the ring.
+            for (int i = Math.max(this.applied + 1, sequence - this.capacity + 1); i <= sequence; i++) {
+                this.kinds[this.slot(i)] = UNKNOWN;
+                this.moves[this.slot(i)] = null;
+            }
+        }
+        this.kinds[slot] = kind;
+        this.moves[slot] = move;
+        return true;
+    }
+
+    /**
+     * Plays the messages known from a number to the last one shown, over
+     * the state the engine has now.
+     */
+    private void replay(int from) {
+        for (int i = from; i <= this.applied; i++) {
+            this.play(i);
+        }
+    }
+
+    private void play(int sequence) {
+        int slot = this.slot(sequence);
+        MoveResult move = this.moves[slot];
+        if (this.kinds[slot] == MOVE) {
+            this.engine.tryMove(move.move, move.nextblock);
+        }
+        this.save(sequence);
+    }
+
+    private void save(int sequence) {
+        this.states[this.slot(sequence)] = this.engine.fork();
+        this.applied = Math.max(this.applied, sequence);
+    }
+
+    private void advance() {
+        while (this.confirmed < this.applied && this.kinds[this.slot(this.confirmed + 1)] != UNKNOWN) {
+            this.confirmed++;
+        }
+    }
+
+    private int slot(int sequence) {
+        return sequence % this.capacity;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.net;
+
+import com.google.common.base.Function;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import tetris.generic.TetrisEngine;
+import tetris.util.MyThread;
+
+/**
+ * Watches a game shown by a SpectatorServer, mirroring it on an engine.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public final class Spectator {
+    private static final Logger logger = Logger.getLogger(Spectator.class.getName());
+
+    private final TetrisEngine engine;
+    private final StateSync.Receiver receiver;
+    private final MyThread readThread;
+    private Socket socket;
+    private DataInputStream in;
+
+    /**
+     * @param engine the engine that mirrors the game
+     */
+    public Spectator(TetrisEngine engine) {
+        this.engine = engine;
+        this.receiver = new StateSync.Receiver();
+        this.readThread = new MyThread(new Function<MyThread.ThreadControl, Void>() {
+            @Override
+            public Void apply(MyThread.ThreadControl control) {
+                readLoop(control);
+                return null;
+            }
+        }, "Spectator Read Thread");
+    }
+
+    public synchronized boolean connect(InetAddress addr, int port) {
+        if (this.socket != null) {
+            return false;
+        }
+        try {
+            this.socket = new Socket(addr, port);
+            this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "erro ao conectar", ex);
+            this.close();
+            return false;
+        }
+        this.readThread.start();
+        return true;
+    }
+
+    public void stop() {
+        this.close();
+        this.readThread.stop();
+    }
+
+    /**
+     * @return true if the engine shows the game as it was a tick ago
+     */
+    public boolean isSynced() {
+        return this.receiver.isSynced();
+    }
+
+    private void readLoop(MyThread.ThreadControl control) {
+        DataInputStream input = this.in;
+        while (control.check()) {
+            try {
+                int header = input.read();
+                if (header < 0) {
+                    break;
+                }
+                this.receiver.readInto(header, input, this.engine);
+            } catch (SocketException ex) {
+                break;
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "erro ao ler estado", ex);
+                break;
+            }
+        }
+        this.close();
+    }
+
+    private synchronized void close() {
+        if (this.socket == null) {
+            return;
+        }
+        try {
+            this.socket.close();
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "erro ao fechar socket", ex);
+        }
+        this.socket = null;
+        this.in = null;
+    }
+}
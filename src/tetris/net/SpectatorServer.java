@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.net;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import tetris.generic.TetrisEngine;
+import tetris.util.MyThread;
+
+/**
+ * Shows a game to any number of spectators, with the frames of StateSync.
+ * Every tick the frame of the game is encoded once and written to every
+ * spectator; a spectator that connects gets a keyframe first, so it may
+ * join in the middle of the game.
+ *
+ * Spectators are written without blocking, so a slow one never holds the
+ * others or the ticks back. What a spectator could not take yet waits in
+ * its queue for the next ticks, and a spectator whose queue grows past a
+ * limit is dropped.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public final class SpectatorServer {
+    private static final Logger logger = Logger.getLogger(SpectatorServer.class.getName());
+
+    /**
+     * How many bytes may wait for a spectator before it is dropped.
+     */
+    private static final int MAX_QUEUED = 1 << 20;
+
+    /**
+     * The send buffer of the sockets. Frames are small, a large buffer
+     * would only hide a spectator that stopped reading.
+     */
+    private static final int SEND_BUFFER = 32 * 1024;
+
+    private final TetrisEngine engine;
+    private final StateSync.Sender sender;
+    private final long period;
+    private final long maxQueued;
+    private final MyThread acceptThread;
+    private final Queue<SocketChannel> joining;
+
+    /**
+     * Only used by the thread of the ticks.
+     */
+    private final List<Viewer> spectators;
+    private final ByteArrayOutputStream frame;
+    private ScheduledExecutorService ticker;
+    private ServerSocketChannel serverChannel;
+    private volatile int spectatorCount;
+
+    /**
+     * @param engine the game to show
+     * @param period how many milliseconds between frames
+     * @param keyframeInterval how many deltas between keyframes
+     */
+    public SpectatorServer(TetrisEngine engine, long period, int keyframeInterval) {
+        this(engine, period, keyframeInterval, MAX_QUEUED);
+    }
+
+    /**
+     * @param maxQueued how many bytes may wait for a spectator before it is
+     *        dropped
+     */
+    SpectatorServer(TetrisEngine engine, long period, int keyframeInterval, long maxQueued) {
+        this.engine = engine;
+        this.maxQueued = maxQueued;
+        this.sender = new StateSync.Sender(keyframeInterval);
+        this.period = period;
+        this.joining = new ConcurrentLinkedQueue<>();
+        this.spectators = new ArrayList<>();
+        this.frame = new ByteArrayOutputStream();
+        this.acceptThread = new MyThread(new Function<MyThread.ThreadControl, Void>() {
+            @Override
+            public Void apply(MyThread.ThreadControl control) {
+                acceptLoop(control);
+                return null;
+            }
+        }, "Spectator Accept Thread");
+    }
+
+    /**
+     * @param port the port, 0 for any free port
+     * @throws IOException if the port could not be opened
+     */
+    public synchronized void start(int port) throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+        this.ticker = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("Spectator Tick Thread").setDaemon(true).build());
+        this.ticker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, 0, this.period, TimeUnit.MILLISECONDS);
+        this.acceptThread.start();
+    }
+
+    public synchronized void stop() {
+        if (this.serverChannel == null) {
+            return;
+        }
+        try {
+            this.serverChannel.close();
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, null, ex);
+        }
+        this.acceptThread.stop();
+        this.ticker.shutdown();
+        try {
+            this.ticker.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        for (Viewer spectator : this.spectators) {
+            close(spectator.channel);
+        }
+        this.spectators.clear();
+        SocketChannel channel;
+        while ((channel = this.joining.poll()) != null) {
+            close(channel);
+        }
+        this.spectatorCount = 0;
+        this.serverChannel = null;
+    }
+
+    public int getPort() {
+        return this.serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return how many spectators are watching
+     */
+    public int getSpectatorCount() {
+        return this.spectatorCount;
+    }
+
+    private void acceptLoop(MyThread.ThreadControl control) {
+        while (control.check()) {
+            try {
+                SocketChannel channel = this.serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER);
+                this.joining.add(channel);
+            } catch (ClosedChannelException ex) {
+                break;
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "erro ao aceitar espectador", ex);
+            }
+        }
+    }
+
+    private void tick() {
+        try {
+            this.frame.reset();
+            boolean changed = this.sender.write(this.engine, new DataOutputStream(this.frame));
+            this.broadcast(changed ? this.frame.toByteArray() : null);
+            this.admit();
+        } catch (IOException | RuntimeException ex) {
+            // An exception would cancel the ticks for good.
+            logger.log(Level.SEVERE, "erro ao enviar estado", ex);
+        }
+    }
+
+    /**
+     * Gives a keyframe of the last frame to the new spectators.
+     */
+    private void admit() throws IOException {
+        if (this.joining.isEmpty()) {
+            return;
+        }
+        this.frame.reset();
+        if (!this.sender.writeKeyframe(new DataOutputStream(this.frame))) {
+            return;
+        }
+        byte[] keyframe = this.frame.toByteArray();
+        SocketChannel channel;
+        while ((channel = this.joining.poll()) != null) {
+            Viewer spectator = new Viewer(channel);
+            if (spectator.send(keyframe)) {
+                this.spectators.add(spectator);
+            } else {
+                close(channel);
+            }
+        }
+        this.spectatorCount = this.spectators.size();
+    }
+
+    /**
+     * Sends a frame to every spectator, or only what waits in their queues.
+     *
+     * @param bytes the frame, or null if there is no new frame
+     */
+    private void broadcast(byte[] bytes) {
+        for (Iterator<Viewer> it = this.spectators.iterator(); it.hasNext();) {
+            Viewer spectator = it.next();
+            if (!spectator.send(bytes)) {
+                close(spectator.channel);
+                it.remove();
+            }
+        }
+        this.spectatorCount = this.spectators.size();
+    }
+
+    /**
+     * A spectator and the bytes it did not take yet.
+     */
+    private final class Viewer {
+        final SocketChannel channel;
+        final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+        long queued;
+
+        Viewer(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Queues a frame and writes as much of the queue as the socket
+         * takes.
+         *
+         * @param bytes the frame, or null to only write the queue
+         * @return false if the spectator must be dropped
+         */
+        boolean send(byte[] bytes) {
+            if (bytes != null) {
+                this.pending.add(ByteBuffer.wrap(bytes));
+                this.queued += bytes.length;
+            }
+            try {
+                ByteBuffer buffer;
+                while ((buffer = this.pending.peek()) != null) {
+                    this.queued -= this.channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        break;
+                    }
+                    this.pending.poll();
+                }
+            } catch (IOException ex) {
+                return false;
+            }
+            if (this.queued > maxQueued) {
+                logger.log(Level.WARNING, "espectador lento demais: {0}", this.channel);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private static void close(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception ex) {
+            logger.log(Level.FINE, "erro ao fechar espectador", ex);
+        }
+    }
+}
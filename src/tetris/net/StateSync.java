@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.net;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import tetris.generic.Block;
+import tetris.generic.BoardSnapshot;
+import tetris.generic.Definitions;
+import tetris.generic.TetrisEngine;
+import tetris.generic.TetrisEngine.CompleteState;
+import tetris.generic.Tetromino;
+
+/**
+ * Mirrors a game by its states instead of its moves, so a lost message is
+ * fixed by a later one and a viewer may join at any time.
+ *
+ * A Sender writes a frame whenever the game changed: a keyframe with every
+ * row now and then, and otherwise a delta with only the rows that changed
+ * since the previous frame. Frames are numbered; a Receiver applies a delta
+ * only over the frame before it, and after a gap waits for a keyframe.
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public final class StateSync {
+    /**
+     * Kinds of the frames, that follow the kinds of Protocol.
+     */
+    public static final int FRAME_KEYFRAME = 0x30;
+    public static final int FRAME_DELTA = 0x40;
+
+    private static final int ACTIVEBLOCK = 0x01;
+    private static final int NEXTBLOCK = 0x02;
+
+    private StateSync() {
+    }
+
+    /**
+     * Writes the frames of a game. Not thread safe, frames must be written
+     * in order anyway.
+     */
+    public static final class Sender {
+        private final int keyframeInterval;
+        private int sequence;
+        private int sinceKeyframe;
+        private BoardSnapshot last;
+        private Tetromino activeblock;
+        private Tetromino nextblock;
+
+        /**
+         * @param keyframeInterval how many deltas may follow a keyframe
+         */
+        public Sender(int keyframeInterval) {
+            if (keyframeInterval < 0) {
+                throw new IllegalArgumentException("keyframeInterval must not be negative");
+            }
+            this.keyframeInterval = keyframeInterval;
+        }
+
+        /**
+         * Writes a frame if the game changed since the last one.
+         *
+         * @param engine the game
+         * @param out where to write the frame
+         * @return true if a frame was written
+         * @throws IOException if the frame could not be written
+         */
+        public boolean write(TetrisEngine engine, DataOutput out) throws IOException {
+            // The snapshot is read first: newer blocks only mean that the
+            // version changes again and the next frame has them. The active
+            // block of the snapshot is missing when it does not fit.
+            BoardSnapshot snapshot = engine.getSnapshot();
+            Tetromino active = engine.getActiveblock();
+            Tetromino next = engine.getNextblock();
+            BoardSnapshot previous = this.last;
+            if (previous != null && previous.getVersion() == snapshot.getVersion()) {
+                return false;
+            }
+            boolean keyframe = previous == null
+                    || previous.getWidth() != snapshot.getWidth()
+                    || previous.getHeight() != snapshot.getHeight()
+                    || this.sinceKeyframe >= this.keyframeInterval;
+            this.sequence++;
+            this.last = snapshot;
+            this.activeblock = active;
+            this.nextblock = next;
+            if (keyframe) {
+                this.sinceKeyframe = 0;
+                writeFrame(FRAME_KEYFRAME, this.sequence, snapshot, null, active, next, out);
+            } else {
+                this.sinceKeyframe++;
+                writeFrame(FRAME_DELTA, this.sequence, snapshot, previous, active, next, out);
+            }
+            return true;
+        }
+
+        /**
+         * Writes the last frame again as a keyframe, for a receiver that
+         * joins now. The deltas that follow apply over it.
+         *
+         * @param out where to write the frame
+         * @return false if no frame was written yet
+         * @throws IOException if the frame could not be written
+         */
+        public boolean writeKeyframe(DataOutput out) throws IOException {
+            if (this.last == null) {
+                return false;
+            }
+            writeFrame(FRAME_KEYFRAME, this.sequence, this.last, null, this.activeblock, this.nextblock, out);
+            return true;
+        }
+    }
+
+    /**
+     * Rebuilds a game from its frames.
+     */
+    public static final class Receiver {
+        private int sequence;
+        private boolean synced;
+        private int width;
+        private int height;
+        private long[] rows;
+        private byte[][] types;
+        private Tetromino activeblock;
+        private Tetromino nextblock;
+
+        /**
+         * @return true if the frames are applied, false while waiting for a
+         *         keyframe
+         */
+        public boolean isSynced() {
+            return this.synced;
+        }
+
+        /**
+         * Reads the rest of a frame and applies it, unless it is a delta
+         * over a frame that was not received.
+         *
+         * @param header the first byte of the frame
+         * @param in where to read the rest of the frame
+         * @return true if the frame was applied
+         * @throws IOException if the frame is not valid or could not be read
+         */
+        public boolean read(int header, DataInput in) throws IOException {
+            if (header != FRAME_KEYFRAME && header != FRAME_DELTA) {
+                throw new IOException("frame de estado invalido: " + header);
+            }
+            int frameSequence = in.readInt();
+            int frameWidth = in.readUnsignedByte();
+            int frameHeight = in.readUnsignedByte();
+            if (frameWidth == 0 || frameWidth > Definitions.MAX_WIDTH || frameHeight == 0) {
+                throw new IOException("tamanho invalido: " + frameWidth + "x" + frameHeight);
+            }
+            boolean keyframe = header == FRAME_KEYFRAME;
+            boolean apply = keyframe || (this.synced && frameSequence == this.sequence + 1
+                    && frameWidth == this.width && frameHeight == this.height);
+            if (keyframe && (this.rows == null || frameWidth != this.width || frameHeight != this.height)) {
+                this.width = frameWidth;
+                this.height = frameHeight;
+                this.rows = new long[frameHeight];
+                this.types = new byte[frameHeight][frameWidth];
+            }
+            // Until the frame is read whole the rows may be half changed.
+            this.synced = false;
+            // A skipped delta is still read to the end, into scratch rows.
+            long[] targetRows = apply ? this.rows : new long[frameHeight];
+            byte[][] targetTypes = apply ? this.types : new byte[frameHeight][frameWidth];
+            readRows(keyframe, frameWidth, frameHeight, targetRows, targetTypes, in);
+            int flags = in.readUnsignedByte();
+            Tetromino active = (flags & ACTIVEBLOCK) != 0 ? Protocol.readTetromino(in) : null;
+            Tetromino next = (flags & NEXTBLOCK) != 0 ? Protocol.readTetromino(in) : null;
+            if (!apply) {
+                return false;
+            }
+            this.activeblock = active;
+            this.nextblock = next;
+            this.sequence = frameSequence;
+            this.synced = true;
+            return true;
+        }
+
+        /**
+         * @return the state received last, or null before the first keyframe
+         */
+        public CompleteState getState() {
+            if (this.rows == null) {
+                return null;
+            }
+            Tetromino.Type[] values = Tetromino.Type.values();
+            CompleteState state = new CompleteState();
+            state.definitions = Definitions.create(this.width, this.height);
+            state.blocks = new Block[this.width][this.height];
+            for (int x = 0; x < this.width; x++) {
+                for (int y = 0; y < this.height; y++) {
+                    state.blocks[x][y] = (this.rows[y] & (1L << x)) != 0
+                            ? new Block(Block.FILLED, values[this.types[y][x]])
+                            : new Block(Block.EMPTY, null);
+                }
+            }
+            state.activeblock = this.activeblock == null ? null : this.activeblock.clone();
+            state.nextblock = this.nextblock == null ? null : this.nextblock.clone();
+            return state;
+        }
+
+        /**
+         * Reads a frame and loads the game into an engine if it was applied.
+         *
+         * @return true if the frame was applied
+         */
+        public boolean readInto(int header, DataInput in, TetrisEngine engine) throws IOException {
+            if (!this.read(header, in)) {
+                return false;
+            }
+            engine.loadCompleteState(this.getState());
+            return true;
+        }
+    }
+
+    /**
+     * A frame is its kind, its number and the size of the board; a delta
+     * then has a bit for each row that changed. Each row written is its
+     * cells as bits and a nibble for the type of each filled cell. At last
+     * come flags and the active and next blocks, as in the move frames.
+     */
+    private static void writeFrame(int kind, int sequence, BoardSnapshot snapshot, BoardSnapshot previous,
+                                   Tetromino active, Tetromino next, DataOutput out) throws IOException {
+        int width = snapshot.getWidth();
+        int height = snapshot.getHeight();
+        out.writeByte(kind);
+        out.writeInt(sequence);
+        out.writeByte(width);
+        out.writeByte(height);
+        if (previous != null) {
+            byte[] changed = new byte[(height + 7) / 8];
+            for (int y = 0; y < height; y++) {
+                if (!snapshot.sameRow(previous, y)) {
+                    changed[y >>> 3] |= 1 << (y & 7);
+                }
+            }
+            out.write(changed);
+        }
+        byte[] row = new byte[(width + 7) / 8 + (width + 1) / 2];
+        for (int y = 0; y < height; y++) {
+            if (previous != null && snapshot.sameRow(previous, y)) {
+                continue;
+            }
+            long bits = snapshot.getRow(y);
+            int length = (width + 7) / 8;
+            for (int i = 0; i < length; i++) {
+                row[i] = (byte) (bits >>> (i * 8));
+            }
+            int cells = 0;
+            for (int x = 0; x < width; x++) {
+                if ((bits & (1L << x)) == 0) {
+                    continue;
+                }
+                int nibble = snapshot.getType(x, y).ordinal();
+                if ((cells & 1) == 0) {
+                    row[length + cells / 2] = (byte) nibble;
+                } else {
+                    row[length + cells / 2] |= nibble << 4;
+                }
+                cells++;
+            }
+            out.write(row, 0, length + (cells + 1) / 2);
+        }
+        out.writeByte((active != null ? ACTIVEBLOCK : 0) | (next != null ? NEXTBLOCK : 0));
+        if (active != null) {
+            Protocol.writeTetromino(active, out);
+        }
+        if (next != null) {
+            Protocol.writeTetromino(next, out);
+        }
+    }
+
+    private static void readRows(boolean keyframe, int width, int height, long[] rows, byte[][] types,
+                                 DataInput in) throws IOException {
+        byte[] changed = null;
+        if (!keyframe) {
+            changed = new byte[(height + 7) / 8];
+            in.readFully(changed);
+        }
+        int length = (width + 7) / 8;
+        byte[] nibbles = new byte[(width + 1) / 2];
+        Tetromino.Type[] values = Tetromino.Type.values();
+        for (int y = 0; y < height; y++) {
+            if (changed != null && (changed[y >>> 3] & (1 << (y & 7))) == 0) {
+                continue;
+            }
+            long bits = 0;
+            for (int i = 0; i < length; i++) {
+                bits |= (long) in.readUnsignedByte() << (i * 8);
+            }
+            if (width < 64 && (bits >>> width) != 0) {
+                throw new IOException("linha invalida: " + Long.toHexString(bits));
+            }
+            int cells = Long.bitCount(bits);
+            in.readFully(nibbles, 0, (cells + 1) / 2);
+            byte[] rowTypes = types[y];
+            int cell = 0;
+            for (int x = 0; x < width; x++) {
+                if ((bits & (1L << x)) == 0) {
+                    rowTypes[x] = 0;
+                    continue;
+                }
+                int type = (nibbles[cell >>> 1] >>> ((cell & 1) << 2)) & 0xF;
+                if (type >= values.length) {
+                    throw new IOException("tipo de bloco invalido: " + type);
+                }
+                rowTypes[x] = (byte) type;
+                cell++;
+            }
+            rows[y] = bits;
+        }
+    }
+}
@@ -16,13 +16,15 @@
  */
 package tetris.net;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.PrintStream;
 import java.net.BindException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
@@ -40,20 +42,49 @@ import tetris.net.Network.ConnectionState;
 import tetris.util.MyThread;
 
 /**
+ * Talks to the other player over TCP.
+ * The connection starts with text lines. Both peers offer the binary
+ * protocol when the handshake is done; each one switches what it writes to
+ * binary frames when it sees the offer of the other, announcing it with a
+ * last text line. Old peers never offer it, so they keep getting text.
+ * In binary, every move that ends a fall is followed by a StateSync frame
+ * of the local game, a keyframe first and then deltas, so the board of the
+ * other peer is fixed if it ever drifts from the moves.
  *
  * @author Arthur D'Andréa Alemar
  * @author Natali Silva Honda
  */
 public class TCPNetwork extends Network {
     private static final Logger logger = Logger.getLogger(TCPNetwork.class.getName());
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+    private static final int KEYFRAME_INTERVAL = 16;
 
     private int port;
     private Socket socket;
-    private PrintStream out;
-    private BufferedReader in;
+    private DataOutputStream out;
+    private DataInputStream in;
+
+    /**
+     * Guards out, binaryOutput and stateSender, moves and chats are sent by
+     * many threads.
+     */
+    private final Object outputLock = new Object();
+    private boolean binaryOutput;
+    private StateSync.Sender stateSender;
+
+    /**
+     * Only used by the read thread.
+     */
+    private boolean binaryInput;
     private ServerSocket serverSocket;
     private SocketAddress remoteAddress;
 
+    /**
+     * The socket of the handshake of connect(), closed by stop() to give up
+     * on it. A match server keeps it waiting until an opponent shows up.
+     */
+    private volatile Socket pending;
+
     public TCPNetwork(TetrisEngine local, TetrisEngine remote) {
         super(local, remote);
     }
@@ -68,6 +99,10 @@ public class TCPNetwork extends Network {
 
     @Override
     public void stop() {
+        Socket currentPending = this.pending;
+        if (currentPending != null) {
+            closeSocket(currentPending);
+        }
         if (this.serverSocket != null) {
             try {
                 this.serverSocket.close();
@@ -88,30 +123,45 @@ public class TCPNetwork extends Network {
         try {
             this.onConnecting();
             Socket clientSocket = new Socket(addr, port);
+            this.pending = clientSocket;
             return this.processClientSideSocket(clientSocket);
         } catch (IOException ex) {
             this.onConnectionError("Erro: erro desconhecido ao conectar");
             logger.log(Level.SEVERE, "erro ao conectar", ex);
             return false;
+        } finally {
+            this.pending = null;
         }
     }
 
-    private synchronized boolean processClientSideSocket(Socket clientSocket) {
-        BufferedReader newInput = getInputStream(clientSocket);
-        PrintStream newOutput = getOutputStrem(clientSocket);
+    /**
+     * Plays the client side of the handshake. It does not hold the lock of
+     * this network while it waits for the other peer, so the getters and
+     * stop() do not wait with it.
+     */
+    private boolean processClientSideSocket(Socket clientSocket) {
+        DataInputStream newInput = getInputStream(clientSocket);
+        DataOutputStream newOutput = getOutputStrem(clientSocket);
         if (newInput == null || newOutput == null) return false;
-        newOutput.println(HELLO);
         String error = null;
         try {
+            writeLine(newOutput, HELLO);
+            newOutput.flush();
             if (readHelloMessage(newInput)) {
-                String line = newInput.readLine();
-                if (!line.equals(UNAVAILABLE)) {
+                String line = readLine(newInput);
+                if (line != null && !line.equals(UNAVAILABLE)) {
                     localEngine.reset();
                     remoteEngine.loadCompleteState(protocol.decodeCompleteState(line));
-                    newOutput.println(protocol.encodeCompleteState(localEngine.dumpCompleteState()));
+                    writeLine(newOutput, protocol.encodeCompleteState(localEngine.dumpCompleteState()));
                     newOutput.flush();
 
-                    startReadThread(clientSocket, newOutput, newInput);
+                    synchronized (this) {
+                        if (clientSocket.isClosed()) {
+                            // Given up by stop() right after the handshake.
+                            throw new SocketException("socket fechado");
+                        }
+                        startReadThread(clientSocket, newOutput, newInput);
+                    }
                     return true;
                 } else {
                     error = "Erro: outro usuário já está jogando";
@@ -126,26 +176,54 @@ public class TCPNetwork extends Network {
         return false;
     }
 
-    private static boolean readHelloMessage(BufferedReader newInput) {
+    private static boolean readHelloMessage(DataInputStream newInput) {
         String line;
         try {
-            line = newInput.readLine();
+            line = readLine(newInput);
         } catch (IOException ex) {
             logger.log(Level.SEVERE, null, ex);
             return false;
         }
-        return line.equals(HELLO);
+        return HELLO.equals(line);
     }
 
-    private void startReadThread(Socket clientSocket, PrintStream clientOut, BufferedReader clientIn) {
+    private void startReadThread(Socket clientSocket, DataOutputStream clientOut, DataInputStream clientIn) {
         this.socket = clientSocket;
         this.remoteAddress = this.socket.getRemoteSocketAddress();
-        this.out = clientOut;
+        synchronized (this.outputLock) {
+            this.out = clientOut;
+            this.binaryOutput = false;
+            this.stateSender = null;
+            try {
+                writeLine(this.out, delimitadorBinario + BINARIO_OFERTA);
+                this.out.flush();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "erro ao oferecer o protocolo binario", ex);
+            }
+        }
         this.in = clientIn;
+        this.binaryInput = false;
+        this.resetStateSync();
         this.onConnected();
         this.readThread.startOrResume();
     }
 
+    /**
+     * Called when the other peer offered the binary protocol: the last text
+     * line tells it that binary frames follow.
+     */
+    private void startBinaryOutput() throws IOException {
+        synchronized (this.outputLock) {
+            if (this.out == null || this.binaryOutput) {
+                return;
+            }
+            writeLine(this.out, delimitadorBinario + BINARIO_INICIO);
+            this.out.flush();
+            this.binaryOutput = true;
+            this.stateSender = new StateSync.Sender(KEYFRAME_INTERVAL);
+        }
+    }
+
     @Override
     protected void serverLoop(MyThread.ThreadControl control) {
         while (control.check()) {
@@ -163,25 +241,29 @@ public class TCPNetwork extends Network {
     }
 
     private synchronized void processServerSideSocket(Socket serverSideSocket) {
-        BufferedReader newInput = getInputStream(serverSideSocket);
-        PrintStream newOutput = getOutputStrem(serverSideSocket);
+        DataInputStream newInput = getInputStream(serverSideSocket);
+        DataOutputStream newOutput = getOutputStrem(serverSideSocket);
         if (newInput == null || newOutput == null) return;
         if (readHelloMessage(newInput)) {
-            newOutput.println(HELLO);
-
             if (true) {
-                newOutput.println(UNAVAILABLE);
-                newOutput.flush();
+                try {
+                    writeLine(newOutput, HELLO);
+                    writeLine(newOutput, UNAVAILABLE);
+                    newOutput.flush();
+                } catch (IOException ex) {
+                    logger.log(Level.SEVERE, null, ex);
+                }
                 closeSocket(serverSideSocket);
             } else {
                 this.remoteAddress = serverSideSocket.getRemoteSocketAddress();
                 this.onConnecting();
                 // RECOMECA JOGO
                 try {
+                    writeLine(newOutput, HELLO);
                     localEngine.reset();
-                    newOutput.println(protocol.encodeCompleteState(localEngine.dumpCompleteState()));
+                    writeLine(newOutput, protocol.encodeCompleteState(localEngine.dumpCompleteState()));
                     newOutput.flush();
-                    remoteEngine.loadCompleteState(protocol.decodeCompleteState(newInput.readLine()));
+                    remoteEngine.loadCompleteState(protocol.decodeCompleteState(readLine(newInput)));
                 } catch (IOException ex) {
                     logger.log(Level.SEVERE, null, ex);
                     this.onConnectionError("Erro: erro desconhecido ao receber conexão");
@@ -230,9 +312,20 @@ public class TCPNetwork extends Network {
         if (this.getConnectionState() != ConnectionState.CONNECTED) return;
 
         String encoded = this.protocol.encodeChat(string);
-        this.out.print(delimitadorChat);
-        this.out.println(encoded);
-        this.out.flush();
+        synchronized (this.outputLock) {
+            if (this.out == null) return;
+            try {
+                if (this.binaryOutput) {
+                    this.out.writeByte(Protocol.FRAME_CHAT);
+                    this.out.writeUTF(encoded);
+                } else {
+                    writeLine(this.out, delimitadorChat + encoded);
+                }
+                this.out.flush();
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "erro ao enviar chat", ex);
+            }
+        }
     }
 
     @Override
@@ -240,10 +333,24 @@ public class TCPNetwork extends Network {
         Objects.requireNonNull(moveResult);
         if (this.getConnectionState() != ConnectionState.CONNECTED) return;
 
-        String encoded = this.protocol.encodeMoveResult(moveResult);
-        this.out.print(delimitadorJogo);
-        this.out.println(encoded);
-        this.out.flush();
+        synchronized (this.outputLock) {
+            if (this.out == null) return;
+            try {
+                if (this.binaryOutput) {
+                    this.protocol.encodeMoveResult(moveResult, this.out);
+                    if (moveResult.fallEnded) {
+                        // Sent by the engine from inside the move, so the
+                        // state is the one right after it.
+                        this.stateSender.write(this.localEngine, this.out);
+                    }
+                } else {
+                    writeLine(this.out, delimitadorJogo + this.protocol.encodeMoveResult(moveResult));
+                }
+                this.out.flush();
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "erro ao enviar jogada", ex);
+            }
+        }
     }
 
     @Override
@@ -251,9 +358,21 @@ public class TCPNetwork extends Network {
         while (control.check()) {
             try {
                 if (in == null) break;
-                String linha = in.readLine();
+                if (this.binaryInput) {
+                    int header = in.read();
+                    if (header < 0) break;
+                    this.processFrame(header, this.in);
+                    continue;
+                }
+                String linha = readLine(in);
                 if (linha == null || linha.isEmpty()) break;
-                processLinha(linha);
+                if (linha.equals(delimitadorBinario + BINARIO_OFERTA)) {
+                    this.startBinaryOutput();
+                } else if (linha.equals(delimitadorBinario + BINARIO_INICIO)) {
+                    this.binaryInput = true;
+                } else {
+                    processLinha(linha);
+                }
             } catch (SocketException | InterruptedIOException ex) {
                 closeSocket();
                 break;
@@ -279,12 +398,15 @@ public class TCPNetwork extends Network {
         } catch (IOException ex) {
             logger.log(Level.SEVERE, "erro ao fechar socket", ex);
         } finally {
-            this.onDisconnected();
             this.in = null;
-            this.out = null;
+            synchronized (this.outputLock) {
+                this.out = null;
+            }
             this.socket = null;
             this.remoteAddress = null;
-            this.onDisconnected();
+            if (this.getConnectionState() == ConnectionState.CONNECTED) {
+                this.onDisconnected();
+            }
         }
     }
 
@@ -296,7 +418,7 @@ public class TCPNetwork extends Network {
         }
     }
     
-    private static BufferedReader getInputStream(Socket socket) {
+    private static DataInputStream getInputStream(Socket socket) {
         InputStream inputStream;
         try {
             inputStream = socket.getInputStream();
@@ -304,10 +426,10 @@ public class TCPNetwork extends Network {
             logger.log(Level.SEVERE, "o socket deveria ser 'readable'", ex);
             return null;
         }
-        return new BufferedReader(new InputStreamReader(inputStream));
+        return new DataInputStream(new BufferedInputStream(inputStream));
     }
     
-    private static PrintStream getOutputStrem(Socket socket) {
+    private static DataOutputStream getOutputStrem(Socket socket) {
         OutputStream outputStream;
         try {
             outputStream = socket.getOutputStream();
@@ -315,7 +437,35 @@ public class TCPNetwork extends Network {
             logger.log(Level.SEVERE, "o socket deveria ser 'writable'", ex);
             return null;
         }
-        return new PrintStream(outputStream);
+        return new DataOutputStream(new BufferedOutputStream(outputStream));
+    }
+
+    /**
+     * Reads a text line straight from the stream, so the binary frames that
+     * may follow it are not read ahead by a Reader.
+     *
+     * @return the line without its terminator, or null at the end of the stream
+     */
+    private static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b < 0) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                break;
+            }
+            line.write(b);
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length);
+    }
+
+    private static void writeLine(OutputStream output, String line) throws IOException {
+        output.write(line.getBytes());
+        output.write(LINE_SEPARATOR);
     }
 
     @Override
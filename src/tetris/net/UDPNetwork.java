@@ -17,82 +17,238 @@
 
 package tetris.net;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InterruptedIOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.SocketAddress;
 import java.net.SocketException;
-import java.nio.charset.Charset;
+import java.net.SocketTimeoutException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import tetris.generic.TetrisEngine;
-import static tetris.net.Network.HELLO;
-import static tetris.net.Network.delimitadorChat;
 import tetris.util.MyThread;
 
 /**
+ * Talks to the other player over UDP.
+ * A client sends hello packets to the port of the other player until it
+ * answers. The answer comes from a new socket just for the game, so the
+ * port keeps listening. From then on every message, the boards first, goes
+ * through a ReliableChannel, as binary frames like the ones of TCPNetwork.
+ * Moves that arrive after a lost one are shown at once, with a Rollback.
+ * A player that stays silent for too long, or leaves too many messages
+ * unacknowledged, is given up.
  *
  * @author Arthur D'Andréa Alemar
  */
 public class UDPNetwork extends Network {
     private static final Logger logger = Logger.getLogger(UDPNetwork.class.getName());
-    private boolean connected;
-    private DatagramSocket socket;
+
+    /**
+     * Big enough for any packet we send, a complete state takes about a
+     * hundred bytes.
+     */
+    private static final int MAX_PACKET = 2048;
+    private static final int HELLO_TRIES = 10;
+    private static final int HELLO_TIMEOUT = 500;
+
+    /**
+     * How often the read thread wakes up to send again what was not
+     * acknowledged.
+     */
+    private static final int TICK = 20;
+    private static final int REDUNDANCY = 4;
+    private static final long RESEND_NANOS = TimeUnit.MILLISECONDS.toNanos(60);
+
+    /**
+     * How long the other player may be silent before it is given up. A
+     * quiet peer still sends a packet every quarter of it.
+     */
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * How many moves of the other player may be shown ahead of one that was
+     * lost, before it is sent again.
+     */
+    private static final int ROLLBACK_CAPACITY = 64;
+
     private int port;
     private DatagramSocket serverSocket;
+    private volatile DatagramSocket socket;
+    private volatile ReliableChannel channel;
+    private volatile Rollback rollback;
+    private SocketAddress remoteAddress;
+    private final long timeoutNanos;
+
+    public UDPNetwork(TetrisEngine local, TetrisEngine remote) {
+        this(local, remote, TIMEOUT_NANOS);
+    }
+
+    /**
+     * @param timeoutNanos how long the other player may be silent
+     */
+    UDPNetwork(TetrisEngine local, TetrisEngine remote, long timeoutNanos) {
+        super(local, remote);
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    @Override
+    public void start() {
+        if (!this.tryOpenPort()) {
+            return;
+        }
+        this.serverThread.start();
+    }
 
-    public UDPNetwork(TetrisEngine engine, TetrisEngine engine0) {
-        super(engine, engine0);
+    @Override
+    public void stop() {
+        if (this.serverSocket != null) {
+            this.serverSocket.close();
+        }
+        this.closeSocket();
+        this.serverThread.stop();
+        this.readThread.stop();
     }
 
     @Override
     public boolean connect(InetAddress addr, int port) {
-        if (this.connected) {
+        if (this.getConnectionState() != ConnectionState.DISCONNECTED) {
             return false;
         }
+        this.onConnecting();
+        DatagramSocket clientSocket;
         try {
-            DatagramSocket socket = new DatagramSocket();
-            socket.connect(addr, port);
-            return processClientSideSocket(socket);
+            clientSocket = new DatagramSocket();
         } catch (SocketException ex) {
-            logger.log(Level.SEVERE, null, ex);
+            logger.log(Level.SEVERE, "erro ao abrir socket", ex);
+            this.onConnectionError("Erro: erro desconhecido ao conectar");
+            return false;
+        }
+        SocketAddress answer = sayHello(clientSocket, addr, port);
+        if (answer == null) {
+            clientSocket.close();
+            this.onConnectionError("Erro: outro usuário não parece responder de acordo");
             return false;
         }
+        try {
+            clientSocket.connect(answer);
+        } catch (SocketException ex) {
+            logger.log(Level.SEVERE, "erro ao conectar", ex);
+            clientSocket.close();
+            this.onConnectionError("Erro: erro desconhecido ao conectar");
+            return false;
+        }
+        this.localEngine.reset();
+        this.startSession(clientSocket, answer);
+        return true;
     }
-    
-    private synchronized boolean processClientSideSocket(DatagramSocket clientSocket) {
+
+    /**
+     * Sends hello packets until one is answered.
+     *
+     * @return the address of the answer, or null if there was none
+     */
+    private static SocketAddress sayHello(DatagramSocket clientSocket, InetAddress addr, int port) {
+        byte[] hello = ReliableChannel.hello();
+        byte[] buffer = new byte[MAX_PACKET];
+        DatagramPacket answer = new DatagramPacket(buffer, buffer.length);
         try {
-            DatagramPacket packet = packetForString(HELLO, serverSocket);
-        
-            clientSocket.send(packet);
-        
-            byte[] buffer = new byte[65507];
-        
-            packet = new DatagramPacket(buffer, buffer.length);
-            clientSocket.receive(packet);
-            String helloMessage = new String(packet.getData(), 0, packet.getLength());
-            if (!helloMessage.equals(HELLO)) {
-                clientSocket.close();
-                return false;
+            clientSocket.setSoTimeout(HELLO_TIMEOUT);
+            for (int i = 0; i < HELLO_TRIES; i++) {
+                clientSocket.send(new DatagramPacket(hello, hello.length, addr, port));
+                try {
+                    clientSocket.receive(answer);
+                } catch (SocketTimeoutException ex) {
+                    continue;
+                }
+                if (ReliableChannel.isHello(answer.getData(), answer.getOffset(), answer.getLength())) {
+                    return answer.getSocketAddress();
+                }
             }
-            localEngine.reset();
-            
-            clientSocket.receive(packet);
-            String completeState = new String(packet.getData(), 0, packet.getLength());
-            remoteEngine.loadCompleteState(protocol.decodeCompleteState(completeState));
-            packet = packetForString(protocol.encodeCompleteState(localEngine.dumpCompleteState()), socket);
-            clientSocket.send(packet);
-            startReadThread(clientSocket);
-            return true;
         } catch (IOException ex) {
-            logger.log(Level.SEVERE, null, ex);
-            return false;
+            logger.log(Level.SEVERE, "erro ao conectar", ex);
         }
-        
+        return null;
     }
 
+    @Override
+    protected void serverLoop(MyThread.ThreadControl control) {
+        byte[] buffer = new byte[MAX_PACKET];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (control.check()) {
+            try {
+                this.serverSocket.receive(packet);
+            } catch (SocketException ex) {
+                break;
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, null, ex);
+                continue;
+            }
+            if (ReliableChannel.isHello(packet.getData(), packet.getOffset(), packet.getLength())) {
+                this.processHello(packet.getSocketAddress());
+            }
+        }
+    }
+
+    private synchronized void processHello(SocketAddress address) {
+        DatagramSocket current = this.socket;
+        if (current != null) {
+            // The answer was lost, the client said hello again.
+            if (address.equals(this.remoteAddress)) {
+                this.sendRaw(current, ReliableChannel.hello());
+            }
+            return;
+        }
+        if (this.getConnectionState() != ConnectionState.DISCONNECTED) {
+            return;
+        }
+        this.onConnecting();
+        DatagramSocket gameSocket;
+        try {
+            gameSocket = new DatagramSocket();
+            gameSocket.connect(address);
+        } catch (SocketException ex) {
+            logger.log(Level.SEVERE, "erro ao abrir socket", ex);
+            this.onConnectionError("Erro: erro desconhecido ao receber conexão");
+            return;
+        }
+        this.sendRaw(gameSocket, ReliableChannel.hello());
+        this.localEngine.reset();
+        this.startSession(gameSocket, address);
+    }
+
+    /**
+     * Starts talking through a socket connected to the other player, by
+     * sending the local board.
+     */
+    private synchronized void startSession(DatagramSocket gameSocket, SocketAddress address) {
+        try {
+            gameSocket.setSoTimeout(TICK);
+        } catch (SocketException ex) {
+            logger.log(Level.SEVERE, null, ex);
+        }
+        this.channel = new ReliableChannel(REDUNDANCY, RESEND_NANOS);
+        this.rollback = new Rollback(this.remoteEngine, ROLLBACK_CAPACITY);
+        this.socket = gameSocket;
+        this.remoteAddress = address;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(Protocol.FRAME_STATE);
+            this.protocol.encodeCompleteState(this.localEngine.dumpCompleteState(), out);
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+        this.sendMessage(bytes.toByteArray());
+        this.onConnected();
+        this.readThread.startOrResume();
+    }
 
     @Override
     public int getPort() {
@@ -101,148 +257,175 @@ public class UDPNetwork extends Network {
 
     @Override
     public void sendChat(String string) {
-        if (!this.connected) return;
-        String encoded = delimitadorChat + this.protocol.encodeChat(string);
-        byte[] buffer = encoded.getBytes(Charset.forName("ascii"));
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        if (this.getConnectionState() != ConnectionState.CONNECTED) return;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
         try {
-            socket.send(packet);
+            out.writeByte(Protocol.FRAME_CHAT);
+            out.writeUTF(this.protocol.encodeChat(string));
         } catch (IOException ex) {
-            logger.log(Level.SEVERE, null, ex);
+            throw new AssertionError(ex);
         }
+        this.sendMessage(bytes.toByteArray());
     }
 
     @Override
     public void sendMove(TetrisEngine.MoveResult moveResult) {
-        if (!this.connected) return;
-        String encoded = delimitadorJogo + this.protocol.encodeMoveResult(moveResult);
-        byte[] buffer = encoded.getBytes(Charset.forName("ascii"));
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        Objects.requireNonNull(moveResult);
+        if (this.getConnectionState() != ConnectionState.CONNECTED) return;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4);
         try {
-            socket.send(packet);
+            this.protocol.encodeMoveResult(moveResult, new DataOutputStream(bytes));
         } catch (IOException ex) {
-            logger.log(Level.SEVERE, null, ex);
+            throw new AssertionError(ex);
         }
+        this.sendMessage(bytes.toByteArray());
     }
 
-    @Override
-    public void start() {
-        if (!this.tryOpenPort()) {
+    private void sendMessage(byte[] message) {
+        ReliableChannel currentChannel = this.channel;
+        DatagramSocket current = this.socket;
+        if (currentChannel == null || current == null) return;
+        byte[] packet;
+        try {
+            packet = currentChannel.send(message, System.nanoTime());
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "o outro jogador parou de confirmar as mensagens", ex);
+            this.closeSocket();
             return;
         }
-        this.serverThread.start();
+        this.sendRaw(current, packet);
     }
 
-
-    @Override
-    public void stop() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    private void sendRaw(DatagramSocket target, byte[] bytes) {
+        try {
+            target.send(new DatagramPacket(bytes, bytes.length));
+        } catch (IOException ex) {
+            // Lost like any datagram, it is sent again if it matters.
+            logger.log(Level.FINE, "erro ao enviar pacote", ex);
+        }
     }
 
     @Override
     protected void readLoop(MyThread.ThreadControl control) {
-        byte[] buffer = new byte[65507];
+        byte[] buffer = new byte[MAX_PACKET];
         DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        ReliableChannel session = null;
+        long heardAt = 0;
+        long sentAt = 0;
         while (control.check()) {
-            try {
-                if (socket == null) break;
-                socket.receive(packet);
-                String linha = new String(packet.getData(), 0, packet.getLength());
-                this.processLinha(linha);
-            } catch (SocketException | InterruptedIOException ex) {
-                closeSocket();
-                break;
-            } catch (IOException ex) {
-                logger.log(Level.SEVERE, null, ex);
-                closeSocket();
-                break;
+            DatagramSocket current = this.socket;
+            ReliableChannel currentChannel = this.channel;
+            if (current == null || currentChannel == null) break;
+            if (currentChannel != session) {
+                session = currentChannel;
+                heardAt = System.nanoTime();
+                sentAt = heardAt;
             }
-        }
-    }
-
-    @Override
-    protected void serverLoop(MyThread.ThreadControl control) {
-        byte[] buffer = new byte[65507];
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-        while (control.check()) {
-            
             try {
-                this.serverSocket.receive(packet);
+                try {
+                    packet.setLength(buffer.length);
+                    current.receive(packet);
+                    this.processPacket(currentChannel, packet);
+                    heardAt = System.nanoTime();
+                } catch (SocketTimeoutException ex) {
+                    // Time to send again what was lost.
+                }
+                long now = System.nanoTime();
+                if (now - heardAt >= this.timeoutNanos) {
+                    logger.log(Level.WARNING, "o outro jogador parou de responder");
+                    break;
+                }
+                byte[] pending = currentChannel.poll(now);
+                if (pending == null && now - sentAt >= this.timeoutNanos / 4) {
+                    pending = currentChannel.keepAlive(now);
+                }
+                if (pending != null) {
+                    this.sendRaw(current, pending);
+                    sentAt = now;
+                }
             } catch (SocketException ex) {
                 break;
             } catch (IOException ex) {
-                logger.log(Level.SEVERE, null, ex);
-                continue;
-            } 
-            this.processServerSideSocket();
-        }
-    }
-
-    private synchronized void processServerSideSocket() {
-        try {
-            byte[] buffer = new byte[65507];
-            
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-            serverSocket.receive(packet);
-            String helloMessage = new String(packet.getData(), 0, packet.getLength());
-            if (!helloMessage.equals(HELLO)) {
-                return;
+                logger.log(Level.WARNING, "pacote invalido", ex);
             }
-            packet = packetForString(HELLO, serverSocket);
-            serverSocket.send(packet);
-
-            if (this.connected) {
-                //newOutput.println(UNAVAILABLE);
-                //newOutput.flush();
-                
-            } else {
-                packet = packetForString(protocol.encodeCompleteState(localEngine.dumpCompleteState()), socket);
-                serverSocket.send(packet);
-                serverSocket.receive(packet);
-                String completeState = new String(packet.getData(), 0, packet.getLength());
-                remoteEngine.loadCompleteState(protocol.decodeCompleteState(completeState));
-                
-                this.connected = true;
-                startReadThread(serverSocket);
-            }
-        } catch (IOException ex) {
-            Logger.getLogger(UDPNetwork.class.getName()).log(Level.SEVERE, null, ex);
         }
+        this.closeSocket();
     }
 
+    private void processPacket(ReliableChannel currentChannel, DatagramPacket packet) throws IOException {
+        if (packet.getLength() == 0 || currentChannel != this.channel) {
+            // An empty datagram carries nothing, and a packet read while
+            // the session was closed has nobody to go to.
+            return;
+        }
+        byte[] data = packet.getData();
+        if (ReliableChannel.isHello(data, packet.getOffset(), packet.getLength())) {
+            return;
+        }
+        if (packet.getOffset() != 0) {
+            throw new IOException("pacote com deslocamento");
+        }
+        final Rollback currentRollback = this.rollback;
+        currentChannel.receive(data, packet.getLength(), new ReliableChannel.Listener() {
+            @Override
+            public void delivered(int sequence, byte[] message) throws IOException {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+                int header = in.readUnsignedByte();
+                if (protocol.isMoveFrame(header)) {
+                    currentRollback.move(sequence, protocol.decodeMoveResult(header, in));
+                    return;
+                }
+                processFrame(header, in);
+                if (header == Protocol.FRAME_STATE) {
+                    currentRollback.loaded(sequence);
+                } else {
+                    currentRollback.nothing(sequence);
+                }
+            }
 
-    private void startReadThread(DatagramSocket clientSocket) {
-        this.socket = clientSocket;
-        this.connected = true;
-        this.readThread.startOrResume();
+            @Override
+            public void early(int sequence, byte[] message) throws IOException {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(message));
+                int header = in.readUnsignedByte();
+                if (protocol.isMoveFrame(header)) {
+                    currentRollback.move(sequence, protocol.decodeMoveResult(header, in));
+                }
+            }
+        });
     }
 
     private synchronized void closeSocket() {
-        if (socket != null) {
-            socket.close();
-            socket = null;
+        if (this.socket != null) {
+            this.socket.close();
+        }
+        this.socket = null;
+        this.channel = null;
+        this.remoteAddress = null;
+        if (this.getConnectionState() == ConnectionState.CONNECTED) {
+            this.onDisconnected();
         }
     }
 
     private boolean tryOpenPort() {
         try {
-            DatagramSocket socket = new DatagramSocket();
-            this.serverSocket = socket;
-            this.port = socket.getLocalPort();
+            this.serverSocket = new DatagramSocket();
+            this.port = this.serverSocket.getLocalPort();
             return true;
         } catch (SocketException ex) {
-            logger.log(Level.SEVERE, null, ex);
+            logger.log(Level.SEVERE, "erro ao abrir porta", ex);
             return false;
         }
     }
-    
-    private static DatagramPacket packetForString(String string, DatagramSocket socket) {
-        byte[] buffer = string.getBytes(Charset.forName("ascii"));
-        return new DatagramPacket(buffer, buffer.length);
-    }
 
     @Override
-    public SocketAddress getRemoteAddress() {
-        throw new UnsupportedOperationException("Not supported yet.");
+    public synchronized SocketAddress getRemoteAddress() {
+        if (this.getConnectionState() == ConnectionState.DISCONNECTED) {
+            return null;
+        } else {
+            return this.remoteAddress;
+        }
     }
 }
@@ -78,8 +78,9 @@ final class FutureExtremes<T> {
     private synchronized void consume(ListenableFuture<T> f) {
         assert !this.future.isDone();
 
-        Futures.addCallback(f, new FutureCallbackImpl());
+        // Count it first, the callback may run right away if it is done.
         this.length++;
+        Futures.addCallback(f, new FutureCallbackImpl());
     }
 
     private synchronized void end() {
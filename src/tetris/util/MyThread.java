@@ -49,7 +49,10 @@ public final class MyThread {
             @Override
             public void run() {
                 synchronized (MyThread.this) {
-                    MyThread.this.status = Status.STARTED;
+                    // stop() may have come first.
+                    if (MyThread.this.status == Status.STARTING) {
+                        MyThread.this.status = Status.STARTED;
+                    }
                 }
                 
                 try {
@@ -72,7 +75,7 @@ public final class MyThread {
     public void stop() {
         boolean shouldJoin = false;
         synchronized (this) {
-            if (this.status == Status.STARTED) {
+            if (this.status == Status.STARTED || this.status == Status.STARTING) {
                 shouldJoin = true;
                 Status previous = this.status;
                 this.status = Status.STOPING;
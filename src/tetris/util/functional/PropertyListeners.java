@@ -19,6 +19,9 @@ package tetris.util.functional;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.SwingUtilities;
 
 /**
@@ -31,6 +34,16 @@ public final class PropertyListeners  {
         return new SwingListener(inner);
     }
     
+    /**
+     * Delivers the events in the Swing thread, coalesced: the events fired
+     * while the Swing thread is busy are delivered together in one batch, at
+     * most one per property, with the first old value and the last new value.
+     * Meant for listeners that only redraw, since intermediate values are lost.
+     */
+    public static PropertyChangeListener coalescedInSwing(PropertyChangeListener inner) {
+        return new CoalescingListener(inner);
+    }
+
     private static class SwingListener implements PropertyChangeListener {
         private final PropertyChangeListener inner;
         SwingListener(PropertyChangeListener inner) {
@@ -60,4 +73,46 @@ public final class PropertyListeners  {
             inner.propertyChange(evt);
         }
     }
+
+    private static class CoalescingListener implements PropertyChangeListener, Runnable {
+        private final PropertyChangeListener inner;
+        private final Map<String, PropertyChangeEvent> pending = new ConcurrentHashMap<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        CoalescingListener(PropertyChangeListener inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+            String name = evt.getPropertyName() == null ? "" : evt.getPropertyName();
+            while (true) {
+                PropertyChangeEvent previous = this.pending.putIfAbsent(name, evt);
+                if (previous == null) {
+                    break;
+                }
+                PropertyChangeEvent merged = new PropertyChangeEvent(evt.getSource(), evt.getPropertyName(),
+                                                                     previous.getOldValue(), evt.getNewValue());
+                if (this.pending.replace(name, previous, merged)) {
+                    break;
+                }
+            }
+            if (this.scheduled.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            // Cleared before draining, so an event fired meanwhile schedules
+            // another batch instead of being left behind.
+            this.scheduled.set(false);
+            for (String name : this.pending.keySet()) {
+                PropertyChangeEvent evt = this.pending.remove(name);
+                if (evt != null) {
+                    this.inner.propertyChange(evt);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.ai;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import tetris.ai.BatchRunner.GameResult;
+import tetris.generic.Definitions;
+import tetris.util.ExecutorServiceRule;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class BatchRunnerTest {
+    @Rule
+    public ExecutorServiceRule executorRule = new ExecutorServiceRule(Executors.newScheduledThreadPool(4));
+
+    @Test
+    public void testPlayAllIsDeterministic() throws InterruptedException, ExecutionException {
+        TetrisAI ai = new TetrisAI(MoreExecutors.sameThreadExecutor());
+        BatchRunner runner = new BatchRunner(ai, executorRule.get(), Definitions.create(6, 20), 100);
+        List<GameResult> first = runner.playAll(7, 6).get();
+        List<GameResult> second = runner.playAll(7, 6).get();
+        assertEquals(first, second);
+        for (int i = 0; i < first.size(); i++) {
+            GameResult result = first.get(i);
+            assertEquals(i, result.game);
+            assertEquals(7 + i, result.seed);
+            assertTrue(result.pieces > 0 && result.pieces <= 100);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.ai;
+
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class BoardFeaturesTest {
+
+    /**
+     * The incremental update must agree with a full scan of the same grid.
+     */
+    @Test
+    public void testUpdateMatchesScan() {
+        Random random = new Random(42);
+        for (int round = 0; round < 200; round++) {
+            int width = 4 + random.nextInt(8);
+            int height = 4 + random.nextInt(16);
+            byte[][] base = new byte[width][height];
+            for (int x = 0; x < width; x++) {
+                for (int y = height / 2; y < height; y++) {
+                    base[x][y] = (byte) (random.nextInt(3) == 0 ? 0 : 1);
+                }
+            }
+            BoardFeatures baseFeatures = BoardFeatures.of(base);
+
+            ScratchGrid scratch = new ScratchGrid(width, height);
+            scratch.load(base);
+            for (int n = 0; n < 8; n++) {
+                int x = random.nextInt(width);
+                int y = random.nextInt(height);
+                if (scratch.grid[x][y] == 0) {
+                    scratch.put(x, y, (byte) 2);
+                }
+            }
+
+            BoardFeatures updated = new BoardFeatures();
+            updated.update(baseFeatures, scratch);
+            BoardFeatures scanned = new BoardFeatures();
+            scanned.scan(scratch.grid);
+
+            assertEquals(scanned.touchingEdges, updated.touchingEdges);
+            assertEquals(scanned.touchingWalls, updated.touchingWalls);
+            assertEquals(scanned.touchingFloor, updated.touchingFloor);
+            assertEquals(scanned.height, updated.height);
+            assertEquals(scanned.holes, updated.holes);
+            assertEquals(scanned.blockades, updated.blockades);
+        }
+    }
+}
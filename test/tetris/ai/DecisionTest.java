@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.ai;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import tetris.generic.BlockPosition;
+import tetris.generic.Definitions;
+import tetris.generic.PieceSource;
+import tetris.generic.TetrisEngine;
+import tetris.generic.Tetromino;
+import tetris.util.ExecutorServiceRule;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class DecisionTest {
+    @Rule
+    public ExecutorServiceRule executorRule = new ExecutorServiceRule(Executors.newScheduledThreadPool(4));
+
+    public ListeningScheduledExecutorService executor;
+
+    private TetrisEngine engine;
+
+    @Before
+    public void setUp() {
+        executor = executorRule.get();
+
+        engine = new TetrisEngine(Definitions.create(10, 20), PieceSource.uniform(5));
+        engine.startengine();
+    }
+
+    @Test
+    public void testOffer() throws InterruptedException, ExecutionException {
+        BlockPosition[] positions = engine.defs.getPossibleFits(Tetromino.Type.T);
+        Decision decision = new Decision();
+        assertNull(decision.getBest());
+        assertTrue(decision.offer(positions[0], 1, 5.0));
+        assertFalse(decision.offer(positions[1], 1, 4.0));
+        assertTrue(decision.offer(positions[2], 1, 6.0));
+        // A deeper search wins whatever its score.
+        assertTrue(decision.offer(positions[3], 2, -10.0));
+        assertFalse(decision.offer(positions[4], 1, 100.0));
+        assertEquals(positions[3], decision.getBest());
+
+        decision.follow(Futures.immediateFuture(positions[5]));
+        assertEquals(positions[5], decision.getResult().get());
+        assertFalse(decision.offer(positions[6], 9, 0.0));
+        assertEquals(positions[5], decision.getBest());
+    }
+
+    /**
+     * A deep search publishes its shallow answers, and ends soon once it
+     * is stopped.
+     */
+    @Test(timeout = 20000)
+    public void testStopLookahead() throws InterruptedException, ExecutionException, TimeoutException {
+        TetrisAI ai = new TetrisAI(executor);
+        ai.setSearchDepth(6);
+        assertStops(ai.decide(engine));
+    }
+
+    @Test(timeout = 20000)
+    public void testStopMonteCarlo() throws InterruptedException, ExecutionException, TimeoutException {
+        MonteCarloAI ai = new MonteCarloAI(executor, 2);
+        ai.setTimeBudget(1, TimeUnit.HOURS);
+        assertStops(ai.decide(engine));
+    }
+
+    private static void assertStops(Decision decision) throws InterruptedException, ExecutionException, TimeoutException {
+        while (decision.getBest() == null) {
+            Thread.sleep(5);
+        }
+        assertFalse(decision.getResult().isDone());
+        BlockPosition best = decision.stop();
+        assertNotNull(best);
+        assertNotNull(decision.getResult().get(10, TimeUnit.SECONDS));
+    }
+}
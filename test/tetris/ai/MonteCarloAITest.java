@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.ai;
+
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import tetris.generic.BlockMover;
+import tetris.generic.Definitions;
+import tetris.generic.PieceSource;
+import tetris.generic.Score;
+import tetris.generic.TetrisEngine;
+import tetris.generic.Tetromino;
+import tetris.util.ExecutorServiceRule;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class MonteCarloAITest {
+    @Rule
+    public ExecutorServiceRule executorRule = new ExecutorServiceRule(Executors.newScheduledThreadPool(4));
+
+    public ListeningScheduledExecutorService executor;
+
+    private MonteCarloAI ai;
+    private TetrisEngine engine;
+
+    @Before
+    public void setUp() {
+        executor = executorRule.get();
+
+        engine = new TetrisEngine(Definitions.create(10, 20), PieceSource.uniform(7));
+        ai = new MonteCarloAI(executor, 4);
+        engine.startengine();
+    }
+
+    @Test
+    public void testProcess() throws InterruptedException, ExecutionException {
+        ai.setTimeBudget(20, TimeUnit.MILLISECONDS);
+        int i;
+        for (i = 0; i < 150 && engine.getState() == TetrisEngine.GameState.PLAYING; i++) {
+            BlockMover mover = ai.process(engine).get();
+            if (mover != null)
+                mover.slam();
+        }
+        Score score = engine.getScore();
+        System.out.printf("iterations: %d\nscore: %d\nlinesRemoved: %d\n", i, score.getScore(), score.getLinesRemoved());
+        assertTrue("linesRemoved should be greater than 0", score.getLinesRemoved() > 0);
+    }
+
+    /**
+     * Without a time budget, every placement of the active block is still
+     * tried before answering.
+     */
+    @Test
+    public void testNoBudget() throws InterruptedException, ExecutionException {
+        ai.setTimeBudget(0, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 20 && engine.getState() == TetrisEngine.GameState.PLAYING; i++) {
+            BlockMover mover = ai.process(engine).get();
+            assertNotNull(mover);
+            mover.slam();
+        }
+    }
+
+    /**
+     * Rollouts score a placement as a full scan of its board does, even
+     * over blocks dropped by the walk, so they store right scores in the
+     * transposition table shared with the other searches.
+     */
+    @Test
+    public void testRolloutScores() throws TetrisAI.GameOverException {
+        ai.getHeuristic().setTranspositionTable(null);
+        Definitions defs = engine.defs;
+        byte[][] base = new byte[defs.width][defs.height];
+        for (int x = 1; x < defs.width; x++) {
+            base[x][defs.height - 1] = 1;
+        }
+        base[3][defs.height - 2] = 1;
+        ScratchGrid walk = new ScratchGrid(defs.width, defs.height);
+        walk.load(base);
+        TetrisAI.simulateDrop(walk, defs.getPackedFits(Tetromino.Type.L)[5]);
+        TetrisAI.simulateDrop(walk, defs.getPackedFits(Tetromino.Type.S)[2]);
+        ScratchGrid probe = new ScratchGrid(defs.width, defs.height);
+        ScratchGrid check = new ScratchGrid(defs.width, defs.height);
+
+        for (Tetromino.Type type : Tetromino.Type.values()) {
+            int[] fits = defs.getPackedFits(type);
+            double[] scores = new double[fits.length];
+            int[] cleared = new int[fits.length];
+            ai.scorePlacements(walk, probe, fits, 1, scores, cleared);
+            for (int i = 0; i < fits.length; i++) {
+                check.reload(walk.grid);
+                int expectedCleared;
+                try {
+                    expectedCleared = TetrisAI.simulateDrop(check, fits[i]);
+                } catch (TetrisAI.GameOverException e) {
+                    assertEquals(Double.NEGATIVE_INFINITY, scores[i], 0.0);
+                    continue;
+                }
+                assertEquals(expectedCleared, cleared[i]);
+                assertEquals(ai.getHeuristic().evaluate(check, null, 1 + expectedCleared), scores[i], 1e-9);
+            }
+        }
+    }
+}
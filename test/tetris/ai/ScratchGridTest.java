@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.ai;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import org.junit.Test;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class ScratchGridTest {
+
+    @Test
+    public void testRollbackUndoesWrites() {
+        byte[][] base = new byte[4][5];
+        base[0][4] = 1;
+        ScratchGrid scratch = new ScratchGrid(4, 5);
+        scratch.load(base);
+        scratch.put(1, 4, (byte) 2);
+        scratch.put(1, 3, (byte) 2);
+        assertEquals(2, scratch.grid[1][3]);
+        scratch.rollback();
+        assertArrayEquals(base, scratch.grid);
+    }
+
+    @Test
+    public void testRollbackAfterShift() {
+        byte[][] base = new byte[4][5];
+        base[2][4] = 1;
+        base[3][3] = 1;
+        ScratchGrid scratch = new ScratchGrid(4, 5);
+        scratch.load(base);
+        scratch.grid[3][4] = scratch.grid[3][3];
+        scratch.markShifted();
+        scratch.load(base);
+        assertArrayEquals(base, scratch.grid);
+    }
+
+    @Test
+    public void testHashFollowsWrites() {
+        byte[][] base = new byte[4][5];
+        base[0][4] = 1;
+        ScratchGrid scratch = new ScratchGrid(4, 5);
+        scratch.load(base);
+        assertEquals(ScratchGrid.hashOf(base), scratch.hash);
+        scratch.put(1, 4, (byte) 2);
+        scratch.put(2, 4, (byte) 2);
+        assertEquals(ScratchGrid.hashOf(scratch.grid), scratch.hash);
+        assertNotEquals(ScratchGrid.hashOf(base), scratch.hash);
+        scratch.rollback();
+        assertEquals(ScratchGrid.hashOf(base), scratch.hash);
+    }
+
+    @Test
+    public void testHashOfSize() {
+        byte[][] narrow = new byte[4][5];
+        byte[][] wide = new byte[5][5];
+        assertNotEquals(ScratchGrid.hashOf(narrow), ScratchGrid.hashOf(wide));
+        narrow[0][4] = 1;
+        wide[0][4] = 1;
+        assertNotEquals(ScratchGrid.hashOf(narrow), ScratchGrid.hashOf(wide));
+    }
+}
@@ -20,13 +20,17 @@ package tetris.ai;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import tetris.generic.BlockMover;
+import tetris.generic.BlockPosition;
 import tetris.generic.Score;
 import tetris.generic.TetrisEngine;
+import tetris.generic.Tetromino;
 import tetris.util.ExecutorServiceRule;
 
 /**
@@ -64,4 +68,56 @@ public class TetrisAITest {
         assertTrue("score should be greater than 0", score.getScore() > 0);
         assertTrue("linesRemoved should be greater than 0", score.getLinesRemoved() > 0);
     }
+
+    @Test
+    public void testProcessWithLookahead() throws InterruptedException, ExecutionException {
+        ai.setSearchDepth(3);
+        ai.setBeamWidth(4);
+        ai.setTimeBudget(50, TimeUnit.MILLISECONDS);
+        int i;
+        for (i = 0; i < 200 && engine.getActiveblock() != null; i++) {
+            BlockMover mover = ai.process(engine).get();
+            if (mover != null)
+                mover.slam();
+        }
+        Score score = engine.getScore();
+        System.out.printf("iterations: %d\nscore: %d\nlinesRemoved: %d\n", i, score.getScore(), score.getLinesRemoved());
+        assertTrue("linesRemoved should be greater than 0", score.getLinesRemoved() > 0);
+    }
+
+    @Test
+    public void testPruneMarginAlone() throws InterruptedException, ExecutionException {
+        // With no margin only the placements that score best alone are
+        // expanded, at the default depth too.
+        ai.setPruneMargin(0);
+        for (int i = 0; i < 50 && engine.getActiveblock() != null; i++) {
+            Tetromino.Type type = engine.getActiveblock().type;
+            byte[][] mockgrid = engine.createMockGrid();
+            BlockPosition chosen = ai.decide(engine).getResult().get();
+            if (chosen == null) {
+                break;
+            }
+            BlockPosition[] positions = engine.defs.getPossibleFits(type);
+            int[] fits = engine.defs.getPackedFits(type);
+            ScratchGrid grid = new ScratchGrid(mockgrid.length, mockgrid[0].length);
+            grid.reload(mockgrid);
+            double best = Double.NEGATIVE_INFINITY;
+            double chosenScore = Double.NaN;
+            for (int j = 0; j < fits.length; j++) {
+                grid.rollback();
+                double score;
+                try {
+                    score = ai.evaluate(grid, null, TetrisAI.simulateDrop(grid, fits[j]));
+                } catch (TetrisAI.GameOverException e) {
+                    continue;
+                }
+                best = Math.max(best, score);
+                if (positions[j].equals(chosen)) {
+                    chosenScore = score;
+                }
+            }
+            assertEquals(best, chosenScore, 0.0);
+            new BlockMover(engine, chosen).slam();
+        }
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class TranspositionTableTest {
+
+    @Test
+    public void testGetAndPut() {
+        TranspositionTable table = new TranspositionTable(16);
+        assertTrue(Double.isNaN(table.get(42)));
+        table.put(42, -3.5);
+        table.put(0, 0.0);
+        assertEquals(-3.5, table.get(42), 0.0);
+        assertEquals(0.0, table.get(0), 0.0);
+        assertEquals(2, table.getHits());
+        assertEquals(1, table.getMisses());
+    }
+
+    @Test
+    public void testEvictionKeepsReferencedEntries() {
+        TranspositionTable table = new TranspositionTable(4);
+        assertEquals(4, table.capacity());
+        for (long key = 1; key <= 4; key++) {
+            table.put(key << 32 | key, key);
+        }
+        // Every key falls in the only bucket; the one just read survives.
+        table.get(3L << 32 | 3);
+        table.put(5L << 32 | 5, 5);
+        table.put(6L << 32 | 6, 6);
+        assertEquals(3.0, table.get(3L << 32 | 3), 0.0);
+        assertEquals(6.0, table.get(6L << 32 | 6), 0.0);
+        int found = 0;
+        for (long key = 1; key <= 6; key++) {
+            if (!Double.isNaN(table.get(key << 32 | key))) {
+                found++;
+            }
+        }
+        assertEquals(4, found);
+    }
+
+    @Test
+    public void testClear() {
+        TranspositionTable table = new TranspositionTable(100);
+        assertEquals(128, table.capacity());
+        table.put(7, 1.0);
+        table.clear();
+        assertTrue(Double.isNaN(table.get(7)));
+        assertEquals(0, table.getHits());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.ai;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tetris.ai.WeightTuner.Candidate;
+import tetris.generic.Definitions;
+import tetris.util.ExecutorServiceRule;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class WeightTunerTest {
+    @Rule
+    public ExecutorServiceRule executorRule = new ExecutorServiceRule(Executors.newScheduledThreadPool(4));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ForkJoinPool pool = new ForkJoinPool(2);
+
+    private WeightTuner createTuner() {
+        return new WeightTuner(executorRule.get(), pool, 3, Definitions.create(6, 20), 4, 2, 30);
+    }
+
+    @Test
+    public void testStepIsReproducible() throws InterruptedException, ExecutionException {
+        List<Candidate> first = createTuner().step();
+        List<Candidate> second = createTuner().step();
+        assertEquals(4, first.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertArrayEquals(first.get(i).weights, second.get(i).weights, 0.0);
+            assertEquals(first.get(i).fitness, second.get(i).fitness, 0.0);
+        }
+    }
+
+    @Test
+    public void testResume() throws InterruptedException, ExecutionException, IOException {
+        WeightTuner tuner = createTuner();
+        tuner.step();
+        Path checkpoint = folder.getRoot().toPath().resolve("tuner.properties");
+        tuner.save(checkpoint);
+
+        WeightTuner resumed = WeightTuner.load(checkpoint, executorRule.get(), pool);
+        assertEquals(1, resumed.getGeneration());
+        assertEquals(tuner.getBest().fitness, resumed.getBest().fitness, 0.0);
+        List<double[]> population = tuner.getPopulation();
+        List<double[]> loaded = resumed.getPopulation();
+        assertEquals(population.size(), loaded.size());
+        for (int i = 0; i < population.size(); i++) {
+            assertArrayEquals(population.get(i), loaded.get(i), 0.0);
+        }
+
+        List<Candidate> expected = tuner.step();
+        List<Candidate> actual = resumed.step();
+        assertEquals(expected.get(0).fitness, actual.get(0).fitness, 0.0);
+        assertArrayEquals(expected.get(0).weights, actual.get(0).weights, 0.0);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.generic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import tetris.generic.Tetromino.Type;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class BitBoardTest {
+
+    @Test
+    public void testFitsBounds() {
+        BitBoard board = new BitBoard(6, 20);
+        // The vertical I block has a free column on its left.
+        assertTrue(board.fits(Type.Long, 1, -1, 0));
+        assertFalse(board.fits(Type.Long, 1, -2, 0));
+        assertTrue(board.fits(Type.Long, 1, 4, 16));
+        assertFalse(board.fits(Type.Long, 1, 4, 17));
+        assertFalse(board.fits(Type.Long, 0, 3, 0));
+    }
+
+    @Test
+    public void testLockAndCollide() {
+        BitBoard board = new BitBoard(6, 20);
+        board.lock(Type.Box, 0, 0, 18);
+        assertTrue(board.isFilled(1, 18));
+        assertTrue(board.isFilled(2, 19));
+        assertFalse(board.isFilled(0, 19));
+        assertEquals(Type.Box, board.getType(1, 19));
+        assertNull(board.getType(0, 19));
+        assertFalse(board.fits(Type.Box, 0, 1, 17));
+        assertTrue(board.fits(Type.Box, 0, 2, 18));
+    }
+
+    @Test
+    public void testClearFullLines() {
+        BitBoard board = new BitBoard(4, 5);
+        board.lock(Type.Long, 0, 0, 4);
+        board.lock(Type.Long, 0, 0, 3);
+        board.lock(Type.Box, 0, -1, 1);
+        assertEquals(2, board.clearFullLines());
+        assertTrue(board.isFilled(0, 4));
+        assertTrue(board.isFilled(1, 3));
+        assertFalse(board.isFilled(2, 1));
+        assertEquals(Type.Box, board.getType(0, 4));
+        assertEquals(0L, board.getRow(0));
+        assertEquals(0, board.clearFullLines());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.generic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import tetris.generic.Tetromino.Type;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class BoardSnapshotTest {
+
+    @Test
+    public void testVersionGrowsOnlyOnChange() {
+        TetrisEngine engine = new TetrisEngine(Definitions.create(6, 20), 7);
+        engine.startengine();
+        BoardSnapshot first = engine.getSnapshot();
+        assertSame(first, engine.getSnapshot());
+
+        engine.keyright();
+        BoardSnapshot moved = engine.getSnapshot();
+        assertTrue(moved.getVersion() > first.getVersion());
+        for (int y = 0; y < 20; y++) {
+            assertTrue(moved.sameRow(first, y));
+        }
+
+        // Against the wall the move fails and nothing changes.
+        for (int i = 0; i < 6; i++) {
+            engine.keyright();
+        }
+        long version = engine.getSnapshot().getVersion();
+        engine.keyright();
+        assertEquals(version, engine.getSnapshot().getVersion());
+    }
+
+    @Test
+    public void testSnapshotIsImmutable() {
+        TetrisEngine engine = new TetrisEngine(Definitions.create(6, 20), 11);
+        engine.startengine();
+        BoardSnapshot before = engine.getSnapshot();
+        Block[][] blocks = before.toBlocks();
+        engine.keyslam();
+        BoardSnapshot after = engine.getSnapshot();
+
+        assertFalse(after.sameRow(before, 19));
+        assertEquals(0L, before.getRow(19));
+        Block[][] again = before.toBlocks();
+        for (int x = 0; x < 6; x++) {
+            assertArrayEquals(blocks[x], again[x]);
+        }
+    }
+
+    @Test
+    public void testSnapshotMatchesBlocks() {
+        TetrisEngine engine = new TetrisEngine(Definitions.create(6, 20), 5);
+        engine.startengine();
+        for (int i = 0; i < 8; i++) {
+            engine.keyslam();
+        }
+        BoardSnapshot snapshot = engine.getSnapshot();
+        Block[][] blocks = engine.getBlocks();
+        byte[][] mockgrid = engine.createMockGrid();
+        for (int x = 0; x < 6; x++) {
+            assertArrayEquals(blocks[x], snapshot.toBlocks()[x]);
+            for (int y = 0; y < 20; y++) {
+                assertEquals(blocks[x][y].getState(), snapshot.getState(x, y));
+                assertEquals(blocks[x][y].getType(), snapshot.getType(x, y));
+                assertEquals(mockgrid[x][y] == Block.FILLED, snapshot.isFilled(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testClearedRowsAreEmpty() {
+        BitBoard board = new BitBoard(4, 5);
+        board.lock(Type.Long, 0, 0, 4);
+        board.lock(Type.Box, 0, -1, 2);
+        BoardSnapshot before = board.snapshot(0, null);
+        assertEquals(1, board.clearFullLines());
+        BoardSnapshot after = board.snapshot(1, null);
+
+        assertEquals(0xFL, before.getRow(4));
+        assertEquals(Type.Box, after.getType(0, 4));
+        assertEquals(0L, after.getRow(0));
+        assertTrue(after.sameRow(before, 0));
+        assertFalse(after.sameRow(before, 4));
+    }
+}
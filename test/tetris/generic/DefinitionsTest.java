@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.generic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import tetris.generic.Tetromino.Type;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class DefinitionsTest {
+
+    @Test
+    public void testCellsMatchDefinitions() {
+        for (Type type : Type.values()) {
+            assertEquals(Definitions.blockdef[type.ordinal()].length, Definitions.getRotations(type));
+            for (int rot = 0; rot < Definitions.getRotations(type); rot++) {
+                byte[][] def = Definitions.blockdef[type.ordinal()][rot];
+                int[] cells = Definitions.getCells(type, rot);
+                int[] bounds = Definitions.getBounds(type, rot);
+                assertEquals(8, cells.length);
+                int filled = 0;
+                for (int row = 0; row < 4; row++) {
+                    for (int column = 0; column < 4; column++) {
+                        if (def[row][column] != 0) {
+                            filled++;
+                            assertTrue(column >= bounds[0] && column <= bounds[1]);
+                            assertTrue(row >= bounds[2] && row <= bounds[3]);
+                        }
+                    }
+                }
+                assertEquals(4, filled);
+                for (int k = 0; k < cells.length; k += 2) {
+                    assertEquals(1, def[cells[k + 1]][cells[k]]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPossibleFits() {
+        Definitions defs = Definitions.create(6, 20);
+        // The I block lies in 3 places and stands in 6.
+        assertEquals(9, defs.getPossibleFits(Type.Long).length);
+        assertEquals(5, defs.getPossibleFits(Type.Box).length);
+
+        BitBoard board = new BitBoard(6, 20);
+        for (Type type : Type.values()) {
+            int count = 0;
+            for (int rot = 0; rot < Definitions.getRotations(type); rot++) {
+                int minX = defs.getMinX(type, rot);
+                int maxX = defs.getMaxX(type, rot);
+                assertTrue(board.fits(type, rot, minX, 0));
+                assertTrue(board.fits(type, rot, maxX, 0));
+                assertFalse(board.fits(type, rot, minX - 1, 0));
+                assertFalse(board.fits(type, rot, maxX + 1, 0));
+                count += maxX - minX + 1;
+            }
+            assertEquals(count, defs.getPossibleFits(type).length);
+        }
+    }
+
+    @Test
+    public void testPackedFits() {
+        Definitions defs = Definitions.create(6, 20);
+        for (Type type : Type.values()) {
+            BlockPosition[] fits = defs.getPossibleFits(type);
+            int[] packed = defs.getPackedFits(type);
+            assertEquals(fits.length, packed.length);
+            for (int i = 0; i < fits.length; i++) {
+                assertEquals(fits[i].pack(), packed[i]);
+                assertEquals(type, BlockPosition.typeOf(packed[i]));
+                assertEquals(fits[i].rot, BlockPosition.rotOf(packed[i]));
+                assertEquals(fits[i].bx, BlockPosition.bxOf(packed[i]));
+                assertEquals(fits[i], BlockPosition.unpack(packed[i]));
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.generic;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import tetris.generic.Tetromino.Type;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class PieceSourceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testUniformIsReproducible() {
+        PieceSource source1 = PieceSource.uniform(11);
+        PieceSource source2 = PieceSource.uniform(11);
+        for (int i = 0; i < 100; i++) {
+            Tetromino piece1 = source1.next();
+            Tetromino piece2 = source2.next();
+            assertEquals(piece1.type, piece2.type);
+            assertEquals(piece1.rot, piece2.rot);
+        }
+    }
+
+    @Test
+    public void testBagDealsEveryType() {
+        PieceSource source = PieceSource.bag(5);
+        for (int bag = 0; bag < 10; bag++) {
+            Set<Type> types = EnumSet.noneOf(Type.class);
+            for (int i = 0; i < Type.values().length; i++) {
+                types.add(source.next().type);
+            }
+            assertEquals(EnumSet.allOf(Type.class), types);
+        }
+    }
+
+    @Test
+    public void testCopy() {
+        PieceSource source = PieceSource.bag(3);
+        source.next();
+        source.next();
+        PieceSource copy = source.copy();
+        for (int i = 0; i < 30; i++) {
+            Tetromino expected = source.next();
+            Tetromino actual = copy.next();
+            assertEquals(expected.type, actual.type);
+            assertEquals(expected.rot, actual.rot);
+        }
+    }
+
+    @Test
+    public void testFromFile() throws IOException {
+        Path path = folder.newFile("pieces.txt").toPath();
+        Files.write(path, Arrays.asList("# an opening", "T:2 Long", "Box  S:1"), StandardCharsets.UTF_8);
+        PieceSource source = PieceSource.fromFile(path);
+        Type[] types = {Type.T, Type.Long, Type.Box, Type.S, Type.T};
+        int[] rotations = {2, 0, 0, 1, 2};
+        for (int i = 0; i < types.length; i++) {
+            Tetromino piece = source.next();
+            assertEquals(types[i], piece.type);
+            assertEquals(rotations[i], piece.rot);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testFromFileRejectsUnknownPieces() throws IOException {
+        Path path = folder.newFile("pieces.txt").toPath();
+        Files.write(path, Arrays.asList("T Q"), StandardCharsets.UTF_8);
+        PieceSource.fromFile(path);
+    }
+
+    @Test
+    public void testEngineDealsFromSource() {
+        PieceSource source = PieceSource.sequence(Arrays.asList(
+                new Tetromino(Type.Long, 1), new Tetromino(Type.Box, 0), new Tetromino(Type.T, 0)));
+        TetrisEngine engine = new TetrisEngine(Definitions.create(6, 20), source);
+        engine.startengine();
+        assertEquals(Type.Long, engine.getActiveblock().type);
+        assertEquals(Type.Box, engine.getNextblock().type);
+        engine.keyslam();
+        assertEquals(Type.Box, engine.getActiveblock().type);
+        assertEquals(Type.T, engine.getNextblock().type);
+    }
+}
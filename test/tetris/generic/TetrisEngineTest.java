@@ -18,6 +18,15 @@
 package tetris.generic;
 
 import static org.junit.Assert.*;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.Test;
 
 /**
@@ -39,5 +48,184 @@ public class TetrisEngineTest {
         assertTrue(engine1.equals(engine2));
         assertTrue(engine2.equals(engine1));
     }
-    
+
+    @Test
+    public void testSeededPieces() {
+        TetrisEngine engine1 = new TetrisEngine(Definitions.create(6, 20), 42);
+        engine1.startengine();
+        TetrisEngine engine2 = new TetrisEngine(Definitions.create(6, 20), 42);
+        engine2.startengine();
+        for (int i = 0; i < 20; i++) {
+            assertEquals(engine1.getActiveblock().type, engine2.getActiveblock().type);
+            assertEquals(engine1.getNextblock().type, engine2.getNextblock().type);
+            engine1.keyslam();
+            engine2.keyslam();
+        }
+        assertTrue(engine1.equals(engine2));
+    }
+
+    @Test
+    public void testSlamFiresOnce() {
+        TetrisEngine engine = new TetrisEngine(Definitions.create(6, 20), 9);
+        engine.startengine();
+        final List<String> fired = new ArrayList<>();
+        engine.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                fired.add(evt.getPropertyName());
+            }
+        });
+        Score before = engine.getScore();
+        engine.keyslam();
+        assertEquals(1, Collections.frequency(fired, "blocks"));
+        assertEquals(1, Collections.frequency(fired, "score"));
+        assertEquals(1, Collections.frequency(fired, "nextblock"));
+        assertEquals(3, fired.size());
+
+        fired.clear();
+        engine.keyleft();
+        assertEquals(Arrays.asList("blocks"), fired);
+        assertTrue(engine.getScore().getBlocksDropped() > before.getBlocksDropped());
+    }
+
+    @Test
+    public void testSingleWriterPublishesToReaders() throws InterruptedException {
+        final TetrisEngine engine = new TetrisEngine(Definitions.create(6, 20), PieceSource.uniform(3), true);
+        engine.startengine();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (!done.get()) {
+                        byte[][] mockgrid = engine.createMockGrid();
+                        assertEquals(6, mockgrid.length);
+                        engine.getBlocks();
+                        engine.getScore();
+                        engine.getNextblock();
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        };
+        reader.start();
+        for (int i = 0; i < 200 && engine.getState() == TetrisEngine.GameState.PLAYING; i++) {
+            engine.keyleft();
+            engine.keyslam();
+        }
+        done.set(true);
+        reader.join();
+        assertNull(failure.get());
+        assertTrue(engine.getScore().getBlocksDropped() > 0);
+    }
+
+    @Test
+    public void testSingleWriterRejectsOtherWriters() throws InterruptedException {
+        final TetrisEngine engine = new TetrisEngine(Definitions.create(6, 20), PieceSource.uniform(3), true);
+        engine.startengine();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    engine.keyleft();
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        };
+        other.start();
+        other.join();
+        assertTrue(failure.get() instanceof IllegalStateException);
+    }
+
+    /**
+     * Forks are reads: any thread may take them from a single writer
+     * engine, and each one holds the pieces that follow its next block.
+     */
+    @Test
+    public void testForkFromOtherThread() throws InterruptedException {
+        final List<Tetromino> pieces = new ArrayList<>();
+        for (Tetromino.Type type : Tetromino.Type.values()) {
+            pieces.add(new Tetromino(type, 0));
+        }
+        final TetrisEngine engine = new TetrisEngine(Definitions.create(6, 20), PieceSource.sequence(pieces), true);
+        engine.startengine();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread forker = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    TetrisEngine copy = new TetrisEngine(engine.defs, PieceSource.sequence(pieces));
+                    while (!done.get()) {
+                        copy.restore(engine.fork());
+                        Tetromino.Type next = copy.getNextblock().type;
+                        copy.keyslam();
+                        if (copy.getState() == TetrisEngine.GameState.PLAYING) {
+                            int index = (next.ordinal() + 1) % pieces.size();
+                            assertEquals(pieces.get(index).type, copy.getNextblock().type);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        };
+        forker.start();
+        for (int i = 0; i < 200 && engine.getState() == TetrisEngine.GameState.PLAYING; i++) {
+            engine.keyleft();
+            engine.keyslam();
+        }
+        done.set(true);
+        forker.join();
+        assertNull(failure.get());
+    }
+
+    /**
+     * A restored game plays on exactly as it did from the fork, pieces to
+     * come included, without telling the listeners.
+     */
+    @Test
+    public void testForkRestore() {
+        TetrisEngine engine = new TetrisEngine(Definitions.create(6, 20), PieceSource.bag(9));
+        engine.startengine();
+        engine.keyslam();
+        TetrisEngine.Snapshot snapshot = engine.fork();
+        Score score = engine.getScore();
+
+        TetrisEngine.Move[] keys = TetrisEngine.Move.values();
+        Random random = new Random(9);
+        TetrisEngine.Move[] moves = new TetrisEngine.Move[200];
+        List<Boolean> results = new ArrayList<>();
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = keys[random.nextInt(keys.length)];
+            results.add(engine.tryMove(moves[i]));
+        }
+        TetrisEngine played = new TetrisEngine(engine.defs);
+        played.loadCompleteState(engine.dumpCompleteState());
+        TetrisEngine.GameState state = engine.getState();
+        int lines = engine.getScore().getLinesRemoved();
+
+        final AtomicBoolean fired = new AtomicBoolean();
+        engine.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                fired.set(true);
+            }
+        });
+        engine.restore(snapshot);
+        assertFalse(fired.get());
+        assertEquals(snapshot.getBoard(), engine.getSnapshot());
+        assertEquals(score.getScore(), engine.getScore().getScore());
+
+        for (int i = 0; i < moves.length; i++) {
+            assertEquals(results.get(i), engine.tryMove(moves[i]));
+        }
+        assertEquals(played, engine);
+        assertEquals(state, engine.getState());
+        assertEquals(lines, engine.getScore().getLinesRemoved());
+    }
 }
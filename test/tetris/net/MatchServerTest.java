@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import tetris.generic.Definitions;
+import tetris.generic.TetrisEngine;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class MatchServerTest {
+
+    /**
+     * Two players connect to the server, and each one sees the moves of
+     * the other.
+     */
+    @Test(timeout = 20000)
+    public void testMatch() throws IOException, InterruptedException {
+        MatchServer server = new MatchServer(Definitions.create(6, 20), 2);
+        server.start(0);
+        Player a = new Player(server.getPort());
+        Player b = new Player(server.getPort());
+        try {
+            a.start();
+            b.start();
+            a.join();
+            b.join();
+            assertTrue(a.connected);
+            assertTrue(b.connected);
+            assertEquals(1, server.getMatchCount());
+
+            awaitEqual(a.localEngine, b.remoteEngine);
+            awaitEqual(b.localEngine, a.remoteEngine);
+
+            a.localEngine.keyslam();
+            a.localEngine.keyleft();
+            b.localEngine.keyright();
+            b.localEngine.keyslam();
+            awaitEqual(a.localEngine, b.remoteEngine);
+            awaitEqual(b.localEngine, a.remoteEngine);
+
+            a.network.stop();
+            while (server.getMatchCount() != 0 || server.getConnectionCount() != 0) {
+                Thread.sleep(10);
+            }
+        } finally {
+            a.network.stop();
+            b.network.stop();
+            server.stop();
+        }
+    }
+
+    private static void awaitEqual(TetrisEngine expected, TetrisEngine actual) throws InterruptedException {
+        while (!expected.equals(actual)) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Connects from its own thread, as the connection only ends when the
+     * other player arrives.
+     */
+    private static final class Player extends Thread {
+        final TetrisEngine localEngine = new TetrisEngine();
+        final TetrisEngine remoteEngine = new TetrisEngine();
+        final TCPNetwork network = new TCPNetwork(this.localEngine, this.remoteEngine);
+        final int port;
+        volatile boolean connected;
+
+        Player(int port) {
+            this.port = port;
+            this.localEngine.startengine();
+            this.remoteEngine.startengine();
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.connected = this.network.connect(InetAddress.getByName("localhost"), this.port);
+            } catch (UnknownHostException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
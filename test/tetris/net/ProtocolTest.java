@@ -17,9 +17,23 @@
 
 package tetris.net;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
+import tetris.generic.Block;
+import tetris.generic.Definitions;
 import tetris.generic.TetrisEngine;
+import tetris.generic.TetrisEngine.CompleteState;
+import tetris.generic.TetrisEngine.Move;
+import tetris.generic.TetrisEngine.MoveResult;
+import tetris.generic.Tetromino;
 
 /**
  *
@@ -40,4 +54,93 @@ public class ProtocolTest {
         assertTrue(engine1.equals(engine2));
         assertTrue(engine2.equals(engine1));
     }
+
+    @Test
+    public void testBinaryMoves() throws IOException {
+        Protocol protocol = Protocol.create();
+        Tetromino nextblock = new Tetromino(Tetromino.Type.T, 3);
+        nextblock.x = -1;
+        nextblock.y = 2;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        protocol.encodeMoveResult(new MoveResult(Move.LEFT, true, null), out);
+        assertEquals(1, bytes.size());
+        protocol.encodeMoveResult(new MoveResult(Move.SLAM, true, nextblock), out);
+        assertEquals(5, bytes.size());
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        MoveResult plain = protocol.decodeMoveResult(in.readUnsignedByte(), in);
+        assertEquals(Move.LEFT, plain.move);
+        assertNull(plain.nextblock);
+        int header = in.readUnsignedByte();
+        assertTrue(protocol.isMoveFrame(header));
+        MoveResult fall = protocol.decodeMoveResult(header, in);
+        assertEquals(Move.SLAM, fall.move);
+        assertTrue(fall.fallEnded);
+        assertEquals(nextblock, fall.nextblock);
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testBinaryState() throws IOException {
+        Protocol protocol = Protocol.create();
+        TetrisEngine engine = new TetrisEngine(Definitions.create(6, 20), 7);
+        engine.startengine();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        protocol.encodeCompleteState(engine.dumpCompleteState(), new DataOutputStream(bytes));
+        // An empty board is a few runs of zeros.
+        assertTrue(bytes.size() < 20);
+
+        for (int i = 0; i < 6; i++) {
+            engine.keyslam();
+        }
+        CompleteState state = engine.dumpCompleteState();
+        bytes.reset();
+        protocol.encodeCompleteState(state, new DataOutputStream(bytes));
+        CompleteState decoded = protocol.decodeCompleteState(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertTrue(Arrays.deepEquals(state.blocks, decoded.blocks));
+        assertEquals(state.activeblock, decoded.activeblock);
+        assertEquals(state.nextblock, decoded.nextblock);
+
+        TetrisEngine copy = new TetrisEngine();
+        copy.loadCompleteState(decoded);
+        assertEquals(engine, copy);
+    }
+
+    /**
+     * States in the handshake are text.
+     */
+    @Test
+    public void testStateLines() {
+        Protocol protocol = Protocol.create();
+        TetrisEngine engine = new TetrisEngine(Definitions.create(6, 20), 7);
+        engine.startengine();
+        engine.keyslam();
+        CompleteState state = engine.dumpCompleteState();
+        String line = protocol.encodeCompleteState(state);
+        assertTrue(line.startsWith("6x20 "));
+        assertTrue(Arrays.deepEquals(state.blocks, protocol.decodeCompleteState(line).blocks));
+    }
+
+    @Test
+    public void testTextState() {
+        CompleteState state = Protocol.create().decodeCompleteState(
+                "6x20 blocks[0][19]=1,2 activeblock=0,0,2,0 nextblock=4,1,0,0 ");
+        assertEquals(6, state.definitions.width);
+        assertEquals(Block.FILLED, state.blocks[0][19].getState());
+        assertEquals(Tetromino.Type.values()[2], state.blocks[0][19].getType());
+        assertEquals(Block.EMPTY, state.blocks[1][19].getState());
+        assertEquals(2, state.activeblock.x);
+        assertEquals(1, state.nextblock.rot);
+    }
+
+    /**
+     * Boards wider than a row of the engine are refused by the decoder.
+     */
+    @Test(expected = IOException.class)
+    public void testWideState() throws IOException {
+        byte[] header = {0, (byte) (Definitions.MAX_WIDTH + 1), 1};
+        Protocol.create().decodeCompleteState(new DataInputStream(new ByteArrayInputStream(header)));
+    }
 }
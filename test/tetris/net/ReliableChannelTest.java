@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.net;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class ReliableChannelTest {
+
+    /**
+     * A lost packet is made up by the next one, which carries its message.
+     */
+    @Test
+    public void testRedundancy() throws IOException {
+        ReliableChannel sender = new ReliableChannel(4, 1000);
+        ReliableChannel receiver = new ReliableChannel(4, 1000);
+        sender.send(new byte[] {1}, 0);
+        byte[] packet = sender.send(new byte[] {2}, 0);
+        List<byte[]> messages = receiver.receive(packet, packet.length);
+        assertEquals(2, messages.size());
+        assertArrayEquals(new byte[] {1}, messages.get(0));
+        assertArrayEquals(new byte[] {2}, messages.get(1));
+
+        byte[] ack = receiver.poll(0);
+        assertEquals(2, sender.getUnacknowledged());
+        sender.receive(ack, ack.length);
+        assertEquals(0, sender.getUnacknowledged());
+        assertNull(receiver.poll(0));
+        assertNull(sender.poll(5000));
+    }
+
+    /**
+     * Messages to a peer that never acknowledges them are not kept forever.
+     */
+    @Test
+    public void testFull() throws IOException {
+        ReliableChannel sender = new ReliableChannel(4, 1000);
+        for (int i = 0; i < 1024; i++) {
+            sender.send(new byte[] {1}, 0);
+        }
+        try {
+            sender.send(new byte[] {1}, 0);
+            fail();
+        } catch (IOException ex) {
+        }
+        assertEquals(1024, sender.getUnacknowledged());
+
+        ReliableChannel receiver = new ReliableChannel(4, 1000);
+        byte[] resent = sender.poll(1000);
+        receiver.receive(resent, resent.length);
+        byte[] keepAlive = receiver.keepAlive(1000);
+        sender.receive(keepAlive, keepAlive.length);
+        assertEquals(1024 - 4, sender.getUnacknowledged());
+    }
+
+    /**
+     * Messages arrive in order, once each, over a link that loses,
+     * duplicates and reorders packets.
+     */
+    @Test
+    public void testLossyLink() throws IOException {
+        Random random = new Random(42);
+        ReliableChannel sender = new ReliableChannel(3, 10);
+        ReliableChannel receiver = new ReliableChannel(3, 10);
+        List<byte[]> toReceiver = new ArrayList<>();
+        List<byte[]> toSender = new ArrayList<>();
+        List<byte[]> delivered = new ArrayList<>();
+        int count = 500;
+        long now = 0;
+        for (int sent = 0; delivered.size() < count; now += 5) {
+            if (sent < count) {
+                toReceiver.add(sender.send(new byte[] {(byte) sent, (byte) (sent >> 8)}, now));
+                sent++;
+            }
+            byte[] resend = sender.poll(now);
+            if (resend != null) {
+                toReceiver.add(resend);
+            }
+            for (byte[] packet : lossy(toReceiver, random)) {
+                delivered.addAll(receiver.receive(packet, packet.length));
+            }
+            byte[] ack = receiver.poll(now);
+            if (ack != null) {
+                toSender.add(ack);
+            }
+            for (byte[] packet : lossy(toSender, random)) {
+                sender.receive(packet, packet.length);
+            }
+            if (now > 1000000) {
+                throw new AssertionError("only " + delivered.size() + " messages delivered");
+            }
+        }
+        assertEquals(count, delivered.size());
+        for (int i = 0; i < count; i++) {
+            assertArrayEquals(new byte[] {(byte) i, (byte) (i >> 8)}, delivered.get(i));
+        }
+    }
+
+    /**
+     * Takes the packets in flight, losing 30% of them, duplicating 10% and
+     * shuffling them.
+     */
+    private static List<byte[]> lossy(List<byte[]> inFlight, Random random) {
+        List<byte[]> arrived = new ArrayList<>();
+        for (byte[] packet : inFlight) {
+            double dice = random.nextDouble();
+            if (dice < 0.3) {
+                continue;
+            }
+            arrived.add(packet);
+            if (dice > 0.9) {
+                arrived.add(packet);
+            }
+        }
+        inFlight.clear();
+        Collections.shuffle(arrived, random);
+        return arrived;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import tetris.generic.Definitions;
+import tetris.generic.TetrisEngine;
+import tetris.generic.TetrisEngine.Move;
+import tetris.generic.TetrisEngine.MoveResult;
+import tetris.generic.TetrisMoveListener;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class RollbackTest {
+
+    /**
+     * Moves that arrive out of order end in the same game as the moves in
+     * order.
+     */
+    @Test
+    public void testOutOfOrder() {
+        Definitions defs = Definitions.create(6, 20);
+        TetrisEngine source = new TetrisEngine(defs, 17);
+        source.startengine();
+        TetrisEngine mirror = new TetrisEngine(defs);
+        mirror.loadCompleteState(source.dumpCompleteState());
+        final List<MoveResult> moves = new ArrayList<>();
+        source.addMoveListener(new TetrisMoveListener() {
+            @Override
+            public void sucessfulMove(MoveResult move) {
+                moves.add(move);
+            }
+        });
+        Random random = new Random(17);
+        Move[] keys = Move.values();
+        while (moves.size() < 300 && source.getState() == TetrisEngine.GameState.PLAYING) {
+            source.tryMove(keys[random.nextInt(keys.length)]);
+        }
+
+        // Every message is delayed by up to 8 places.
+        int[] order = new int[moves.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        for (int i = 0; i < order.length; i++) {
+            int j = Math.min(order.length - 1, i + random.nextInt(8));
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+
+        Rollback rollback = new Rollback(mirror, 64);
+        for (int index : order) {
+            rollback.move(index + 1, moves.get(index));
+            rollback.move(index + 1, moves.get(index));
+        }
+        assertEquals(moves.size(), rollback.getConfirmed());
+        assertTrue(rollback.getRollbacks() > 0);
+        assertEquals(source, mirror);
+        assertEquals(source.getScore().getScore(), mirror.getScore().getScore());
+    }
+
+    /**
+     * A move too far ahead of a gap is left for when it arrives again.
+     */
+    @Test
+    public void testCapacity() {
+        TetrisEngine engine = new TetrisEngine(Definitions.create(6, 20), 3);
+        engine.startengine();
+        Rollback rollback = new Rollback(engine, 4);
+        MoveResult down = new MoveResult(Move.DOWN, true, null);
+        rollback.move(3, down);
+        rollback.move(4, down);
+        rollback.nothing(1);
+        assertEquals(1, rollback.getConfirmed());
+        rollback.nothing(2);
+        assertEquals(3, rollback.getConfirmed());
+        rollback.move(4, down);
+        assertEquals(4, rollback.getConfirmed());
+    }
+}
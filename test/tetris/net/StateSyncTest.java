@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import tetris.generic.Definitions;
+import tetris.generic.TetrisEngine;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class StateSyncTest {
+
+    @Test
+    public void testDeltas() throws IOException {
+        TetrisEngine engine = new TetrisEngine(Definitions.create(6, 20), 3);
+        engine.startengine();
+        TetrisEngine mirror = new TetrisEngine();
+        StateSync.Sender sender = new StateSync.Sender(100);
+        StateSync.Receiver receiver = new StateSync.Receiver();
+
+        byte[] keyframe = frame(sender, engine);
+        assertTrue(apply(receiver, keyframe, mirror));
+        assertEquals(engine, mirror);
+        assertEquals(0, frame(sender, engine).length);
+
+        engine.keydown();
+        byte[] move = frame(sender, engine);
+        assertTrue(apply(receiver, move, mirror));
+        assertEquals(engine, mirror);
+        // No settled row changed.
+        assertTrue(move.length < keyframe.length);
+
+        for (int i = 0; i < 20 && engine.getState() == TetrisEngine.GameState.PLAYING; i++) {
+            engine.keyslam();
+            assertTrue(apply(receiver, frame(sender, engine), mirror));
+            assertEquals(engine, mirror);
+        }
+    }
+
+    @Test
+    public void testGap() throws IOException {
+        TetrisEngine engine = new TetrisEngine(Definitions.create(6, 20), 5);
+        engine.startengine();
+        TetrisEngine mirror = new TetrisEngine();
+        StateSync.Sender sender = new StateSync.Sender(3);
+        StateSync.Receiver receiver = new StateSync.Receiver();
+
+        assertTrue(apply(receiver, frame(sender, engine), mirror));
+        engine.keydown();
+        frame(sender, engine); // lost
+        engine.keydown();
+        assertFalse(apply(receiver, frame(sender, engine), mirror));
+        assertFalse(receiver.isSynced());
+        engine.keydown();
+        assertFalse(apply(receiver, frame(sender, engine), mirror));
+
+        engine.keydown();
+        assertTrue(apply(receiver, frame(sender, engine), mirror));
+        assertTrue(receiver.isSynced());
+        assertEquals(engine, mirror);
+    }
+
+    /**
+     * Spectators that connect in the middle of the game catch up.
+     */
+    @Test(timeout = 20000)
+    public void testSpectators() throws IOException, InterruptedException {
+        TetrisEngine engine = new TetrisEngine(Definitions.create(6, 20), 11);
+        engine.startengine();
+        SpectatorServer server = new SpectatorServer(engine, 5, 50);
+        TetrisEngine first = new TetrisEngine();
+        TetrisEngine second = new TetrisEngine();
+        Spectator firstSpectator = new Spectator(first);
+        Spectator secondSpectator = new Spectator(second);
+        try {
+            server.start(0);
+            assertTrue(firstSpectator.connect(InetAddress.getByName("localhost"), server.getPort()));
+            engine.keyslam();
+            engine.keyslam();
+            awaitEqual(engine, first);
+
+            assertTrue(secondSpectator.connect(InetAddress.getByName("localhost"), server.getPort()));
+            awaitEqual(engine, second);
+            engine.keyleft();
+            engine.keyslam();
+            awaitEqual(engine, first);
+            awaitEqual(engine, second);
+            assertEquals(2, server.getSpectatorCount());
+        } finally {
+            firstSpectator.stop();
+            secondSpectator.stop();
+            server.stop();
+        }
+    }
+
+    /**
+     * A spectator that never reads holds nobody back, and is dropped once
+     * too much waits for it.
+     */
+    @Test(timeout = 30000)
+    public void testStalledSpectator() throws IOException, InterruptedException {
+        TetrisEngine engine = new TetrisEngine(Definitions.create(10, 20), 13);
+        engine.startengine();
+        SpectatorServer server = new SpectatorServer(engine, 1, 1, 4096);
+        TetrisEngine mirror = new TetrisEngine(engine.defs);
+        Spectator spectator = new Spectator(mirror);
+        Socket stalled = new Socket();
+        try {
+            server.start(0);
+            stalled.setReceiveBufferSize(1024);
+            stalled.connect(new InetSocketAddress(InetAddress.getByName("localhost"), server.getPort()));
+            assertTrue(spectator.connect(InetAddress.getByName("localhost"), server.getPort()));
+            awaitCount(server, 2);
+
+            Random random = new Random(13);
+            while (server.getSpectatorCount() > 1) {
+                switch (random.nextInt(3)) {
+                case 0:
+                    engine.keyleft();
+                    break;
+                case 1:
+                    engine.keyright();
+                    break;
+                default:
+                    engine.keyslam();
+                }
+                if (engine.getState() != TetrisEngine.GameState.PLAYING) {
+                    engine.startengine();
+                }
+                awaitEqual(engine, mirror);
+            }
+            engine.keyslam();
+            awaitEqual(engine, mirror);
+        } finally {
+            stalled.close();
+            spectator.stop();
+            server.stop();
+        }
+    }
+
+    private static void awaitCount(SpectatorServer server, int count) throws InterruptedException {
+        while (server.getSpectatorCount() != count) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static byte[] frame(StateSync.Sender sender, TetrisEngine engine) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sender.write(engine, new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static boolean apply(StateSync.Receiver receiver, byte[] frame, TetrisEngine engine) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        boolean applied = receiver.readInto(in.readUnsignedByte(), in, engine);
+        assertEquals(-1, in.read());
+        return applied;
+    }
+
+    private static void awaitEqual(TetrisEngine expected, TetrisEngine actual) throws InterruptedException {
+        while (!expected.equals(actual)) {
+            Thread.sleep(5);
+        }
+    }
+}
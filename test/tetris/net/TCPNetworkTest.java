@@ -17,10 +17,22 @@
 
 package tetris.net;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.UnknownHostException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 import tetris.generic.TetrisEngine;
+import tetris.generic.TetrisEngine.Move;
+import tetris.generic.TetrisEngine.MoveResult;
 
 /**
  *
@@ -77,6 +89,224 @@ public class TCPNetworkTest {
             localNetwork.stop();
             remoteNetwork.stop();
         }
-    }    
+    }
+
+    /**
+     * Plays the server side of the handshake by hand, and checks that the
+     * client switches to binary frames once both offered them.
+     */
+    @Test(timeout = 10000)
+    public void testBinaryNegotiation() throws IOException, InterruptedException {
+        TetrisEngine localEngine = new TetrisEngine();
+        TetrisEngine remoteEngine = new TetrisEngine();
+        localEngine.startengine();
+        remoteEngine.startengine();
+        final TCPNetwork network = new TCPNetwork(localEngine, remoteEngine);
+        Protocol protocol = Protocol.create();
+
+        try (final ServerSocket server = new ServerSocket(0)) {
+            // The client blocks in the handshake, so it connects from another thread.
+            Thread client = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        network.connect(InetAddress.getByName("localhost"), server.getLocalPort());
+                    } catch (UnknownHostException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            };
+            client.start();
+            try (Socket peer = server.accept()) {
+                DataInputStream in = new DataInputStream(peer.getInputStream());
+                PrintStream out = new PrintStream(peer.getOutputStream(), true);
+                assertEquals(Network.HELLO, readLine(in));
+                out.println(Network.HELLO);
+                out.println(protocol.encodeCompleteState(remoteEngine.dumpCompleteState()));
+                protocol.decodeCompleteState(readLine(in));
+                assertEquals(Network.delimitadorBinario + Network.BINARIO_OFERTA, readLine(in));
+                client.join();
+
+                // Moving down always works on a new block, unlike the sides.
+                localEngine.keydown();
+                assertEquals(Network.delimitadorJogo + "3", readLine(in));
+
+                out.println(Network.delimitadorBinario + Network.BINARIO_OFERTA);
+                assertEquals(Network.delimitadorBinario + Network.BINARIO_INICIO, readLine(in));
+                localEngine.keydown();
+                int header = in.readUnsignedByte();
+                MoveResult move = protocol.decodeMoveResult(header, in);
+                assertEquals(Move.DOWN, move.move);
+            }
+        } finally {
+            network.stop();
+        }
+    }
+
+    /**
+     * A peer that only knows the text protocol reads the state of the
+     * handshake and keeps getting text lines.
+     */
+    @Test(timeout = 10000)
+    public void testTextOnlyPeer() throws IOException, InterruptedException {
+        TetrisEngine localEngine = new TetrisEngine();
+        TetrisEngine remoteEngine = new TetrisEngine();
+        localEngine.startengine();
+        remoteEngine.startengine();
+        final TCPNetwork network = new TCPNetwork(localEngine, remoteEngine);
+        Protocol protocol = Protocol.create();
+
+        try (final ServerSocket server = new ServerSocket(0)) {
+            Thread client = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        network.connect(InetAddress.getByName("localhost"), server.getLocalPort());
+                    } catch (UnknownHostException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            };
+            client.start();
+            try (Socket peer = server.accept()) {
+                DataInputStream in = new DataInputStream(peer.getInputStream());
+                PrintStream out = new PrintStream(peer.getOutputStream(), true);
+                assertEquals(Network.HELLO, readLine(in));
+                out.println(Network.HELLO);
+                out.println(protocol.encodeCompleteState(remoteEngine.dumpCompleteState()));
+
+                // Old peers read the size up to the first space.
+                String state = readLine(in);
+                assertEquals(localEngine.defs.width + "x" + localEngine.defs.height, state.substring(0, state.indexOf(' ')));
+                TetrisEngine copy = new TetrisEngine();
+                copy.loadCompleteState(protocol.decodeCompleteState(state));
+                assertEquals(localEngine, copy);
+                assertEquals(Network.delimitadorBinario + Network.BINARIO_OFERTA, readLine(in));
+                client.join();
+
+                localEngine.keydown();
+                assertEquals(Network.delimitadorJogo + "3", readLine(in));
+            }
+        } finally {
+            network.stop();
+        }
+    }
 
+    /**
+     * In binary, a move that ends a fall is followed by a state frame of the
+     * local game, and the state frames of the other peer are loaded into the
+     * remote engine.
+     */
+    @Test(timeout = 10000)
+    public void testStateFrames() throws IOException, InterruptedException {
+        TetrisEngine localEngine = new TetrisEngine();
+        TetrisEngine remoteEngine = new TetrisEngine();
+        localEngine.startengine();
+        remoteEngine.startengine();
+        final TCPNetwork network = new TCPNetwork(localEngine, remoteEngine);
+        Protocol protocol = Protocol.create();
+
+        try (final ServerSocket server = new ServerSocket(0)) {
+            Thread client = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        network.connect(InetAddress.getByName("localhost"), server.getLocalPort());
+                    } catch (UnknownHostException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            };
+            client.start();
+            try (Socket peer = server.accept()) {
+                DataInputStream in = new DataInputStream(peer.getInputStream());
+                DataOutputStream out = new DataOutputStream(peer.getOutputStream());
+                PrintStream text = new PrintStream(out, true);
+                assertEquals(Network.HELLO, readLine(in));
+                text.println(Network.HELLO);
+                text.println(protocol.encodeCompleteState(remoteEngine.dumpCompleteState()));
+                protocol.decodeCompleteState(readLine(in));
+                assertEquals(Network.delimitadorBinario + Network.BINARIO_OFERTA, readLine(in));
+                client.join();
+                text.println(Network.delimitadorBinario + Network.BINARIO_OFERTA);
+                assertEquals(Network.delimitadorBinario + Network.BINARIO_INICIO, readLine(in));
+
+                StateSync.Receiver receiver = new StateSync.Receiver();
+                TetrisEngine copy = new TetrisEngine();
+                for (int header : new int[] {StateSync.FRAME_KEYFRAME, StateSync.FRAME_DELTA}) {
+                    localEngine.keyslam();
+                    MoveResult move = protocol.decodeMoveResult(in.readUnsignedByte(), in);
+                    assertEquals(Move.SLAM, move.move);
+                    assertEquals(header, in.readUnsignedByte());
+                    assertTrue(receiver.readInto(header, in, copy));
+                    assertEquals(localEngine, copy);
+                }
+
+                TetrisEngine other = new TetrisEngine();
+                other.startengine();
+                other.keyslam();
+                text.println(Network.delimitadorBinario + Network.BINARIO_INICIO);
+                new StateSync.Sender(0).write(other, out);
+                out.flush();
+                while (!remoteEngine.equals(other)) {
+                    Thread.sleep(10);
+                }
+            }
+        } finally {
+            network.stop();
+        }
+    }
+
+    /**
+     * A match server answers the hello and sends the state only when an
+     * opponent shows up. The network can still be asked about and stopped
+     * while it waits.
+     */
+    @Test(timeout = 10000)
+    public void testStopWhileWaiting() throws IOException, InterruptedException {
+        TetrisEngine localEngine = new TetrisEngine();
+        TetrisEngine remoteEngine = new TetrisEngine();
+        final TCPNetwork network = new TCPNetwork(localEngine, remoteEngine);
+        final boolean[] connected = {true};
+
+        try (final ServerSocket server = new ServerSocket(0)) {
+            Thread client = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        connected[0] = network.connect(InetAddress.getByName("localhost"), server.getLocalPort());
+                    } catch (UnknownHostException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            };
+            client.start();
+            try (Socket peer = server.accept()) {
+                DataInputStream in = new DataInputStream(peer.getInputStream());
+                PrintStream out = new PrintStream(peer.getOutputStream(), true);
+                assertEquals(Network.HELLO, readLine(in));
+                out.println(Network.HELLO);
+
+                assertEquals(Network.ConnectionState.CONNECTING, network.getConnectionState());
+                assertNull(network.getRemoteAddress());
+                network.stop();
+                client.join();
+                assertFalse(connected[0]);
+                assertEquals(Network.ConnectionState.DISCONNECTED, network.getConnectionState());
+            }
+        } finally {
+            network.stop();
+        }
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '\n' && b >= 0) {
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.net;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import tetris.generic.TetrisEngine;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class UDPNetworkTest {
+
+    @Test(timeout = 20000)
+    public void testConnect() throws UnknownHostException, InterruptedException {
+        TetrisEngine localEngine1 = new TetrisEngine();
+        TetrisEngine remoteEngine1 = new TetrisEngine();
+        TetrisEngine localEngine2 = new TetrisEngine();
+        TetrisEngine remoteEngine2 = new TetrisEngine();
+        localEngine1.startengine();
+        localEngine2.startengine();
+
+        UDPNetwork server = new UDPNetwork(localEngine1, remoteEngine1);
+        UDPNetwork client = new UDPNetwork(localEngine2, remoteEngine2);
+        try {
+            server.start();
+            client.start();
+            assertNull(client.getRemoteAddress());
+            assertTrue(client.connect(InetAddress.getByName("localhost"), server.getPort()));
+            assertEquals(Network.ConnectionState.CONNECTED, client.getConnectionState());
+            assertNotNull(client.getRemoteAddress());
+
+            awaitEqual(localEngine1, remoteEngine2);
+            awaitEqual(localEngine2, remoteEngine1);
+
+            localEngine2.keyslam();
+            localEngine1.keyrotate();
+            localEngine1.keyslam();
+            localEngine2.keyslam();
+            awaitEqual(localEngine1, remoteEngine2);
+            awaitEqual(localEngine2, remoteEngine1);
+        } finally {
+            client.stop();
+            server.stop();
+        }
+        assertNull(client.getRemoteAddress());
+    }
+
+    @Test(timeout = 20000)
+    public void testQuietStop() throws UnknownHostException, InterruptedException {
+        final List<LogRecord> warnings = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public synchronized void publish(LogRecord record) {
+                if (record.getLevel().intValue() >= Level.WARNING.intValue()) {
+                    warnings.add(record);
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(UDPNetwork.class.getName());
+        logger.addHandler(handler);
+        try {
+            TetrisEngine localEngine1 = new TetrisEngine();
+            TetrisEngine localEngine2 = new TetrisEngine();
+            localEngine1.startengine();
+            localEngine2.startengine();
+            UDPNetwork server = new UDPNetwork(localEngine1, new TetrisEngine());
+            UDPNetwork client = new UDPNetwork(localEngine2, new TetrisEngine());
+            try {
+                server.start();
+                client.start();
+                assertTrue(client.connect(InetAddress.getByName("localhost"), server.getPort()));
+                localEngine2.keyslam();
+            } finally {
+                client.stop();
+                server.stop();
+            }
+            Thread.sleep(200);
+        } finally {
+            logger.removeHandler(handler);
+        }
+        synchronized (handler) {
+            assertTrue(warnings.toString(), warnings.isEmpty());
+        }
+    }
+
+    /**
+     * Quiet players keep the session alive, and a peer that goes silent is
+     * given up.
+     */
+    @Test(timeout = 20000)
+    public void testTimeout() throws IOException, InterruptedException {
+        long timeout = TimeUnit.MILLISECONDS.toNanos(500);
+        TetrisEngine localEngine1 = new TetrisEngine();
+        TetrisEngine localEngine2 = new TetrisEngine();
+        localEngine1.startengine();
+        localEngine2.startengine();
+        UDPNetwork server = new UDPNetwork(localEngine1, new TetrisEngine(), timeout);
+        UDPNetwork client = new UDPNetwork(localEngine2, new TetrisEngine(), timeout);
+        try {
+            server.start();
+            client.start();
+            assertTrue(client.connect(InetAddress.getByName("localhost"), server.getPort()));
+            Thread.sleep(1500);
+            assertEquals(Network.ConnectionState.CONNECTED, client.getConnectionState());
+            assertEquals(Network.ConnectionState.CONNECTED, server.getConnectionState());
+
+            // Gone without a word: the client never hears of it again.
+            server.stop();
+            while (client.getConnectionState() != Network.ConnectionState.DISCONNECTED) {
+                Thread.sleep(10);
+            }
+        } finally {
+            client.stop();
+            server.stop();
+        }
+    }
+
+    private static void awaitEqual(TetrisEngine expected, TetrisEngine actual) throws InterruptedException {
+        while (!expected.equals(actual)) {
+            Thread.sleep(10);
+        }
+    }
+}
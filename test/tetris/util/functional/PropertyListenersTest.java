@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 Arthur D'Andréa Alemar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tetris.util.functional;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import javax.swing.SwingUtilities;
+import org.junit.Test;
+
+/**
+ *
+ * @author Arthur D'Andréa Alemar
+ */
+public class PropertyListenersTest {
+
+    @Test
+    public void testCoalescedInSwing() throws Exception {
+        final List<PropertyChangeEvent> events = new ArrayList<>();
+        PropertyChangeSupport support = new PropertyChangeSupport(this);
+        support.addPropertyChangeListener(PropertyListeners.coalescedInSwing(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                assertTrue(SwingUtilities.isEventDispatchThread());
+                events.add(evt);
+            }
+        }));
+
+        // Keep the Swing thread busy while the events are fired.
+        final CountDownLatch busy = new CountDownLatch(1);
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    busy.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        for (int i = 0; i < 100; i++) {
+            support.firePropertyChange("count", i, i + 1);
+        }
+        support.firePropertyChange("name", "a", "b");
+        busy.countDown();
+        SwingUtilities.invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+
+        assertEquals(2, events.size());
+        for (PropertyChangeEvent evt : events) {
+            if (evt.getPropertyName().equals("count")) {
+                assertEquals(0, evt.getOldValue());
+                assertEquals(100, evt.getNewValue());
+            } else {
+                assertEquals("b", evt.getNewValue());
+            }
+        }
+    }
+}